@@ -0,0 +1,150 @@
+package com.perennate.games.levelup;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.Socket;
+
+//compares the server threading modes: opens many idle connections to a
+// Lobby, where they wait without joining a table, and measures the memory
+// and threads they cost, then how many keep-alive round trips the server
+// handles per second
+//the mode comes from the configuration file as usual (transport and
+// virtual_threads), so run this once per mode with the same connection
+// count, for example:
+//  transport=thread                        (a platform thread per connection)
+//  transport=thread, virtual_threads=true  (a virtual thread per connection)
+//  transport=nio                           (shared selector threads)
+//the client sockets live in the same JVM and cost the same in every mode
+//usage: ConnectionBenchmark [config file] [connections] [rounds]
+public class ConnectionBenchmark {
+	public static void main(String args[]) throws IOException {
+		String propertiesFile = "levelup.cfg";
+		int numConnections = 1000;
+		int rounds = 20;
+		
+		if(args.length >= 1) propertiesFile = args[0];
+		if(args.length >= 2) numConnections = Integer.parseInt(args[1]);
+		if(args.length >= 3) rounds = Integer.parseInt(args[2]);
+		
+		if(!Config.init(propertiesFile)) return;
+		
+		//stack traces from thousands of closing connections aren't useful here
+		LevelUp.DEBUG = false;
+		
+		LevelUp.println("[ConnectionBenchmark] transport=" + Config.getString("transport", "nio") +
+				", virtual_threads=" + Threads.isVirtual() + ", connections=" + numConnections);
+		
+		long baseHeap = usedHeap();
+		long baseRSS = residentMemory();
+		int baseThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+		
+		Lobby lobby = new Lobby(true);
+		
+		if(!lobby.bind()) return;
+		
+		lobby.start();
+		
+		//connections only send keep-alives, so they stay in the lobby
+		Socket[] sockets = new Socket[numConnections];
+		OutputStream[] outs = new OutputStream[numConnections];
+		DataInputStream[] ins = new DataInputStream[numConnections];
+		long startTime = System.nanoTime();
+		
+		for(int i = 0; i < numConnections; i++) {
+			sockets[i] = new Socket(InetAddress.getLoopbackAddress(), GameHost.DEFAULT_PORT);
+			sockets[i].setTcpNoDelay(true);
+			outs[i] = sockets[i].getOutputStream();
+			ins[i] = new DataInputStream(sockets[i].getInputStream());
+		}
+		
+		while(lobby.getNumConnections() < numConnections) {
+			try {
+				Thread.sleep(10);
+			} catch(InterruptedException e) {}
+		}
+		
+		long connectTime = (System.nanoTime() - startTime) / 1000000;
+		
+		//let thread stacks and buffers settle before measuring
+		try {
+			Thread.sleep(1000);
+		} catch(InterruptedException e) {}
+		
+		long heap = usedHeap() - baseHeap;
+		long rss = residentMemory() - baseRSS;
+		int threads = ManagementFactory.getThreadMXBean().getThreadCount() - baseThreads;
+		
+		LevelUp.println("[ConnectionBenchmark] Connected in " + connectTime + " ms");
+		LevelUp.println("[ConnectionBenchmark] Heap: " + (heap / 1024) + " KB (" + (heap / numConnections) + " bytes per connection)");
+		
+		if(baseRSS >= 0) {
+			LevelUp.println("[ConnectionBenchmark] Resident memory: " + (rss / 1024) + " KB (" + (rss / numConnections) + " bytes per connection)");
+		}
+		
+		LevelUp.println("[ConnectionBenchmark] Platform threads: " + threads);
+		
+		//every round sends a keep-alive on each connection and waits for all
+		// of the replies
+		byte[] noop = new byte[] {(byte) GameConnection.PACKET_HEADER, (byte) GameConnection.PACKET_NOOP};
+		startTime = System.nanoTime();
+		
+		for(int round = 0; round < rounds; round++) {
+			for(int i = 0; i < numConnections; i++) {
+				outs[i].write(noop);
+			}
+			
+			for(int i = 0; i < numConnections; i++) {
+				ins[i].readUnsignedByte();
+				ins[i].readUnsignedByte();
+			}
+		}
+		
+		long elapsed = Math.max(1, (System.nanoTime() - startTime) / 1000000);
+		long roundTrips = (long) rounds * numConnections;
+		LevelUp.println("[ConnectionBenchmark] " + roundTrips + " round trips in " + elapsed + " ms (" + (roundTrips * 1000 / elapsed) + " per second)");
+		
+		for(int i = 0; i < numConnections; i++) {
+			sockets[i].close();
+		}
+		
+		lobby.terminate();
+		System.exit(0);
+	}
+	
+	static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		
+		for(int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+	
+	//resident set size in bytes from /proc, or -1 where that isn't available
+	static long residentMemory() {
+		try {
+			BufferedReader reader = new BufferedReader(new FileReader("/proc/self/status"));
+			
+			try {
+				String line;
+				
+				while((line = reader.readLine()) != null) {
+					if(line.startsWith("VmRSS:")) {
+						String[] parts = line.trim().split("\\s+");
+						return Long.parseLong(parts[1]) * 1024;
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch(IOException ioe) {} catch(NumberFormatException e) {}
+		
+		return -1;
+	}
+}
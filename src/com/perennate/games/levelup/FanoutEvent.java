@@ -0,0 +1,22 @@
+package com.perennate.games.levelup;
+
+import java.util.List;
+
+import com.perennate.games.levelup.engine.GameEvent;
+
+//events or a catch-up submitted with the game lock held
+class FanoutEvent extends GameEvent {
+	SpectatorFanout fanout;
+	GameConnection spectator;
+	List<SpectatorEvent> events;
+	
+	public FanoutEvent(SpectatorFanout fanout, GameConnection spectator, List<SpectatorEvent> events) {
+		this.fanout = fanout;
+		this.spectator = spectator;
+		this.events = events;
+	}
+	
+	public void dispatch() {
+		fanout.submit(spectator, events);
+	}
+}
@@ -1,20 +1,25 @@
 package com.perennate.games.levelup;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.ReentrantLock;
 
 import com.perennate.games.levelup.engine.Card;
 import com.perennate.games.levelup.engine.CardTuple;
 import com.perennate.games.levelup.engine.Game;
+import com.perennate.games.levelup.engine.GameDelta;
+import com.perennate.games.levelup.util.HashedWheelTimer;
+import com.perennate.games.levelup.util.Util;
 
 public class GameClient implements Runnable {
 	public static int DEFAULT_PORT = 7553;
@@ -42,31 +47,72 @@ public class GameClient implements Runnable {
 	public static int PACKET_NEWPID = 19;
 	public static int PACKET_RESIZED = 20;
 	public static int PACKET_NOOP = 21;
+	public static int PACKET_JOINVERSION = 22;
+	public static int PACKET_SPECTATE = 23;
+	public static int PACKET_SESSION = 24;
+	public static int PACKET_RESUME = 25;
+	public static int PACKET_DELTA = 26;
+	public static int PACKET_RESYNC = 27;
+	
+	//send NOOP to server every 30 seconds
+	public static int KEEPALIVE_INTERVAL = 30000;
+	
+	//after a drop, try to reconnect every 2 seconds for up to resume_timeout
+	public static int RESUME_RETRY = 2000;
+	public static int DEFAULT_RESUME_TIMEOUT = 50000;
+	
+	//keep-alives of every client in the process share one timer thread
+	static HashedWheelTimer timer = HashedWheelTimer.getShared();
+	volatile HashedWheelTimer.Timeout keepAlive;
+	
+	//the timer's tasks must never block, so keep-alives are queued for one
+	// writer thread shared by every client in the process; a socket that
+	// the server has stopped reading can block the write, so a client isn't
+	// queued again while its last keep-alive is still waiting or being written
+	static LinkedBlockingQueue<GameClient> noops = new LinkedBlockingQueue<GameClient>();
+	static Thread noopThread;
+	volatile boolean noopPending;
+	
+	InetAddress serverAddress;
+	int serverPort;
 	
-	Timer timer;
 	Socket socket;
-	DataInputStream in;
-	DataOutputStream out;
+	DataInputStream socketIn;
+	OutputStream socketOut;
+	ReentrantLock outLock;
 	boolean isConnected;
 	
+	//the protocol version (see GameConnection); we ask for one when joining
+	// and switch our output right away, and our input once the server
+	// answers; guarded by outLock
+	int version;
+	
 	Game game;
 	View view;
 	int pid;
 	
-	//byte[] buffer for syncing game with server
-	byte[] syncBuf;
-	int syncPos;
+	//the session that the server gave us when we were seated, and the
+	// number of table packets we've had since (see TableLog)
+	String sessionToken;
+	int sessionCount;
+	
+	//when we give up on resuming, while we are; the JOIN that answers
+	// RESUME isn't a new join
+	long resumeDeadline;
 	
 	public GameClient(Game game, View view) {
 		this.view = view;
 		this.game = game;
 		
+		//the view hears about each packet's changes once we let go of the
+		// game, so Swing work in the view doesn't hold up painting
+		game.setDeferredEvents(true);
 		view.setClient(this);
 		
 		pid = -1;
+		version = 1;
 		isConnected = false;
-		
-		timer = new Timer();
+		outLock = new ReentrantLock();
 	}
 	
 	public synchronized boolean connect(String hostname, int port) {
@@ -92,11 +138,14 @@ public class GameClient implements Runnable {
 			return false;
 		}
 		
+		serverAddress = host;
+		serverPort = port;
+		
 		try {
 			socket = new Socket(host, port);
 			
-			in = new DataInputStream(socket.getInputStream());
-			out = new DataOutputStream(socket.getOutputStream());
+			socketIn = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			socketOut = socket.getOutputStream();
 			
 			isConnected = true;
 		} catch(IOException ioe) {
@@ -104,15 +153,16 @@ public class GameClient implements Runnable {
 			view.eventConnectError("Unable to connect to " + host.getHostAddress() + ": " + ioe.getLocalizedMessage());
 		}
 		
-		new Thread(this).start();
+		Threads.start(this, "GameClient");
+		
+		startNoopWriter();
 		
 		//add new noop task, and cancel if there's an existing one
-		if(timer != null) {
-			timer.cancel();
+		if(keepAlive != null) {
+			keepAlive.cancel();
 		}
 		
-		timer = new Timer();
-		timer.schedule(new NoopTask(), 0, 30000); //send NOOP to server every 30 seconds
+		keepAlive = timer.schedule(new NoopTask(), 0);
 		
 		return true;
 	}
@@ -122,6 +172,11 @@ public class GameClient implements Runnable {
 			isConnected = false;
 			
 			LevelUp.println("[GameClient] Terminating connection: " + reason);
+			
+			if(keepAlive != null) {
+				keepAlive.cancel();
+			}
+			
 			view.eventTerminateError(reason);
 			
 			if(socket != null && !socket.isClosed()) {
@@ -136,40 +191,104 @@ public class GameClient implements Runnable {
 		//reason for termination
 		String reason = "unknown";
 			
+		//the server only switches once it answers JOINVERSION
+		int inVersion = 1;
+		
 		while(isConnected) {
 			try {
-				int header = in.read();
+				DataInputStream in = socketIn;
+				int identifier;
 				
-				if(header == -1) {
-					reason = "remote disconnected";
-					break;
-				} else if(header != PACKET_HEADER) {
-					reason = "invalid header=" + header + " received from server";
-					break;
+				if(inVersion >= GameConnection.PROTOCOL_V2) {
+					int len = Util.readVarInt(socketIn);
+					
+					if(len < 1 || len > NioTransport.MAX_PACKET_SIZE) {
+						reason = "invalid packet length=" + len + " received from server";
+						break;
+					}
+					
+					byte[] frame = new byte[len];
+					socketIn.readFully(frame);
+					in = new DataInputStream(new ByteArrayInputStream(frame));
+					identifier = in.readUnsignedByte();
+				} else {
+					int header = in.read();
+					
+					if(header == -1) {
+						reason = "remote disconnected";
+						break;
+					} else if(header != PACKET_HEADER) {
+						reason = "invalid header=" + header + " received from server";
+						break;
+					}
+					
+					identifier = in.read();
 				}
 				
-				int identifier = in.read();
-				
-				if(identifier == PACKET_JOIN) { //JOIN
-					pid = in.readInt();
+				if(identifier == PACKET_JOINVERSION) {
+					inVersion = in.readInt();
+					int requestVersion;
+					
+					//wait for sendJoin to finish switching our output
+					outLock.lock();
+					
+					try {
+						requestVersion = version;
+					} finally {
+						outLock.unlock();
+					}
+					
+					if(inVersion != requestVersion) {
+						reason = "server does not support protocol version " + requestVersion;
+						break;
+					}
+				} else if(identifier == PACKET_JOIN) { //JOIN
+					pid = readNumber(in, inVersion);
 					view.setPID(pid);
 					
-					if(pid == -1) {
+					if(resumeDeadline != 0) {
+						resumeDeadline = 0;
+						
+						if(pid == -1) {
+							reason = "server did not resume our session";
+							break;
+						}
+						
+						LevelUp.println("[GameClient] Session resumed");
+					} else if(pid == -1) {
 						reason = "server rejected connection";
 						view.eventJoined(false);
 						break;
+					} else {
+						view.eventJoined(true);
+					}
+				} else if(identifier == PACKET_SPECTATE) {
+					//we have no seat, so pid stays -1 and we never get a hand
+					int table = readNumber(in, inVersion);
+					view.setPID(-1);
+					
+					if(table == -1) {
+						reason = "no table to watch";
+						view.eventJoined(false);
+						break;
+					}
+					
+					LevelUp.println("[GameClient] Watching table " + table);
+					
+					synchronized(game) {
+						game.setSpectating(true);
 					}
 					
 					view.eventJoined(true);
 				} else if(identifier == PACKET_JOINOTHER) {
-					int otherPlayer = in.readInt();
+					int otherPlayer = readNumber(in, inVersion);
 					String name = in.readUTF();
 
 					synchronized(game) {
 						game.playerJoined(otherPlayer, name);
 					}
 				} else if(identifier == PACKET_LEAVEOTHER) {
-					int otherPlayer = in.readInt();
+					int otherPlayer = readNumber(in, inVersion);
 					
 					synchronized(game) {
 						game.playerLeft(otherPlayer);
@@ -177,61 +296,57 @@ public class GameClient implements Runnable {
 				} else if(identifier == PACKET_GAMELOADED) {
 					view.eventGameLoaded();
 				} else if(identifier == PACKET_GAMESTATECHANGE) {
-					int newState = in.readInt();
+					int newState = readNumber(in, inVersion);
 
 					synchronized(game) {
 						game.setState(newState);
 					}
 				} else if(identifier == PACKET_DECLARE) {
-					int otherPlayer = in.readInt();
-					int suit = in.readInt();
-					int amount = in.readInt();
+					int otherPlayer = readNumber(in, inVersion);
+					int suit = readNumber(in, inVersion);
+					int amount = readNumber(in, inVersion);
 					
 					synchronized(game) {
 						game.declare(otherPlayer, suit, amount);
 					}
 				} else if(identifier == PACKET_WITHDRAWDECLARATION) {
-					int otherPlayer = in.readInt();
+					int otherPlayer = readNumber(in, inVersion);
 
 					synchronized(game) {
 						game.withdrawDeclaration(otherPlayer);
 					}
 				} else if(identifier == PACKET_DEFENDDECLARATION) {
-					int otherPlayer = in.readInt();
-					int amount = in.readInt();
+					int otherPlayer = readNumber(in, inVersion);
+					int amount = readNumber(in, inVersion);
 
 					synchronized(game) {
 						game.defendDeclaration(otherPlayer, amount);
 					}
 				} else if(identifier == PACKET_PLAYCARDS) {
-					int otherPlayer = in.readInt();
-					int numCards = in.readInt();
+					int otherPlayer = readNumber(in, inVersion);
+					int numCards = readNumber(in, inVersion);
 					
 					List<Card> cards = new ArrayList<Card>(numCards);
 					
 					for(int i = 0; i < numCards; i++) {
-						int suit = in.readInt();
-						int value = in.readInt();
-						cards.add(game.constructCard(suit, value));
+						cards.add(readCard(in, inVersion));
 					}
 					
-					int numAmounts = in.readInt();
+					int numAmounts = readNumber(in, inVersion);
 					List<Integer> amounts = new ArrayList<Integer>(numAmounts);
 					
 					for(int i = 0; i < numCards; i++) {
-						amounts.add(in.readInt());
+						amounts.add(readNumber(in, inVersion));
 					}
 
 					synchronized(game) {
-						game.playTrick(otherPlayer, CardTuple.createTrick(cards, amounts));
+						game.playTrick(otherPlayer, CardTuple.createTrick(cards, amounts, game.getTrumpContext()));
 					}
 				} else if(identifier == PACKET_PLAYERROR) {
 					String message = in.readUTF();
 					view.eventPlayError(message);
 				} else if(identifier == PACKET_DEALTCARD) {
-					int suit = in.readInt();
-					int value = in.readInt();
-					Card card = game.constructCard(suit, value);
+					Card card = readCard(in, inVersion);
 
 					synchronized(game) {
 						game.getPlayer(pid).addCard(card);
@@ -239,7 +354,7 @@ public class GameClient implements Runnable {
 					
 					view.eventDealtCard(card);
 				} else if(identifier == PACKET_UPDATEBETCOUNTER) {
-					int newCounter = in.readInt();
+					int newCounter = readNumber(in, inVersion);
 					
 					synchronized(game) {
 						game.setBetCounter(newCounter);
@@ -248,7 +363,7 @@ public class GameClient implements Runnable {
 					//game won't tell listeners unless it's controller, so tell view from here
 					view.eventUpdateBetCounter(newCounter);
 				} else if(identifier == PACKET_UPDATEROUNDOVERCOUNTER) {
-					int newCounter = in.readInt();
+					int newCounter = readNumber(in, inVersion);
 					
 					synchronized(game) {
 						game.setRoundOverCounter(newCounter);
@@ -257,28 +372,24 @@ public class GameClient implements Runnable {
 					//game won't tell listeners unless it's controller, so tell view from here
 					view.eventUpdateRoundOverCounter(newCounter);
 				} else if(identifier == PACKET_BOTTOM) {
-					int numCards = in.readInt();
+					int numCards = readNumber(in, inVersion);
 					
 					List<Card> cards = new ArrayList<Card>(numCards);
 					
 					for(int i = 0; i < numCards; i++) {
-						int suit = in.readInt();
-						int value = in.readInt();
-						cards.add(game.constructCard(suit, value));
+						cards.add(readCard(in, inVersion));
 					}
 					
 					synchronized(game) {
 						game.setBottom(cards);
 					}
 				} else if(identifier == PACKET_SELECTBOTTOM) {
-					int numCards = in.readInt();
+					int numCards = readNumber(in, inVersion);
 					
 					List<Card> cards = new ArrayList<Card>(numCards);
 					
 					for(int i = 0; i < numCards; i++) {
-						int suit = in.readInt();
-						int value = in.readInt();
-						cards.add(game.constructCard(suit, value));
+						cards.add(readCard(in, inVersion));
 					}
 
 					synchronized(game) {
@@ -289,7 +400,7 @@ public class GameClient implements Runnable {
 					String message = in.readUTF();
 					view.eventPlayerChat(name, message);
 				} else if(identifier == PACKET_SYNC) {
-					int len = in.readInt();
+					int len = readNumber(in, inVersion);
 					LevelUp.println("[GameClient] Syncing game with server, length=" + len + " bytes");
 					
 					if(len > 1024 * 1024) {
@@ -302,42 +413,52 @@ public class GameClient implements Runnable {
 						break;
 					}
 					
-					syncBuf = new byte[len];
-					syncPos = 0;
-				} else if(identifier == PACKET_SYNCPART) {
-					int len = in.readUnsignedShort();
-					byte[] bytes = new byte[len];
-					in.readFully(bytes);
 					
-					if(syncPos + len > bytes.length) {
-						LevelUp.println("[GameClient] Sync failed: sync position at " + (syncPos + len) + ", greater than length");
+					//the parts come right after SYNC, and the game is read from
+					// them as they arrive instead of once they are all here
+					SyncInputStream syncIn = new SyncInputStream(socketIn, inVersion, len);
+					Game syncGame = Game.readGame(syncIn);
+					syncIn.skipRemaining();
+					
+					if(syncGame == null) {
+						//readGame only prints read errors
+						if(syncIn.error != null) throw syncIn.error;
+						
+						LevelUp.println("[GameClient] Sync failed: Game.readGame returned null (see above for errors)");
 						reason = "sync failed";
 						break;
 					}
 					
-					System.arraycopy(bytes, 0, syncBuf, syncPos, len);
-					syncPos += len;
+					LevelUp.println("[GameClient] Sync transfer completed; updating game instance...");
 					
-					//check if we're done
-					if(syncPos >= bytes.length) {
-						LevelUp.println("[GameClient] Sync transfer completed; updating game instance...");
-						
-						synchronized(game) {
-							ByteArrayInputStream in = new ByteArrayInputStream(syncBuf);
-							Game syncGame = Game.readGame(in);
-							
-							if(syncGame == null) {
-								LevelUp.println("[GameClient] Sync failed: Game.readGame returned null (see above for errors)");
-								reason = "sync failed";
-								break;
-							}
-							
-							game.synchronize(syncGame, pid);
-						}
+					synchronized(game) {
+						game.synchronize(syncGame, pid);
+					}
+				} else if(identifier == PACKET_SYNCPART) {
+					//parts are read along with their SYNC
+					reason = "sync part received without sync";
+					break;
+				} else if(identifier == PACKET_DELTA) {
+					byte[] delta = new byte[readNumber(in, inVersion)];
+					in.readFully(delta);
+					boolean applied;
+					
+					synchronized(game) {
+						applied = GameDelta.applyDelta(game, new ByteArrayInputStream(delta), pid);
+					}
+					
+					if(applied) {
+						LevelUp.println("[GameClient] Updated game from server, length=" + delta.length + " bytes");
+					} else {
+						//our game isn't the one the delta was made for; the
+						// server answers with the whole game as a SYNC, in order
+						// with whatever it sends us until then
+						LevelUp.println("[GameClient] Sync delta does not match our game; asking for a full sync");
+						send(PACKET_RESYNC);
 					}
 				} else if(identifier == PACKET_SWAP) {
-					int id1 = in.readInt();
-					int id2 = in.readInt();
+					int id1 = readNumber(in, inVersion);
+					int id2 = readNumber(in, inVersion);
 					
 					synchronized(game) {
 						game.playerSwapped(id1, id2);
@@ -345,27 +466,49 @@ public class GameClient implements Runnable {
 				} else if(identifier == PACKET_NEWPID) {
 					//view should have already been notified by the swap
 					// event above, but now we update our own pid
-					pid = in.readInt();
+					pid = readNumber(in, inVersion);
 				} else if(identifier == PACKET_RESIZED) {
-					int newSize = in.readInt();
+					int newSize = readNumber(in, inVersion);
 					
 					synchronized(game) {
 						game.resized(newSize);
 					}
+				} else if(identifier == PACKET_SESSION) {
+					sessionToken = in.readUTF();
+					sessionCount = readNumber(in, inVersion);
 				} else if(identifier == PACKET_NOOP) {
 					//cool
 					//server will respond if we send another NOOP, so we don't
+				} else if(inVersion >= GameConnection.PROTOCOL_V2) {
+					//the length lets us skip packets from newer servers
+					LevelUp.println("[GameClient] Skipping unknown packet, id=" + identifier);
 				} else {
 					reason = "unknown packet received from server, id=" + identifier;
 					break;
 				}
 				
+				if(isTableEvent(identifier)) {
+					sessionCount++;
+				}
+				
 				//notify view that the game updated
-				//this is outside of our synchronization statements
+				//this is outside of our synchronization statements, except for
+				// publishing the snapshot that the view paints from
+				synchronized(game) {
+					game.publishSnapshot();
+				}
+				
+				game.dispatchEvents();
 				view.eventGameUpdated();
 			} catch(IOException ioe) {
 				reason = "error while reading: " + ioe.getLocalizedMessage();
 				
+				//the server answers in version 1 until it has our RESUME
+				if(resume()) {
+					inVersion = 1;
+					continue;
+				}
+				
 				if(LevelUp.DEBUG) {
 					ioe.printStackTrace();
 				}
@@ -379,136 +522,326 @@ public class GameClient implements Runnable {
 		terminate(reason);
 	}
 	
-	public void sendJoin(String name) {
-		if(!isConnected) return;
+	//the packets that the server counts for our session: everything that
+	// comes from the game, except the counters
+	static boolean isTableEvent(int identifier) {
+		return (identifier >= PACKET_JOINOTHER && identifier <= PACKET_PLAYCARDS) ||
+				identifier == PACKET_DEALTCARD || identifier == PACKET_BOTTOM || identifier == PACKET_SELECTBOTTOM ||
+				(identifier >= PACKET_SWAP && identifier <= PACKET_RESIZED);
+	}
+	
+	//reconnects after our connection dropped, and asks for our seat back
+	//returns false if we have no session, or can't reach the server within
+	// resume_timeout; whether the server takes us back comes with its JOIN
+	boolean resume() {
+		if(!isConnected || sessionToken == null) return false;
+		
+		LevelUp.println("[GameClient] Connection lost; trying to resume our session");
 		
-		synchronized(out) {
+		if(resumeDeadline == 0) {
+			resumeDeadline = System.currentTimeMillis() + Config.getInt("resume_timeout", DEFAULT_RESUME_TIMEOUT);
+		}
+		
+		while(isConnected && System.currentTimeMillis() < resumeDeadline) {
 			try {
-				out.write(PACKET_HEADER);
-				out.write(PACKET_JOIN);
-				out.writeUTF(name);
+				Socket newSocket = new Socket(serverAddress, serverPort);
+				
+				outLock.lock();
+				
+				try {
+					closeSocket();
+					socket = newSocket;
+					socketIn = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+					socketOut = socket.getOutputStream();
+					
+					//like JOINVERSION, the server reads everything after this in
+					// the version it answers with
+					int requestVersion = Config.getInt("protocol_version", LevelUp.LEVELUP_VERSION);
+					version = 1;
+					send(PACKET_RESUME, sessionToken, requestVersion, sessionCount);
+					version = requestVersion;
+				} finally {
+					outLock.unlock();
+				}
+				
+				return true;
 			} catch(IOException ioe) {
-				terminate("failed to send packet");
+				LevelUp.println("[GameClient] Unable to reconnect: " + ioe.getLocalizedMessage());
+			}
+			
+			try {
+				Thread.sleep(RESUME_RETRY);
+			} catch(InterruptedException e) {
+				break;
 			}
 		}
+		
+		return false;
 	}
 	
-	public void sendDeclare(int suit, int amount) {
-		if(!isConnected) return;
-		
-		synchronized(out) {
+	void closeSocket() {
+		if(socket != null && !socket.isClosed()) {
 			try {
-				out.write(PACKET_HEADER);
-				out.write(PACKET_DECLARE);
-				out.writeInt(suit);
-				out.writeInt(amount);
-			} catch(IOException ioe) {
-				terminate("failed to send packet");
+				socket.close();
+			} catch(IOException ioe) {}
+		}
+	}
+	
+	int readNumber(DataInputStream in, int inVersion) throws IOException {
+		if(inVersion >= GameConnection.PROTOCOL_V2) return Util.readVarInt(in);
+		else return in.readInt();
+	}
+	
+	//reads a card as suit and value, or as its id in version 2
+	Card readCard(DataInputStream in, int inVersion) throws IOException {
+		if(inVersion >= GameConnection.PROTOCOL_V2) {
+			int id = in.readUnsignedByte();
+			Card card = Card.getCard(id);
+			
+			if(card == null) {
+				throw new IOException("invalid card (id=" + id + ")");
 			}
+			
+			return card;
+		}
+		
+		int suit = in.readInt();
+		int value = in.readInt();
+		Card card = Card.getCardBySuit(suit, value);
+		
+		if(card == null) {
+			throw new IOException("invalid card (suit=" + suit + ", value=" + value + ")");
 		}
+		
+		return card;
 	}
 	
-	public void sendWithdrawDeclaration() {
-		if(!isConnected) return;
+	public void sendJoin(String name) {
+		outLock.lock();
 		
-		synchronized(out) {
-			try {
-				out.write(PACKET_HEADER);
-				out.write(PACKET_WITHDRAWDECLARATION);
-			} catch(IOException ioe) {
-				terminate("failed to send packet");
+		try {
+			//protocol_version = 1 joins the old way, for older servers
+			int requestVersion = Config.getInt("protocol_version", LevelUp.LEVELUP_VERSION);
+			
+			if(Config.getBoolean("spectate", false)) {
+				//watch spectate_table, or whichever table the server picks
+				send(PACKET_SPECTATE, name, requestVersion, Config.getInt("spectate_table", -1));
+				version = requestVersion;
+			} else if(requestVersion < GameConnection.PROTOCOL_V2) {
+				send(PACKET_JOIN, name);
+			} else {
+				//the server reads everything after this packet in the version
+				// it answers with
+				send(PACKET_JOINVERSION, name, requestVersion);
+				version = requestVersion;
 			}
+		} finally {
+			outLock.unlock();
 		}
 	}
 	
-	public void sendDefendDeclaration(int amount) {
+	//encodes a packet and writes it to the socket in one write
+	void send(int identifier, Object... fields) {
 		if(!isConnected) return;
 		
-		synchronized(out) {
-			try {
-				out.write(PACKET_HEADER);
-				out.write(PACKET_DEFENDDECLARATION);
-				out.writeInt(amount);
-			} catch(IOException ioe) {
+		outLock.lock();
+		
+		try {
+			socketOut.write(PacketEncoder.encode(version, identifier, fields));
+		} catch(IOException ioe) {
+			if(sessionToken != null) {
+				//the reader notices and resumes the session
+				closeSocket();
+			} else {
 				terminate("failed to send packet");
 			}
+		} finally {
+			outLock.unlock();
 		}
 	}
 	
+	public void sendDeclare(int suit, int amount) {
+		send(PACKET_DECLARE, suit, amount);
+	}
+	
+	public void sendWithdrawDeclaration() {
+		send(PACKET_WITHDRAWDECLARATION);
+	}
+	
+	public void sendDefendDeclaration(int amount) {
+		send(PACKET_DEFENDDECLARATION, amount);
+	}
+	
 	public void sendPlayCards(List<Card> cards, List<Integer> amounts) {
-		if(!isConnected) return;
+		send(PACKET_PLAYCARDS, cards, amounts);
+	}
+	
+	public void sendSelectBottom(List<Card> cards) {
+		send(PACKET_SELECTBOTTOM, cards);
+	}
+	
+	public void sendChat(String message) {
+		send(PACKET_CHAT, message);
+	}
+	
+	public void sendNoop() {
+		send(PACKET_NOOP);
+	}
+	
+	//a daemon like the timer's thread, so it never keeps the process alive
+	static synchronized void startNoopWriter() {
+		if(noopThread != null) return;
 		
-		synchronized(out) {
-			try {
-				out.write(PACKET_HEADER);
-				out.write(PACKET_PLAYCARDS);
-				out.writeInt(cards.size());
+		noopThread = new Thread(new NoopWriter(), "GameClient keep-alive");
+		noopThread.setDaemon(true);
+		noopThread.start();
+	}
+	
+	//runs on the timer thread, and schedules itself again
+	class NoopTask implements Runnable {
+		public void run() {
+			if(!isConnected) return;
+			
+			if(!noopPending) {
+				noopPending = true;
+				noops.add(GameClient.this);
+			}
+			
+			keepAlive = timer.schedule(this, KEEPALIVE_INTERVAL);
+		}
+	}
+	
+	//writes the queued keep-alives, one client at a time
+	static class NoopWriter implements Runnable {
+		public void run() {
+			while(true) {
+				GameClient client;
 				
-				for(Card card : cards) {
-					out.writeInt(card.getSuit());
-					out.writeInt(card.getValue());
+				try {
+					client = noops.take();
+				} catch(InterruptedException e) {
+					continue;
 				}
 				
-				out.writeInt(amounts.size());
-				
-				for(Integer x : amounts) {
-					out.writeInt(x);
+				try {
+					client.sendNoop();
+				} finally {
+					client.noopPending = false;
 				}
-			} catch(IOException ioe) {
-				terminate("failed to send packet");
 			}
 		}
 	}
+}
+
+//the game data of a sync, read from the SYNCPART packets that follow SYNC
+// as they arrive; only the part being read is kept
+//read errors are kept in error, since readGame doesn't pass them on
+class SyncInputStream extends InputStream {
+	DataInputStream socketIn;
+	int version;
 	
-	public void sendSelectBottom(List<Card> cards) {
-		if(!isConnected) return;
-		
-		synchronized(out) {
-			try {
-				out.write(PACKET_HEADER);
-				out.write(PACKET_SELECTBOTTOM);
-				out.writeInt(cards.size());
-				
-				for(Card card : cards) {
-					out.writeInt(card.getSuit());
-					out.writeInt(card.getValue());
-				}
-			} catch(IOException ioe) {
-				terminate("failed to send packet");
-			}
+	//bytes of the sync that are still to come in later parts
+	int remaining;
+	
+	//the current part is part[pos] to part[end]
+	byte[] part;
+	int pos;
+	int end;
+	
+	IOException error;
+	
+	public SyncInputStream(DataInputStream socketIn, int version, int len) {
+		this.socketIn = socketIn;
+		this.version = version;
+		remaining = len;
+	}
+	
+	public int read() throws IOException {
+		while(pos == end) {
+			if(!nextPart()) return -1;
 		}
+		
+		return part[pos++] & 255;
 	}
 	
-	public void sendChat(String message) {
-		if(!isConnected) return;
+	public int read(byte[] bytes, int offset, int len) throws IOException {
+		if(len == 0) return 0;
 		
-		synchronized(out) {
-			try {
-				out.write(PACKET_HEADER);
-				out.write(PACKET_CHAT);
-				out.writeUTF(message);
-			} catch(IOException ioe) {
-				terminate("failed to send packet");
-			}
+		while(pos == end) {
+			if(!nextPart()) return -1;
 		}
+		
+		len = Math.min(len, end - pos);
+		System.arraycopy(part, pos, bytes, offset, len);
+		pos += len;
+		return len;
 	}
 	
-	public void sendNoop() {
-		if(!isConnected) return;
+	//reads whatever readGame left, so that the next packet is read from
+	// the right place
+	public void skipRemaining() throws IOException {
+		if(error != null) throw error;
 		
-		synchronized(out) {
-			try {
-				out.write(PACKET_HEADER);
-				out.write(PACKET_NOOP);
-			} catch(IOException ioe) {
-				terminate("failed to send packet");
-			}
+		pos = end;
+		
+		while(nextPart()) {
+			pos = end;
 		}
 	}
-
-	class NoopTask extends TimerTask {
-		public void run() {
-			sendNoop();
+	
+	//returns false once the whole sync has been read
+	boolean nextPart() throws IOException {
+		if(remaining == 0) return false;
+		
+		try {
+			int len;
+			
+			if(version >= GameConnection.PROTOCOL_V2) {
+				int frameLen = Util.readVarInt(socketIn);
+				
+				if(frameLen < 2 || frameLen > NioTransport.MAX_PACKET_SIZE) {
+					throw new IOException("invalid packet length=" + frameLen + " in sync");
+				}
+				
+				//the part is read in place, at the end of its frame
+				part = new byte[frameLen];
+				socketIn.readFully(part);
+				
+				if(part[0] != GameClient.PACKET_SYNCPART) {
+					throw new IOException("packet id=" + part[0] + " in the middle of a sync");
+				}
+				
+				DataInputStream frameIn = new DataInputStream(new ByteArrayInputStream(part, 1, frameLen - 1));
+				len = Util.readVarInt(frameIn);
+				pos = 1 + Util.getVarIntSize(len);
+				
+				if(len < 0 || pos + len != frameLen) {
+					throw new IOException("invalid sync part length=" + len);
+				}
+			} else {
+				int header = socketIn.readUnsignedByte();
+				int identifier = socketIn.readUnsignedByte();
+				
+				if(header != GameClient.PACKET_HEADER || identifier != GameClient.PACKET_SYNCPART) {
+					throw new IOException("packet id=" + identifier + " in the middle of a sync");
+				}
+				
+				len = socketIn.readUnsignedShort();
+				part = new byte[len];
+				socketIn.readFully(part);
+				pos = 0;
+			}
+			
+			if(len > remaining) {
+				throw new IOException("sync part goes past the end of the sync");
+			}
+			
+			end = pos + len;
+			remaining -= len;
+			return true;
+		} catch(IOException ioe) {
+			error = ioe;
+			throw ioe;
 		}
 	}
-}
\ No newline at end of file
+}
@@ -1,21 +1,27 @@
 package com.perennate.games.levelup;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.Socket;
-import java.net.SocketTimeoutException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
 
 import com.perennate.games.levelup.engine.Card;
 import com.perennate.games.levelup.engine.CardTuple;
 import com.perennate.games.levelup.engine.Game;
+import com.perennate.games.levelup.engine.GameEvent;
 import com.perennate.games.levelup.engine.GamePlayerListener;
+import com.perennate.games.levelup.util.HashedWheelTimer;
+import com.perennate.games.levelup.util.Util;
 
 public 
 
-class GameConnection extends Thread implements GamePlayerListener {
+class GameConnection implements Runnable, GamePlayerListener {
 	public static int PACKET_HEADER = 146;
 	public static int PACKET_JOIN = 0;
 	public static int PACKET_JOINOTHER = 1;
@@ -39,31 +45,110 @@ class GameConnection extends Thread implements GamePlayerListener {
 	public static int PACKET_NEWPID = 19;
 	public static int PACKET_RESIZED = 20;
 	public static int PACKET_NOOP = 21;
-	
+	public static int PACKET_JOINVERSION = 22;
+	public static int PACKET_SPECTATE = 23;
+	public static int PACKET_SESSION = 24;
+	public static int PACKET_RESUME = 25;
+	public static int PACKET_DELTA = 26;
+	public static int PACKET_RESYNC = 27;
+	
+	//protocol versions:
+	// 1: every packet is PACKET_HEADER, an identifier and the payload; numbers
+	//    are ints and cards are a suit and a value
+	// 2: every packet is a varint length, then an identifier and the payload;
+	//    numbers are varints and cards are one byte (Card.getId)
+	//a client asks for a version by sending JOINVERSION (name and version,
+	// in version 1) instead of JOIN; we answer with JOINVERSION and the
+	// version we picked, still in version 1, and both sides use the new
+	// version from the next packet on
+	//clients that send the old JOIN keep version 1
+	//SPECTATE (name, version and table, or -1 for any table) is answered the
+	// same way, then with SPECTATE and the table being watched, or -1
+	// 3: like 2, but a seated player also gets SESSION (a token and a count
+	//    of table packets, see TableLog); after a drop, the client sends
+	//    RESUME (token, version and its own count, in version 1) instead of
+	//    JOINVERSION, and is answered with JOINVERSION, then JOIN with its
+	//    pid, or -1 if the seat is gone, then whatever it missed
+	// 4: like 3, but a loaded game comes to seated players as DELTA (the
+	//    changes to their game, see GameDelta) instead of SYNC; a client
+	//    that can't apply it sends RESYNC, and gets its seat's game as SYNC
+	public static int PROTOCOL_V2 = 2;
+	public static int PROTOCOL_V3 = 3;
+	public static int PROTOCOL_V4 = 4;
+	
+	//clients send a keep-alive every 30 seconds
+	public static int TIMEOUT = 40000;
+	
+	//every connection's idle timeout is on one shared timer instead of a
+	// socket timeout on its own thread
+	static HashedWheelTimer timer = HashedWheelTimer.getShared();
+	
+	Lobby lobby;
+	
+	//the table, once the player is seated
 	GameHost host;
 	
 	Socket socket;
 	DataInputStream in;
-	DataOutputStream out;
+	
+	//held while a packet is encoded and handed to the queue
+	ReentrantLock outLock;
+	
+	//packets waiting for the transport
+	OutboundQueue queue;
+	
+	//packets produced while the table's game lock is held; they are handed
+	// to the queue together when the table calls flush, guarded by outLock
+	List<OutboundFrame> batch;
+	
+	//only used with the thread transport, by ConnectionWriter
+	OutputStream socketOut;
+	
+	//set if the connection is served by NioTransport instead of its own thread
+	NioChannel channel;
+	
+	//when the client last sent something, and the timeout that checks on it
+	volatile long lastRead;
+	volatile HashedWheelTimer.Timeout idleTimeout;
+	
+	//the protocol version; changed only by the reader, with outLock held
+	int version;
 	
 	int pid;
 	String name;
 	Game game;
 	boolean terminated;
 	
+	//the session that this connection can resume, if it has one
+	String token;
+	
 	//allows clients to use !password to login as an administrator
 	boolean administrator;
 	
-	public GameConnection(GameHost host, Socket socket, Game game) {
-		this.host = host;
+	//spectators only get the public packets of a table, from its
+	// SpectatorFanout, and can't play or chat
+	boolean spectator;
+	
+	public GameConnection(Lobby lobby, Socket socket) {
+		this.lobby = lobby;
 		this.socket = socket;
-		this.game = game;
 		pid = -1;
+		version = 1;
 		terminated = false;
+		outLock = new ReentrantLock();
+		queue = OutboundQueue.create();
+		batch = new ArrayList<OutboundFrame>();
+		
+		lastRead = System.currentTimeMillis();
+		idleTimeout = timer.schedule(new IdleCheck(this), TIMEOUT);
+		
+		//sockets from a channel are handed to NioTransport, which reads them
+		// itself and writes from the queue
+		if(socket.getChannel() != null) return;
 		
 		try {
 			in = new DataInputStream(socket.getInputStream());
-			out = new DataOutputStream(socket.getOutputStream());
+			socketOut = socket.getOutputStream();
 		} catch(IOException ioe) {
 			LevelUp.println("[GameConnection] Error while initializing streams: " + ioe.getLocalizedMessage());
 			
@@ -73,151 +158,37 @@ class GameConnection extends Thread implements GamePlayerListener {
 		}
 	}
 	
+	//called by NioTransport before the channel is registered
+	void attach(NioChannel channel) {
+		this.channel = channel;
+	}
+	
 	public void println(String message) {
 		LevelUp.println("[GameConnection " + socket.getInetAddress().getHostAddress() + "] " + message);
 	}
 	
+	//only used with the thread transport
+	public void start() {
+		Threads.start(this, "GameConnection " + socket.getInetAddress().getHostAddress());
+		Threads.start(new ConnectionWriter(this), "ConnectionWriter " + socket.getInetAddress().getHostAddress());
+	}
+	
 	public void run() {
-		try {
-			socket.setSoTimeout(40000); //client should send keep-alive every 30 seconds
-		} catch(IOException ioe) {
-			println("Warning: failed to set socket timeout");
-		}
-		
 		while(true) {
 			try {
-				int header = in.readUnsignedByte();
-				
-				if(header == -1) {
+				if(!readPacket(in)) break;
+			} catch(EOFException e) {
+				//the client closed the socket between packets, or in the
+				// middle of one
+				if(!socket.isClosed()) {
 					println("Remote disconnected");
-					break;
-				} else if(header != PACKET_HEADER) {
-					println("Invalid header " + header + " received from client; terminating connection");
-					break;
 				}
 				
-				int identifier = in.readUnsignedByte();
-				
-				if(identifier == PACKET_NOOP) {
-					//respond with our own NOOP packet
-					//client won't respond to this one so it's good
-					sendNoop();
-				} else if(pid == -1) {
-					if(identifier == PACKET_JOIN) { //JOIN
-						name = in.readUTF();
-						pid = host.eventPlayerJoin(this, name);
-						
-						//respond with the PID
-						sendJoin(pid);
-						
-						if(pid == -1) break;
-					} else {
-						println("Unknown packet received (init), id=" + identifier);
-						break;
-					}
-				} else if(identifier == PACKET_CHAT) {
-					String message = in.readUTF();
-					
-					String name = game.getPlayer(pid).getName();
-					host.eventPlayerChat(this, name, message);
-				} else if(host.gameLoaded) {
-					if(identifier == PACKET_DECLARE) {
-						int suit = in.readInt();
-						int amount = in.readInt();
-						
-						boolean declareSuccess;
-						
-						synchronized(game) {
-							declareSuccess = game.declare(pid, suit, amount);
-							
-							if(!declareSuccess)
-								sendPlayError("Declaration failed");
-							else
-								game.notifyAll();
-						}
-					} else if(identifier == PACKET_WITHDRAWDECLARATION) {
-						boolean withdrawSuccess;
-						
-						synchronized(game) {
-							withdrawSuccess = game.withdrawDeclaration(pid);
-							
-							if(!withdrawSuccess)
-								sendPlayError("Withdraw failed");
-							else
-								game.notifyAll();
-						}
-					} else if(identifier == PACKET_DEFENDDECLARATION) {
-						int amount = in.readInt();
-						
-						boolean defendSuccess;
-						
-						synchronized(game) {
-							defendSuccess = game.defendDeclaration(pid, amount);
-							
-							if(!defendSuccess)
-								sendPlayError("Defend failed");
-							else
-								game.notifyAll();
-						}
-					} else if(identifier == PACKET_PLAYCARDS) {
-						int numCards = in.readInt();
-						List<Card> cards = new ArrayList<Card>(numCards);
-						
-						for(int i = 0; i < numCards; i++) {
-							int suit = in.readInt();
-							int value = in.readInt();
-							cards.add(game.constructCard(suit, value));
-						}
-						
-						int numAmounts = in.readInt();
-						List<Integer> amounts = new ArrayList<Integer>(numAmounts);
-						
-						for(int i = 0; i < numCards; i++) {
-							amounts.add(in.readInt());
-						}
-						
-						boolean playSuccess;
-						
-						synchronized(game) {
-							playSuccess = game.playTrick(pid, CardTuple.createTrick(cards, amounts));
-							
-							if(!playSuccess)
-								sendPlayError("Play failed");
-							else
-								game.notifyAll();
-						}
-					} else if(identifier == PACKET_SELECTBOTTOM) {
-						int numCards = in.readInt();
-						List<Card> cards = new ArrayList<Card>(numCards);
-						
-						for(int i = 0; i < numCards; i++) {
-							int suit = in.readInt();
-							int value = in.readInt();
-							cards.add(game.constructCard(suit, value));
-						}
-						
-						boolean bottomSuccess;
-						
-						synchronized(game) {
-							bottomSuccess = game.selectBottom(pid, cards);
-							
-							if(!bottomSuccess)
-								sendPlayError("Bottom selection failed");
-							else
-								game.notifyAll();
-						}
-					} else {
-						println("Unknown packet received (joined), id=" + identifier);
-						break;
-					}
-				} else {
-					println("Unknown packet received (init), id=" + identifier);
-					break;
-				}
-			} catch(SocketTimeoutException e) {
-				println("Timed out");
 				break;
 			} catch(IOException ioe) {
+				//closed on our side, e.g. by the idle check
+				if(socket.isClosed()) break;
+				
 				println("Error while reading: " + ioe.getLocalizedMessage());
 				
 				if(LevelUp.DEBUG) {
@@ -232,380 +203,649 @@ class GameConnection extends Thread implements GamePlayerListener {
 		terminate();
 	}
 	
-	public void close() {
-		if(socket != null && !socket.isClosed()) {
-			println("Closing connection");
+	//reads and handles one packet
+	//returns false if the connection should be terminated
+	//the NIO transport calls this on whatever bytes have arrived so far
+	// and retries on EOFException, so every packet must be read completely
+	// before anything is done with it
+	boolean readPacket(DataInputStream in) throws IOException {
+		lastRead = System.currentTimeMillis();
+		
+		if(version >= PROTOCOL_V2) {
+			int len = Util.readVarInt(in);
+			
+			if(len < 1 || len > NioTransport.MAX_PACKET_SIZE) {
+				println("Invalid packet length " + len + " received from client; terminating connection");
+				return false;
+			}
+			
+			byte[] frame = new byte[len];
+			in.readFully(frame);
+			DataInputStream frameIn = new DataInputStream(new ByteArrayInputStream(frame));
+			
+			int identifier = frameIn.readUnsignedByte();
+			
+			//the length lets us skip packets from newer clients that we don't know
+			if(identifier > PACKET_RESYNC) {
+				println("Skipping unknown packet, id=" + identifier);
+				return true;
+			}
 			
 			try {
-				socket.close();
-			} catch(IOException ioe) {}
+				return handlePacket(identifier, frameIn);
+			} catch(EOFException e) {
+				//the whole packet is here, so it is just too short
+				throw new IOException("truncated packet");
+			}
 		}
+		
+		int header = in.readUnsignedByte();
+		
+		if(header != PACKET_HEADER) {
+			println("Invalid header " + header + " received from client; terminating connection");
+			return false;
+		}
+		
+		return handlePacket(in.readUnsignedByte(), in);
 	}
 	
-	public synchronized void terminate() {
-		if(!terminated) {
-			terminated = true;
+	boolean handlePacket(int identifier, DataInputStream in) throws IOException {
+		if(identifier == PACKET_NOOP) {
+			//respond with our own NOOP packet
+			//client won't respond to this one so it's good
+			sendNoop();
+		} else if(spectator) {
+			if(identifier == PACKET_CHAT) {
+				//read-only: the message is dropped
+				in.readUTF();
+			} else {
+				println("Unknown packet received (spectator), id=" + identifier);
+				return false;
+			}
+		} else if(identifier == PACKET_SPECTATE && pid == -1) {
+			name = in.readUTF();
+			int clientVersion = in.readInt();
+			int tableId = in.readInt();
 			
-			close();
+			int newVersion = Math.max(1, Math.min(clientVersion, LevelUp.LEVELUP_VERSION));
+			println("Using protocol version " + newVersion + " (client asked for " + clientVersion + ")");
+			sendJoinVersion(newVersion);
+			
+			spectator = true;
 			
-			if(pid != -1) {
-				host.eventPlayerLeave(this, pid);
+			//the table answers with SPECTATE as part of the catch-up
+			if(!lobby.eventSpectatorJoin(this, tableId)) {
+				send(OutboundQueue.FRAME_ESSENTIAL, PACKET_SPECTATE, -1);
+				return false;
+			}
+		} else if(pid == -1) {
+			if(identifier == PACKET_JOIN || identifier == PACKET_JOINVERSION) { //JOIN
+				name = in.readUTF();
+				
+				if(identifier == PACKET_JOINVERSION) {
+					int clientVersion = in.readInt();
+					int newVersion = Math.max(1, Math.min(clientVersion, LevelUp.LEVELUP_VERSION));
+					println("Using protocol version " + newVersion + " (client asked for " + clientVersion + ")");
+					sendJoinVersion(newVersion);
+				}
+				
+				pid = lobby.eventPlayerJoin(this, name);
+				
+				//respond with the PID
+				sendJoin(pid);
+				
+				if(pid == -1) return false;
+			} else if(identifier == PACKET_RESUME) {
+				String resumeToken = in.readUTF();
+				int clientVersion = in.readInt();
+				int count = in.readInt();
+				
+				int newVersion = Math.max(1, Math.min(clientVersion, LevelUp.LEVELUP_VERSION));
+				sendJoinVersion(newVersion);
+				
+				//the table sends JOIN itself, ahead of the packets we missed
+				if(lobby.eventPlayerResume(this, resumeToken, count) == -1) {
+					println("Failed to resume session");
+					sendJoin(-1);
+					return false;
+				}
+			} else {
+				println("Unknown packet received (init), id=" + identifier);
+				return false;
 			}
+		} else if(identifier == PACKET_CHAT) {
+			String message = in.readUTF();
 			
-			host.eventPlayerTerminate(this);
+			String name = game.getPlayer(pid).getName();
+			host.eventPlayerChat(this, name, message);
+		} else if(identifier == PACKET_RESYNC) {
+			host.eventPlayerResync(this);
+		} else if(host.gameLoaded) {
+			if(identifier == PACKET_DECLARE) {
+				int suit = readNumber(in);
+				int amount = readNumber(in);
+				
+				boolean declareSuccess;
+				
+				host.gameLock.lock();
+				
+				try {
+					declareSuccess = game.declare(pid, suit, amount);
+					
+					if(!declareSuccess)
+						sendPlayError("Declaration failed");
+					else
+						host.wakeUp();
+				} finally {
+					host.unlockGame();
+				}
+			} else if(identifier == PACKET_WITHDRAWDECLARATION) {
+				boolean withdrawSuccess;
+				
+				host.gameLock.lock();
+				
+				try {
+					withdrawSuccess = game.withdrawDeclaration(pid);
+					
+					if(!withdrawSuccess)
+						sendPlayError("Withdraw failed");
+					else
+						host.wakeUp();
+				} finally {
+					host.unlockGame();
+				}
+			} else if(identifier == PACKET_DEFENDDECLARATION) {
+				int amount = readNumber(in);
+				
+				boolean defendSuccess;
+				
+				host.gameLock.lock();
+				
+				try {
+					defendSuccess = game.defendDeclaration(pid, amount);
+					
+					if(!defendSuccess)
+						sendPlayError("Defend failed");
+					else
+						host.wakeUp();
+				} finally {
+					host.unlockGame();
+				}
+			} else if(identifier == PACKET_PLAYCARDS) {
+				int numCards = readCount(in);
+				List<Card> cards = new ArrayList<Card>(numCards);
+				
+				for(int i = 0; i < numCards; i++) {
+					cards.add(readCard(in));
+				}
+				
+				int numAmounts = readCount(in);
+				List<Integer> amounts = new ArrayList<Integer>(numAmounts);
+				
+				for(int i = 0; i < numCards; i++) {
+					amounts.add(readNumber(in));
+				}
+				
+				boolean playSuccess;
+				
+				host.gameLock.lock();
+				
+				try {
+					playSuccess = game.playTrick(pid, CardTuple.createTrick(cards, amounts, game.getTrumpContext()));
+					
+					if(!playSuccess)
+						sendPlayError("Play failed");
+					else
+						host.wakeUp();
+				} finally {
+					host.unlockGame();
+				}
+			} else if(identifier == PACKET_SELECTBOTTOM) {
+				int numCards = readCount(in);
+				List<Card> cards = new ArrayList<Card>(numCards);
+				
+				for(int i = 0; i < numCards; i++) {
+					cards.add(readCard(in));
+				}
+				
+				boolean bottomSuccess;
+				
+				host.gameLock.lock();
+				
+				try {
+					bottomSuccess = game.selectBottom(pid, cards);
+					
+					if(!bottomSuccess)
+						sendPlayError("Bottom selection failed");
+					else
+						host.wakeUp();
+				} finally {
+					host.unlockGame();
+				}
+			} else {
+				println("Unknown packet received (joined), id=" + identifier);
+				return false;
+			}
+		} else {
+			println("Unknown packet received (init), id=" + identifier);
+			return false;
 		}
+		
+		return true;
 	}
 	
-	public int getPlayer() {
-		return pid;
+	//reads an int, or a varint in version 2
+	int readNumber(DataInputStream in) throws IOException {
+		if(version >= PROTOCOL_V2) return Util.readVarInt(in);
+		else return in.readInt();
 	}
 	
-	//in the functions below, we only send if the socket is connected
-	//we also synchronize output and close on failure
-	//terminate is not called because that could lead to a deadlock
-	// since we call eventPlayerLeave and eventPlayerTerminate from
-	// the function, if disconnection occurs in eventPlayerLeft
-	
-	public void sendJoin(int pid) {
-		if(!socket.isConnected()) return;
+	//reads the number of cards in a play or a bottom
+	//handlers share their thread with other connections, so a count that
+	// no hand could hold is refused before anything is allocated for it
+	int readCount(DataInputStream in) throws IOException {
+		int count = readNumber(in);
 		
-		synchronized(out) {
-			try {
-				out.write(PACKET_HEADER);
-				out.write(PACKET_JOIN);
-				out.writeInt(pid);
-			} catch(IOException ioe) {
-				close();
+		if(count < 0 || count > Card.NUM_IDS * game.getNumDecks()) {
+			throw new IOException("invalid card count " + count);
+		}
+		
+		return count;
+	}
+	
+	//reads a card as suit and value, or as its id in version 2
+	//throws IOException if the client sends something that isn't a card
+	Card readCard(DataInputStream in) throws IOException {
+		if(version >= PROTOCOL_V2) {
+			int id = in.readUnsignedByte();
+			Card card = Card.getCard(id);
+			
+			if(card == null) {
+				throw new IOException("invalid card (id=" + id + ")");
 			}
+			
+			return card;
+		}
+		
+		int suit = in.readInt();
+		int value = in.readInt();
+		Card card = Card.getCardBySuit(suit, value);
+		
+		if(card == null) {
+			throw new IOException("invalid card (suit=" + suit + ", value=" + value + ")");
 		}
+		
+		return card;
 	}
 	
-	public void eventPlayerJoined(int pid, String name) {
-		if(!socket.isConnected()) return;
+	//packets that are already queued are still written before the socket
+	// is closed
+	public void close() {
+		queue.close();
 		
-		synchronized(out) {
-			try {
-				out.write(PACKET_HEADER);
-				out.write(PACKET_JOINOTHER);
-				out.writeInt(pid);
-				out.writeUTF(name);
-			} catch(IOException ioe) {
-				close();
-			}
+		if(channel != null) {
+			//the selector thread closes the socket once pending output is written
+			channel.close();
+			return;
 		}
+		
+		//ConnectionWriter closes the socket once the queue is empty
 	}
 	
-	public void eventPlayerLeft(int pid) {
-		if(!socket.isConnected()) return;
+	//closes the socket without waiting for the queue
+	void closeSocket() {
+		queue.close();
 		
-		if(pid == this.pid) {
-			//looks like we were kicked somehow, maybe while resizing game
-			//anyways, terminate the connection
-			close();
+		if(channel != null) {
+			channel.close();
 			return;
 		}
 		
-		synchronized(out) {
+		if(socket != null && !socket.isClosed()) {
+			println("Closing connection");
+			
 			try {
-				out.write(PACKET_HEADER);
-				out.write(PACKET_LEAVEOTHER);
-				out.writeInt(pid);
-			} catch(IOException ioe) {
-				close();
-			}
+				socket.close();
+			} catch(IOException ioe) {}
 		}
 	}
 	
-	public void sendGameLoaded() {
-		if(!socket.isConnected()) return;
+	public void terminate() {
+		//the rest is outside the monitor: eventPlayerLeave writes to the
+		// other connections
+		synchronized(this) {
+			if(terminated) return;
+			terminated = true;
+		}
 		
-		synchronized(out) {
-			try {
-				out.write(PACKET_HEADER);
-				out.write(PACKET_GAMELOADED);
-			} catch(IOException ioe) {
-				close();
-			}
+		close();
+		idleTimeout.cancel();
+		
+		if(pid != -1) {
+			host.eventPlayerLeave(this, pid);
+		}
+		
+		if(spectator && host != null) {
+			host.eventSpectatorLeave(this);
+		} else if(host != null) {
+			host.eventPlayerTerminate(this);
 		}
+		
+		lobby.eventConnectionTerminate(this);
 	}
 	
-	public void eventGameStateChange(int newState) {
+	public int getPlayer() {
+		return pid;
+	}
+	
+	//sends a packet that only this connection gets
+	void send(int kind, int identifier, Object... fields) {
 		if(!socket.isConnected()) return;
 		
-		synchronized(out) {
-			try {
-				out.write(PACKET_HEADER);
-				out.write(PACKET_GAMESTATECHANGE);
-				out.writeInt(newState);
-			} catch(IOException ioe) {
-				close();
-			}
+		outLock.lock();
+		
+		try {
+			addFrame(PacketEncoder.encode(version, identifier, fields), kind);
+		} catch(IOException ioe) {
+			close();
+		} finally {
+			outLock.unlock();
 		}
 	}
 	
-	public void eventDeclare(int pid, int suit, int amount) {
+	//sends a packet that every connection at the table gets; the table
+	// encodes it once for each protocol version, and every connection
+	// queues the same frame
+	void sendShared(int kind, int identifier, Object... fields) {
+		if(host == null) {
+			send(kind, identifier, fields);
+			return;
+		}
+		
 		if(!socket.isConnected()) return;
 		
-		synchronized(out) {
-			try {
-				out.write(PACKET_HEADER);
-				out.write(PACKET_DECLARE);
-				out.writeInt(pid);
-				out.writeInt(suit);
-				out.writeInt(amount);
-			} catch(IOException ioe) {
-				close();
-			}
+		outLock.lock();
+		
+		try {
+			addFrame(host.encoder.encodeShared(version, identifier, fields), kind);
+		} catch(IOException ioe) {
+			close();
+		} finally {
+			outLock.unlock();
 		}
 	}
 	
-	public void eventWithdrawDeclaration(int pid) {
-		if(!socket.isConnected()) return;
-		
-		synchronized(out) {
-			try {
-				out.write(PACKET_HEADER);
-				out.write(PACKET_WITHDRAWDECLARATION);
-				out.writeInt(pid);
-			} catch(IOException ioe) {
-				close();
-			}
+	//hands a frame to the queue, or to the batch if it is part of a change
+	// to the game; called with outLock held
+	void addFrame(byte[] frame, int kind) {
+		if(host != null && host.gameLock.isHeldByCurrentThread()) {
+			//the game's events so far haven't been dispatched yet, so the
+			// frame waits its turn behind them
+			game.post(new FrameEvent(this, frame, kind));
+			return;
 		}
+		
+		batch.add(new OutboundFrame(frame, kind));
+		
+		//GameHost flushes once the change is over
+		if(host != null && game.isDispatching()) return;
+		
+		flushBatch();
 	}
 	
-	public void eventDefendDeclaration(int pid, int amount) {
+	//queues a frame that was encoded elsewhere, like a sync that every
+	// connection at the table shares
+	void sendFrame(byte[] frame, int kind) {
 		if(!socket.isConnected()) return;
 		
-		synchronized(out) {
-			try {
-				out.write(PACKET_HEADER);
-				out.write(PACKET_DEFENDDECLARATION);
-				out.writeInt(pid);
-				out.writeInt(amount);
-			} catch(IOException ioe) {
-				close();
-			}
+		outLock.lock();
+		
+		try {
+			addFrame(frame, kind);
+		} finally {
+			outLock.unlock();
 		}
 	}
 	
-	public void eventPlayCards(int pid, List<Card> cards, List<Integer> amounts) {
+	//queues frames that were encoded elsewhere, like the ones that
+	// SpectatorFanout shares between all spectators
+	void sendFrames(List<OutboundFrame> frames) {
 		if(!socket.isConnected()) return;
 		
-		synchronized(out) {
-			try {
-				out.write(PACKET_HEADER);
-				out.write(PACKET_PLAYCARDS);
-				out.writeInt(pid);
-				out.writeInt(cards.size());
-				
-				for(Card card : cards) {
-					out.writeInt(card.getSuit());
-					out.writeInt(card.getValue());
-				}
-				
-				out.writeInt(amounts.size());
-				
-				for(Integer x : amounts) {
-					out.writeInt(x);
-				}
-			} catch(IOException ioe) {
-				close();
-			}
+		outLock.lock();
+		
+		try {
+			batch.addAll(frames);
+			flushBatch();
+		} finally {
+			outLock.unlock();
 		}
 	}
 	
-	public void sendPlayError(String message) {
-		if(!socket.isConnected()) return;
+	public void flush() {
+		outLock.lock();
 		
-		synchronized(out) {
-			try {
-				out.write(PACKET_HEADER);
-				out.write(PACKET_PLAYERROR);
-				out.writeUTF(message);
-			} catch(IOException ioe) {
-				close();
-			}
+		try {
+			flushBatch();
+		} finally {
+			outLock.unlock();
 		}
 	}
 	
-	public void eventDealtCard(Card card) {
-		if(!socket.isConnected()) return;
+	//called with outLock held
+	void flushBatch() {
+		if(batch.isEmpty()) return;
 		
-		synchronized(out) {
-			try {
-				out.write(PACKET_HEADER);
-				out.write(PACKET_DEALTCARD);
-				out.writeInt(card.getSuit());
-				out.writeInt(card.getValue());
-			} catch(IOException ioe) {
-				close();
-			}
+		int result = queue.offerAll(batch);
+		batch.clear();
+		
+		if(result == OutboundQueue.OVERFLOW) {
+			println("Outbound queue is over " + queue.getLimit() + " bytes; disconnecting slow client");
+			closeSocket();
+		} else if(result == OutboundQueue.QUEUED_FIRST && channel != null) {
+			channel.schedule();
 		}
 	}
 	
-	public void eventUpdateBetCounter(int newCounter) {
-		if(!socket.isConnected()) return;
+	//in the functions below, we only send if the socket is connected
+	//we also synchronize output and close on failure
+	//terminate is not called because that could lead to a deadlock
+	// since we call eventPlayerLeave and eventPlayerTerminate from
+	// the function, if disconnection occurs in eventPlayerLeft
+	
+	public void sendJoin(int pid) {
+		send(OutboundQueue.FRAME_ESSENTIAL, PACKET_JOIN, pid);
+	}
+	
+	//the answer to JOINVERSION, always in version 1; everything after it
+	// uses the new version
+	public void sendJoinVersion(int newVersion) {
+		outLock.lock();
 		
-		synchronized(out) {
-			try {
-				out.write(PACKET_HEADER);
-				out.write(PACKET_UPDATEBETCOUNTER);
-				out.writeInt(newCounter);
-			} catch(IOException ioe) {
-				close();
-			}
+		try {
+			send(OutboundQueue.FRAME_ESSENTIAL, PACKET_JOINVERSION, newVersion);
+			version = newVersion;
+		} finally {
+			outLock.unlock();
 		}
 	}
 	
-	public void eventBottom(List<Card> cards) {
+	public void eventPlayerJoined(int pid, String name) {
+		sendShared(OutboundQueue.FRAME_ESSENTIAL, PACKET_JOINOTHER, pid, name);
+	}
+	
+	public void eventPlayerLeft(int pid) {
 		if(!socket.isConnected()) return;
 		
-		synchronized(out) {
-			try {
-				out.write(PACKET_HEADER);
-				out.write(PACKET_BOTTOM);
-				out.writeInt(cards.size());
-				
-				for(Card card : cards) {
-					out.writeInt(card.getSuit());
-					out.writeInt(card.getValue());
-				}
-			} catch(IOException ioe) {
-				close();
-			}
+		if(pid == this.pid) {
+			//looks like we were kicked somehow, maybe while resizing game
+			//anyways, terminate the connection
+			close();
+			return;
 		}
+		
+		sendShared(OutboundQueue.FRAME_ESSENTIAL, PACKET_LEAVEOTHER, pid);
+	}
+	
+	public void sendGameLoaded() {
+		sendShared(OutboundQueue.FRAME_ESSENTIAL, PACKET_GAMELOADED);
+	}
+	
+	public void eventGameStateChange(int newState) {
+		sendShared(OutboundQueue.FRAME_ESSENTIAL, PACKET_GAMESTATECHANGE, newState);
+	}
+	
+	public void eventDeclare(int pid, int suit, int amount) {
+		sendShared(OutboundQueue.FRAME_ESSENTIAL, PACKET_DECLARE, pid, suit, amount);
+	}
+	
+	public void eventWithdrawDeclaration(int pid) {
+		sendShared(OutboundQueue.FRAME_ESSENTIAL, PACKET_WITHDRAWDECLARATION, pid);
+	}
+	
+	public void eventDefendDeclaration(int pid, int amount) {
+		sendShared(OutboundQueue.FRAME_ESSENTIAL, PACKET_DEFENDDECLARATION, pid, amount);
+	}
+	
+	public void eventPlayCards(int pid, List<Card> cards, List<Integer> amounts) {
+		sendShared(OutboundQueue.FRAME_ESSENTIAL, PACKET_PLAYCARDS, pid, cards, amounts);
+	}
+	
+	public void sendPlayError(String message) {
+		send(OutboundQueue.FRAME_DROPPABLE, PACKET_PLAYERROR, message);
+	}
+	
+	//the cards in a player's hand are the only packets encoded for one player
+	public void eventDealtCard(Card card) {
+		send(OutboundQueue.FRAME_ESSENTIAL, PACKET_DEALTCARD, card);
+	}
+	
+	public void eventUpdateBetCounter(int newCounter) {
+		sendShared(OutboundQueue.FRAME_BETCOUNTER, PACKET_UPDATEBETCOUNTER, newCounter);
+	}
+	
+	public void eventBottom(List<Card> cards) {
+		sendShared(OutboundQueue.FRAME_ESSENTIAL, PACKET_BOTTOM, cards);
 	}
 	
 	public void eventSelectBottom(List<Card> cards) {
-		if(!socket.isConnected()) return;
-		
-		synchronized(out) {
-			try {
-				out.write(PACKET_HEADER);
-				out.write(PACKET_SELECTBOTTOM);
-				out.writeInt(cards.size());
-				
-				for(Card card : cards) {
-					out.writeInt(card.getSuit());
-					out.writeInt(card.getValue());
-				}
-			} catch(IOException ioe) {
-				close();
-			}
-		}
+		send(OutboundQueue.FRAME_ESSENTIAL, PACKET_SELECTBOTTOM, cards);
 	}
 	
 	public void eventUpdateRoundOverCounter(int newCounter) {
-		if(!socket.isConnected()) return;
-		
-		synchronized(out) {
-			try {
-				out.write(PACKET_HEADER);
-				out.write(PACKET_UPDATEROUNDOVERCOUNTER);
-				out.writeInt(newCounter);
-			} catch(IOException ioe) {
-				close();
-			}
-		}
+		sendShared(OutboundQueue.FRAME_ROUNDOVERCOUNTER, PACKET_UPDATEROUNDOVERCOUNTER, newCounter);
 	}
 	
 	public void sendChat(String name, String message) {
-		if(!socket.isConnected()) return;
-		
-		synchronized(out) {
-			try {
-				out.write(PACKET_HEADER);
-				out.write(PACKET_CHAT);
-				out.writeUTF(name);
-				out.writeUTF(message);
-			} catch(IOException ioe) {
-				close();
-			}
-		}
+		sendShared(OutboundQueue.FRAME_DROPPABLE, PACKET_CHAT, name, message);
 	}
 	
-	public void sendSync(int len) {
-		if(!socket.isConnected()) return;
-		
-		synchronized(out) {
-			try {
-				out.write(PACKET_HEADER);
-				out.write(PACKET_SYNC);
-				out.writeInt(len);
-			} catch(IOException ioe) {
-				close();
-			}
-		}
+	public void eventPlayerSwapped(int id1, int id2) {
+		sendShared(OutboundQueue.FRAME_ESSENTIAL, PACKET_SWAP, id1, id2);
 	}
 	
-	public void sendSyncPart(byte[] bytes, int offset, int len) {
-		if(!socket.isConnected()) return;
-		
-		synchronized(out) {
-			try {
-				out.write(PACKET_HEADER);
-				out.write(PACKET_SYNCPART);
-				out.writeShort((short) len);
-				out.write(bytes, offset, len);
-			} catch(IOException ioe) {
-				close();
-			}
-		}
+	public void eventNewPID(int newPID) {
+		send(OutboundQueue.FRAME_ESSENTIAL, PACKET_NEWPID, newPID);
 	}
 	
-	public void eventPlayerSwapped(int id1, int id2) {
-		if(!socket.isConnected()) return;
-		
-		synchronized(out) {
-			try {
-				out.write(PACKET_HEADER);
-				out.write(PACKET_SWAP);
-				out.writeInt(id1);
-				out.writeInt(id2);
-			} catch(IOException ioe) {
-				close();
-			}
-		}
+	public void eventResized(int newSize) {
+		sendShared(OutboundQueue.FRAME_ESSENTIAL, PACKET_RESIZED, newSize);
 	}
 	
-	public void eventNewPID(int newPID) {
-		if(!socket.isConnected()) return;
-		
-		synchronized(out) {
-			try {
-				out.write(PACKET_HEADER);
-				out.write(PACKET_NEWPID);
-				out.writeInt(newPID);
-			} catch(IOException ioe) {
-				close();
+	public void sendNoop() {
+		send(OutboundQueue.FRAME_DROPPABLE, PACKET_NOOP);
+	}
+	
+	public void sendSession(String token, int count) {
+		send(OutboundQueue.FRAME_ESSENTIAL, PACKET_SESSION, token, count);
+	}
+	
+	public void sendDelta(byte[] delta) {
+		send(OutboundQueue.FRAME_ESSENTIAL, PACKET_DELTA, delta);
+	}
+}
+
+//writes a connection's queued packets with the thread transport
+//this is the only thread that blocks on the socket output, so a client
+// that stops reading only holds up its own packets
+//packets are collected in a buffer and written when the queue runs dry,
+// so a batch from GameHost goes out in one write
+class ConnectionWriter implements Runnable {
+	public static int BUFFER_SIZE = 8192;
+	
+	GameConnection connection;
+	
+	public ConnectionWriter(GameConnection connection) {
+		this.connection = connection;
+	}
+	
+	public void run() {
+		try {
+			BufferedOutputStream out = new BufferedOutputStream(connection.socketOut, BUFFER_SIZE);
+			byte[] frame;
+			
+			while((frame = connection.queue.take()) != null) {
+				do {
+					out.write(frame);
+				} while((frame = connection.queue.poll()) != null);
+				
+				out.flush();
 			}
-		}
+		} catch(IOException ioe) {
+			connection.println("Error while writing: " + ioe.getLocalizedMessage());
+		} catch(InterruptedException e) {}
+		
+		//the reader notices and terminates the connection
+		connection.closeSocket();
+	}
+}
+
+//a frame sent while the table's game lock was held, queued in order with
+// the game's events
+class FrameEvent extends GameEvent {
+	GameConnection connection;
+	byte[] frame;
+	int kind;
+	
+	public FrameEvent(GameConnection connection, byte[] frame, int kind) {
+		this.connection = connection;
+		this.frame = frame;
+		this.kind = kind;
 	}
 	
-	public void eventResized(int newSize) {
-		if(!socket.isConnected()) return;
+	public void dispatch() {
+		connection.outLock.lock();
 		
-		synchronized(out) {
-			try {
-				out.write(PACKET_HEADER);
-				out.write(PACKET_RESIZED);
-				out.writeInt(newSize);
-			} catch(IOException ioe) {
-				close();
-			}
+		try {
+			connection.addFrame(frame, kind);
+		} finally {
+			connection.outLock.unlock();
 		}
 	}
+}
+
+//closes a connection that hasn't sent anything for TIMEOUT
+//reads only update lastRead; the check runs once per TIMEOUT and schedules
+// itself again for whatever is left
+class IdleCheck implements Runnable {
+	GameConnection connection;
+	
+	public IdleCheck(GameConnection connection) {
+		this.connection = connection;
+	}
 	
-	public void sendNoop() {
-		if(!socket.isConnected()) return;
+	public void run() {
+		if(connection.terminated) return;
 		
-		synchronized(out) {
-			try {
-				out.write(PACKET_HEADER);
-				out.write(PACKET_NOOP);
-			} catch(IOException ioe) {
-				close();
-			}
+		long idle = System.currentTimeMillis() - connection.lastRead;
+		
+		if(idle >= GameConnection.TIMEOUT) {
+			connection.println("Timed out");
+			
+			//the transport notices and terminates the connection
+			connection.closeSocket();
+		} else {
+			connection.idleTimeout = GameConnection.timer.schedule(this, GameConnection.TIMEOUT - idle);
 		}
 	}
-}
\ No newline at end of file
+}
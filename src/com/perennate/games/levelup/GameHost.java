@@ -5,30 +5,109 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReentrantLock;
 
 import com.perennate.games.levelup.engine.Game;
+import com.perennate.games.levelup.engine.GameDelta;
+import com.perennate.games.levelup.engine.GameEvent;
+import com.perennate.games.levelup.util.HashedWheelTimer;
 import com.perennate.games.levelup.util.Util;
 
-public class GameHost extends Thread {
+//one table: seats the players that the lobby sends here and, once every
+// seat is taken, has the game updated by the TableScheduler
+public class GameHost {
 	public static int DEFAULT_PORT = 7553;
+	public static int SYNC_PART_SIZE = 1400;
 	
-	ServerSocket server;
-	ArrayList<GameConnection> connections;
+	//how long the seat of a player whose connection dropped is kept for
+	// them to resume it, in milliseconds
+	public static int DEFAULT_RESUME_GRACE = 60000;
+	
+	//wakes a table up when a held seat runs out
+	static HashedWheelTimer timer = HashedWheelTimer.getShared();
+	
+	Lobby lobby;
+	int id;
+	
+	//connections seated at this table
+	List<GameConnection> connections;
 	
 	boolean gameLoaded;
 	GameSlot[] slots;
 	
 	Game game;
 	
+	//guards the game on the server; this is a lock rather than the game's
+	// monitor so that a virtual thread blocked on a socket write while
+	// holding it doesn't pin its carrier thread
+	ReentrantLock gameLock;
+	
+	//when the next update is due; guarded by the scheduler's lock
+	TableScheduler scheduler;
+	long deadline;
+	int generation;
+	boolean scheduled;
+	boolean updating;
+	boolean woken;
+	
+	//counted down once the game is over
+	volatile CountDownLatch finished;
+	
+	//encodes the packets that every connection at the table gets
+	PacketEncoder encoder;
+	
+	//posted at the end of every change to send out what it produced
+	GameEvent flushEvent;
+	
+	//read-only viewers; they are not in connections
+	SpectatorFanout fanout;
+	
+	//what each seat got recently, for players who resume
+	TableLog log;
+	int resumeGrace;
+	
+	//seats kept for a player who dropped; guarded by gameLock, but also
+	// read by update before it takes the lock
+	volatile int heldSeats;
+	
 	//configuration
 	String commandTrigger; //if this prefixes a string, it's possibly a command
 	
-	public GameHost() {
-		game = new Game(Config.getInt("numplayers", 4), true);
-		connections = new ArrayList<GameConnection>();
+	public GameHost(Lobby lobby, int id) {
+		this.lobby = lobby;
+		this.id = id;
+		
+		//shuffle: strong (default) or fast; shuffle_seed replays the deals of an earlier game
+		int shuffleMode = Config.getString("shuffle", "strong").equals("fast") ? Game.SHUFFLE_FAST : Game.SHUFFLE_STRONG;
+		long seed = Game.generateSeed();
+		String seedString = Config.getString("shuffle_seed", null);
+		
+		if(seedString != null) {
+			try {
+				seed = Long.parseLong(seedString.trim());
+			} catch(NumberFormatException e) {
+				LevelUp.println("[GameHost] Invalid shuffle_seed [" + seedString + "]; using a random seed");
+			}
+			
+			//the first table replays the seed, and the others get their own
+			// deals from it
+			if(id > 0) {
+				seed = Util.mix64(seed + id);
+			}
+		}
+		
+		game = new Game(Config.getInt("numplayers", 4), true, seed, shuffleMode);
+		game.setDeferredEvents(true);
+		gameLock = new ReentrantLock();
+		scheduler = TableScheduler.getInstance();
+		connections = new CopyOnWriteArrayList<GameConnection>();
+		encoder = new PacketEncoder();
+		flushEvent = new TableFlush(this);
+		fanout = new SpectatorFanout(this);
+		game.addListener(fanout);
 		slots = new GameSlot[Config.getInt("numplayers", 4)];
 		gameLoaded = false;
 		
@@ -36,38 +115,79 @@ public class GameHost extends Thread {
 			slots[i] = new GameSlot();
 		}
 		
-		try {
-			server = new ServerSocket(DEFAULT_PORT);
-		} catch(IOException ioe) {
-			LevelUp.println("[GameHost] Error while binding to " + DEFAULT_PORT + ": " + ioe.getLocalizedMessage());
-			
-			if(LevelUp.DEBUG) {
-				ioe.printStackTrace();
-			}
-		}
+		log = new TableLog(this, slots.length);
+		resumeGrace = Config.getInt("resume_grace", DEFAULT_RESUME_GRACE);
 		
 		commandTrigger = Config.getString("trigger", "!");
 	}
 	
+	public void start() {
+		finished = new CountDownLatch(1);
+		scheduler.add(this);
+	}
+	
+	//waits for the game to finish, if it has started
+	public void join() throws InterruptedException {
+		if(finished != null) {
+			finished.await();
+		}
+	}
+	
+	//a player action may change what the next update does, so it shouldn't
+	// wait for the delay that the last update asked for
+	public void wakeUp() {
+		scheduler.wakeUp(this);
+	}
+	
+	//every change to the game ends here: the game only recorded its events
+	// while the lock was held, so they are dispatched to the listeners now,
+	// after the lock is released; the packets that the listeners produce go
+	// out together at the end, one write for each connection, instead of a
+	// write per packet
+	//packets sent directly while the lock is held are posted as events too
+	// (see GameConnection.addFrame), so they stay in order with the game's
+	void unlockGame() {
+		if(gameLock.getHoldCount() > 1) {
+			gameLock.unlock();
+			return;
+		}
+		
+		game.publishSnapshot();
+		game.post(flushEvent);
+		gameLock.unlock();
+		game.dispatchEvents();
+	}
+	
+	//called while the game's events are dispatched
+	void flushConnections() {
+		for(GameConnection connection : connections) {
+			connection.flush();
+		}
+		
+		fanout.flush();
+	}
+	
 	public void loadGame() {
 		if(gameLoaded) return;
 		
-		synchronized(game) {
+		gameLock.lock();
+		
+		try {
 			if(!gameLoaded) {
 				gameLoaded = true;
+				lobby.eventTableLoaded(this);
 				
-				try {
-					server.close();
-				} catch(IOException ioe) {
-					LevelUp.println("[GameHost] Error while closing server socket; game may not update");
+				for(GameConnection i : connections) {
+					i.sendGameLoaded();
 				}
 				
-				synchronized(connections) {
-					for(GameConnection i : connections) {
-						i.sendGameLoaded();
-					}
-				}
+				fanout.sendGameLoaded();
+				log.recordAll(GameConnection.PACKET_GAMELOADED);
+				
+				start();
 			}
+		} finally {
+			unlockGame();
 		}
 	}
 	
@@ -76,7 +196,9 @@ public class GameHost extends Thread {
 		
 		int pid = -1;
 
-		synchronized(game) {
+		gameLock.lock();
+		
+		try {
 			for(int i = 0; i < slots.length; i++) {
 				if(slots[i].connection == null) {
 					slots[i].connection = connection;
@@ -90,7 +212,10 @@ public class GameHost extends Thread {
 
 			if(pid == -1) return -1;
 
-			LevelUp.println("[GameHost] Player [" + name + "|" + connection.socket.getInetAddress().getHostAddress() + "] has joined the game");
+			LevelUp.println("[GameHost] Player [" + name + "|" + connection.socket.getInetAddress().getHostAddress() + "] has joined table " + id);
+			connection.host = this;
+			connection.game = game;
+			connections.add(connection);
 			game.addListener(connection);
 			
 			//check if we're done loading; also use this to let the joining player know about the slots
@@ -106,10 +231,20 @@ public class GameHost extends Thread {
 			//make sure player has the correct size of the game
 			connection.eventResized(slots.length);
 			
+			//clients that can resume get a session once they have everything
+			// up to here
+			if(connection.version >= GameConnection.PROTOCOL_V3 && resumeGrace > 0) {
+				connection.token = lobby.newSession(this);
+				slots[pid].token = connection.token;
+				game.post(new SessionEvent(this, connection, pid));
+			}
+			
 			//if we're done, then start the game
 			if(done) {
 				loadGame();
 			}
+		} finally {
+			unlockGame();
 		}
 		
 		return pid;
@@ -117,23 +252,180 @@ public class GameHost extends Thread {
 	
 	public void eventPlayerLeave(GameConnection connection, int pid) {
 		if(pid >= 0 && pid < slots.length) {
-			synchronized(game) {
-				LevelUp.println("[GameHost] Player [" + slots[pid].name + "] has left the game");
+			gameLock.lock();
+			
+			try {
+				GameSlot slot = slots[pid];
 				
-				slots[pid].connection = null;
-				slots[pid].name = null;
+				//the seat may have been resumed by another connection already
+				if(slot.connection != connection) return;
 				
 				game.removeListener(connection);
-				game.playerLeft(pid);
+				slot.connection = null;
+				
+				//a game in progress keeps the seat for a while, in case the
+				// player comes back
+				if(gameLoaded && slot.token != null) {
+					LevelUp.println("[GameHost] Player [" + slot.name + "] has dropped; holding the seat for " + resumeGrace / 1000 + " seconds");
+					slot.dropped = System.currentTimeMillis();
+					heldSeats++;
+					timer.schedule(new SeatExpiry(this), resumeGrace);
+					return;
+				}
+				
+				freeSeat(pid);
+			} finally {
+				unlockGame();
 			}
 		}
 	}
 	
+	//called with gameLock held
+	void freeSeat(int pid) {
+		GameSlot slot = slots[pid];
+		LevelUp.println("[GameHost] Player [" + slot.name + "] has left the game");
+		
+		endSession(pid);
+		slot.name = null;
+		
+		game.playerLeft(pid);
+		
+		if(!gameLoaded) {
+			lobby.eventSeatFreed(this);
+		}
+	}
+	
+	//called with gameLock held
+	//the player at the seat can no longer resume it
+	void endSession(int pid) {
+		if(slots[pid].token != null) {
+			lobby.endSession(slots[pid].token);
+			slots[pid].token = null;
+		}
+	}
+	
+	//called with gameLock held
+	//frees the seats that were held longer than the grace period
+	void expireSeats() {
+		long now = System.currentTimeMillis();
+		
+		for(int i = 0; i < slots.length; i++) {
+			if(slots[i].dropped != 0 && now - slots[i].dropped >= resumeGrace) {
+				slots[i].dropped = 0;
+				heldSeats--;
+				freeSeat(i);
+			}
+		}
+	}
+	
+	//seats a connection that resumes a session, and sends it what it missed
+	//returns the pid, or -1 if the session is over
+	public int eventPlayerResume(GameConnection connection, String token, int count) {
+		gameLock.lock();
+		
+		try {
+			int pid = -1;
+			
+			for(int i = 0; i < slots.length; i++) {
+				if(token.equals(slots[i].token)) {
+					pid = i;
+				}
+			}
+			
+			if(pid == -1) return -1;
+			
+			GameSlot slot = slots[pid];
+			GameConnection old = slot.connection;
+			
+			if(old != null) {
+				//we haven't noticed that the old connection is gone yet; it
+				// no longer has a seat once it does
+				game.removeListener(old);
+				connections.remove(old);
+				old.pid = -1;
+				old.closeSocket();
+			} else {
+				slot.dropped = 0;
+				heldSeats--;
+			}
+			
+			LevelUp.println("[GameHost] Player [" + slot.name + "|" + connection.socket.getInetAddress().getHostAddress() + "] has resumed at table " + id);
+			slot.connection = connection;
+			connection.name = slot.name;
+			connection.token = token;
+			connection.pid = pid;
+			connection.host = this;
+			connection.game = game;
+			connections.add(connection);
+			game.addListener(connection);
+			
+			connection.sendJoin(pid);
+			
+			//the snapshot is only built when the log can't cover the gap
+			List<SpectatorEvent> snapshot = null;
+			
+			if(!log.canResume(pid, count)) {
+				snapshot = TableLog.getSnapshot(this, pid);
+			}
+			
+			game.post(new ResumeEvent(this, connection, pid, count, snapshot));
+			return pid;
+		} finally {
+			unlockGame();
+		}
+	}
+	
 	public void eventPlayerTerminate(GameConnection connection) {
-		LevelUp.println("[GameHost] Connection from " + connection.socket.getInetAddress().getHostAddress() + " is terminated");
+		connections.remove(connection);
+	}
+	
+	//returns false if the table already has max_spectators
+	public boolean eventSpectatorJoin(GameConnection connection) {
+		if(fanout.isFull()) return false;
+		
+		gameLock.lock();
 		
-		synchronized(connections) {
-			connections.remove(connection);
+		try {
+			LevelUp.println("[GameHost] Spectator [" + connection.name + "|" + connection.socket.getInetAddress().getHostAddress() + "] is watching table " + id);
+			connection.host = this;
+			connection.game = game;
+			
+			//the catch-up is taken under the lock, so the spectator gets every
+			// change after it and none before
+			fanout.addSpectator(connection, SpectatorFanout.getCatchUp(this));
+		} finally {
+			unlockGame();
+		}
+		
+		return true;
+	}
+	
+	public void eventSpectatorLeave(GameConnection connection) {
+		fanout.removeSpectator(connection);
+	}
+	
+	public int getNumSpectators() {
+		return fanout.getNumSpectators();
+	}
+	
+	//sends a player the whole game as their seat sees it, for a client
+	// whose game no longer matches ours (see GameDelta)
+	public void eventPlayerResync(GameConnection connection) {
+		gameLock.lock();
+		
+		try {
+			if(connection.pid == -1) return;
+			
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			
+			if(!Game.writeGameFor(game, out, connection.pid)) {
+				connection.println("Failed to buffer game data for resync");
+				return;
+			}
+			
+			game.post(new TableSync(out.toByteArray(), new GameConnection[] {connection}, new byte[1][]));
+		} finally {
+			unlockGame();
 		}
 	}
 	
@@ -161,8 +453,12 @@ public class GameHost extends Thread {
 								
 								boolean success = false;
 								
-								synchronized(game) {
-									success = Game.writeGame(game, out);
+								gameLock.lock();
+								
+								try {
+									success = Game.writeGame(game, out, true);
+								} finally {
+									unlockGame();
 								}
 								
 								if(success) {
@@ -195,6 +491,7 @@ public class GameHost extends Thread {
 						
 						if(connection != null) {
 							eventPlayerChat(null, "Server", "Player [" + connection.name + "] was kicked by admin [" + source.name + "].");
+							dropSession(connection);
 							connection.terminate();
 						} else {
 							chatTo(source, "Failed to kick: player not found.");
@@ -207,14 +504,21 @@ public class GameHost extends Thread {
 								int id1 = Integer.parseInt(subParts[0]);
 								int id2 = Integer.parseInt(subParts[1]);
 								
-								synchronized(game) {
+								gameLock.lock();
+								
+								try {
 									game.playerSwapped(id1,  id2);
+									log.reset();
+								} finally {
+									unlockGame();
 								}
 							} catch(NumberFormatException e) {}
 						}
 					} else if(parts[0].equals("resize") && parts.length >= 2) {
 						try {
-							synchronized(game) {
+							gameLock.lock();
+							
+							try {
 								int numPlayers = Integer.parseInt(parts[1]);
 								
 								//update slots to the new size
@@ -230,11 +534,35 @@ public class GameHost extends Thread {
 									}
 								}
 								
+								for(int i = newSlots.length; i < slots.length; i++) {
+									if(slots[i].dropped != 0) {
+										heldSeats--;
+									}
+									
+									endSession(i);
+								}
+								
 								slots = newSlots;
 								
 								game.resized(numPlayers);
+								log.resized(numPlayers);
+								log.reset();
+							} finally {
+								unlockGame();
 							}
 						} catch(NumberFormatException e) {}
+					} else if(parts[0].equals("queues")) {
+						//outbound queue depth per connection, to spot slow clients
+						for(GameConnection connection : connections) {
+							OutboundQueue queue = connection.queue;
+							chatTo(source, "[" + connection.name + "] queued: " + queue.getQueuedBytes() + " bytes in " + queue.getQueuedFrames() +
+									" packets, peak: " + queue.getPeakBytes() + ", dropped: " + queue.getDropped() + ", coalesced: " + queue.getCoalesced());
+						}
+						
+						chatTo(source, "All connections: dropped: " + OutboundQueue.getTotalDropped() + ", coalesced: " +
+								OutboundQueue.getTotalCoalesced() + ", disconnected: " + OutboundQueue.getTotalOverflows());
+						chatTo(source, "Table packets: encoded: " + encoder.getEncoded() + ", shared: " + encoder.getShared());
+						chatTo(source, "Spectators: " + fanout.getNumSpectators());
 					}
 				} else {
 					if(parts[0].equals("password")) {
@@ -245,6 +573,7 @@ public class GameHost extends Thread {
 							source.administrator = true;
 							chatTo(source, "You have logged in successfully");
 						} else {
+							dropSession(source);
 							source.terminate();
 						}
 					}
@@ -255,48 +584,47 @@ public class GameHost extends Thread {
 		if(!hideChat) {
 			LevelUp.println("[GameHost] [" + name + "]: " + message);
 			
-			synchronized(connections) {
-				for(GameConnection connection : connections) {
-					connection.sendChat(name, message);
-				}
+			for(GameConnection connection : connections) {
+				connection.sendChat(name, message);
 			}
+			
+			fanout.sendChat(name, message);
+		}
+	}
+	
+	//the connection is closed on purpose, so it won't resume its seat
+	void dropSession(GameConnection connection) {
+		gameLock.lock();
+		
+		try {
+			int pid = connection.pid;
+			
+			if(pid >= 0 && pid < slots.length && slots[pid].connection == connection) {
+				endSession(pid);
+			}
+		} finally {
+			unlockGame();
 		}
 	}
 	
 	//send a chat to a specific connection
 	public void chatTo(GameConnection target, String message) {
-		synchronized(game) {
-			LevelUp.println("[GameHost] [-> " + game.getPlayer(target.pid).getName() + "] " + message);
-		}
-		
+		LevelUp.println("[GameHost] [-> " + target.name + "] " + message);
 		target.sendChat("Server", message);
 	}
 	
 	//searches for a GameConnection instance by a partial
 	// of the player's name
+	//the names come from the game's snapshot, so this doesn't wait for the
+	// game lock
 	public GameConnection getConnectionByPartial(String name) {
-		name = name.toLowerCase();
-		
-		int foundPID = -1;
-		
-		synchronized(game) {
-			for(int i = 0; i < game.getNumPlayers(); i++) {
-				if(game.getPlayer(i).getName().toLowerCase().equals(name)) {
-					foundPID = i;
-					break;
-				} else if(game.getPlayer(i).getName().contains(name)) {
-					foundPID = i;
-				}
-			}
-		}
+		int foundPID = game.getSnapshot().findPlayer(name);
 		
 		if(foundPID == -1) return null;
 		
-		synchronized(connections) {
-			for(GameConnection connection : connections) {
-				if(connection.pid == foundPID) {
-					return connection;
-				}
+		for(GameConnection connection : connections) {
+			if(connection.pid == foundPID) {
+				return connection;
 			}
 		}
 		
@@ -304,16 +632,8 @@ public class GameHost extends Thread {
 	}
 	
 	public void terminate() {
-		synchronized(connections) {
-			for(GameConnection connection : connections) {
-				connection.terminate();
-			}
-		}
-		
-		if(server != null && !server.isClosed()) {
-			try {
-				server.close();
-			} catch(IOException ioe) {}
+		for(GameConnection connection : connections) {
+			connection.terminate();
 		}
 	}
 	
@@ -328,7 +648,26 @@ public class GameHost extends Thread {
 		
 		LevelUp.println("[GameHost] Attempting to load saved game from " + file.getAbsolutePath());
 		
-		synchronized(game) {
+		//the file is read before locking, so players aren't held up by the disk
+		Game loadedGame = null;
+		
+		try(FileInputStream in = new FileInputStream(file)) {
+			loadedGame = Game.readGame(in);
+		} catch(IOException ioe) {
+			String reason = "Loading saved game: error: " + ioe.getLocalizedMessage();
+			LevelUp.println("[GameHost] " + reason);
+			return reason;
+		}
+		
+		if(loadedGame == null) {
+			String reason = "Loading saved game: error: game is null";
+			LevelUp.println("[GameHost] " + reason);
+			return reason;
+		}
+		
+		gameLock.lock();
+		
+		try {
 			//make sure all slots are full
 			//otherwise, when the saved game is loaded we'll be missing people
 			for(int i = 0; i < slots.length; i++) {
@@ -338,23 +677,6 @@ public class GameHost extends Thread {
 					return reason;
 				}
 			}
-		
-			Game loadedGame = null;
-			
-			try {
-				FileInputStream in = new FileInputStream(file);
-				loadedGame = Game.readGame(in);
-			} catch(IOException ioe) {
-				String reason = "Loading saved game: error: " + ioe.getLocalizedMessage();
-				LevelUp.println("[GameHost] " + reason);
-				return reason;
-			}
-			
-			if(loadedGame == null) {
-				String reason = "Loading saved game: error: game is null";
-				LevelUp.println("[GameHost] " + reason);
-				return reason;
-			}
 			
 			if(loadedGame.getNumPlayers() != slots.length) {
 				String reason = "Loading saved game: error: number of players in saved game " +
@@ -364,12 +686,37 @@ public class GameHost extends Thread {
 			}
 			
 			//synchronize current game with the loaded one
+			GameDelta base = new GameDelta(game);
 			game.synchronize(loadedGame, -1);
+			GameDelta next = new GameDelta(game);
 			
 			//tell all the clients to synchronize
-			//use byte array to buffer the game data
+			//clients that know DELTA only get what changed in their own game;
+			// the rest get the whole game
+			//only the game data is written here; it is encoded and queued
+			// once the lock is released (see TableSync)
+			GameConnection[] seated = new GameConnection[slots.length];
+			byte[][] deltas = new byte[slots.length][];
+			boolean needSync = false;
+			boolean success = true;
+			
+			for(int i = 0; i < slots.length && success; i++) {
+				seated[i] = slots[i].connection;
+				
+				if(seated[i].version >= GameConnection.PROTOCOL_V4) {
+					ByteArrayOutputStream out = new ByteArrayOutputStream();
+					success = GameDelta.writeDelta(base, next, out, i);
+					deltas[i] = out.toByteArray();
+				} else {
+					needSync = true;
+				}
+			}
+			
 			ByteArrayOutputStream out = new ByteArrayOutputStream();
-			boolean success = Game.writeGame(game, out);
+			
+			if(success && needSync) {
+				success = Game.writeGame(game, out);
+			}
 			
 			if(!success) {
 				String reason = "Loading saved game: error: failed to buffer game data; disconnecting clients";
@@ -378,21 +725,11 @@ public class GameHost extends Thread {
 				return reason;
 			}
 			
-			byte[] bytes = out.toByteArray();
-			
-			synchronized(connections) {
-				for(GameConnection connection : connections) {
-					connection.sendSync(bytes.length);
-				}
-			}
-			
-			for(int i = 0; i < bytes.length; i += 1400) {
-				synchronized(connections) {
-					for(GameConnection connection : connections) {
-						connection.sendSyncPart(bytes, i, Math.min(1400, bytes.length - i));
-					}
-				}
-			}
+			game.post(new TableSync(out.toByteArray(), seated, deltas));
+			fanout.sync();
+			log.reset();
+		} finally {
+			unlockGame();
 		}
 		
 		LevelUp.println("[GameHost] Saved game loaded successfully, and synchronization completed");
@@ -404,70 +741,123 @@ public class GameHost extends Thread {
 		return null;
 	}
 	
-	public void run() {
-		if(server == null || !server.isBound()) {
-			//something probably failed in the server initialization code
-			//we sleep for a while
-			//then, in case we're hosting multiple games, notify to host another
-			
-			try {
-				Thread.sleep(5000);
-			} catch(InterruptedException e) {}
-			
-			gameLoaded = true;
-			
-			synchronized(this) {
-				this.notifyAll();
+	//plays the game once the table is full; called by the scheduler
+	//returns the milliseconds until the next update, or -1 once the game
+	// is over
+	int update() {
+		if(game.gameOver() || (connections.isEmpty() && heldSeats == 0)) {
+			finish();
+			return -1;
+		}
+		
+		gameLock.lock();
+		
+		try {
+			if(heldSeats > 0) {
+				expireSeats();
 			}
 			
-			return;
+			return game.update();
+		} finally {
+			unlockGame();
 		}
+	}
+	
+	void finish() {
+		LevelUp.println("[GameHost] Game at table " + id + " is over");
 		
-		while(!gameLoaded) {
-			try {
-				Socket socket = server.accept();
-				LevelUp.println("[GameHost] New connection from " + socket.getInetAddress().getHostAddress());
-				
-				GameConnection connection = new GameConnection(this, socket, game);
-				
-				synchronized(connections) {
-					connections.add(connection);
-				}
-				
-				connection.start();
-			} catch(IOException ioe) {
-				if(server.isClosed()) break;
-				
-				LevelUp.println("[GameHost] Error while accepting socket: " + ioe.getLocalizedMessage());
-				
-				if(LevelUp.DEBUG){
-					ioe.printStackTrace();
-				}
+		gameLock.lock();
+		
+		try {
+			for(int i = 0; i < slots.length; i++) {
+				endSession(i);
 			}
+		} finally {
+			unlockGame();
 		}
 		
-		//if we're hosting multiple games, notify that this one started
-		synchronized(this) {
-			this.notifyAll();
-		}
+		fanout.close();
+		lobby.eventTableClosed(this);
+		finished.countDown();
+	}
+}
+
+class TableFlush extends GameEvent {
+	GameHost host;
+	
+	public TableFlush(GameHost host) {
+		this.host = host;
+	}
+	
+	public void dispatch() {
+		host.flushConnections();
+	}
+}
+
+//sends a loaded game to every connection at the table, or a resync to one
+// of them: its delta if it has one, and otherwise a sync
+//the sync is encoded once for each protocol version in use, as one frame
+// with all of its parts, and every connection queues the same frame
+class TableSync extends GameEvent {
+	byte[] data;
+	
+	//the connections as of when the sync was made, and the delta of each
+	// one that gets a delta
+	GameConnection[] seated;
+	byte[][] deltas;
+	
+	public TableSync(byte[] data, GameConnection[] seated, byte[][] deltas) {
+		this.data = data;
+		this.seated = seated;
+		this.deltas = deltas;
+	}
+	
+	public void dispatch() {
+		byte[][] frames = new byte[LevelUp.LEVELUP_VERSION + 1][];
 		
-		while(!game.gameOver() && !connections.isEmpty()) {
-			synchronized(game) {
-				int ticks = game.update();
-				
+		for(int i = 0; i < seated.length; i++) {
+			GameConnection connection = seated[i];
+			int version = connection.version;
+			
+			if(deltas[i] != null) {
+				connection.sendDelta(deltas[i]);
+				continue;
+			}
+			
+			if(frames[version] == null) {
 				try {
-					game.wait(ticks);
-				} catch(InterruptedException e) {
-					
+					frames[version] = PacketEncoder.encodeSync(version, data);
+				} catch(IOException ioe) {
+					LevelUp.println("[GameHost] Failed to encode sync: " + ioe.getLocalizedMessage());
+					return;
 				}
 			}
+			
+			connection.sendFrame(frames[version], OutboundQueue.FRAME_ESSENTIAL);
 		}
-		
-		LevelUp.println("[GameHost] Game is over");
 	}
 }
 
 class GameSlot {
 	GameConnection connection;
 	String name;
+	
+	//the session of the player, if they can resume it
+	String token;
+	
+	//when the player dropped, if the seat is held for them; 0 otherwise
+	long dropped;
+}
+
+//a held seat has run out; the table frees it at its next update
+class SeatExpiry implements Runnable {
+	GameHost host;
+	
+	public SeatExpiry(GameHost host) {
+		this.host = host;
+	}
+	
+	public void run() {
+		host.wakeUp();
+	}
 }
\ No newline at end of file
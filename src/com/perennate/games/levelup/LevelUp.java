@@ -11,8 +11,8 @@ import com.perennate.games.levelup.engine.Game;
 import com.perennate.games.levelup.uglyview.UglyView;
 
 public class LevelUp {
-	public static int LEVELUP_VERSION = 0;
-	public static String LEVELUP_VERSION_STRING = "p-levelup 0 (http://levelup.perennate.com/)";
+	public static int LEVELUP_VERSION = 4;
+	public static String LEVELUP_VERSION_STRING = "p-levelup 4 (http://levelup.perennate.com/)";
 	public static File logTarget = null;
 	public static boolean DEBUG = true;
 	public static JApplet APPLET = null;
@@ -40,23 +40,17 @@ public class LevelUp {
 		println("[Main] Starting up");
 		
 		if(Config.getBoolean("host", false)) {
-			GameHost host = new GameHost();
-			host.start();
+			//hostmulti: tables are opened as players arrive, all on one port
+			Lobby lobby = new Lobby(Config.getBoolean("hostmulti", false));
 			
-			if(Config.getBoolean("hostmulti", false)) {
-				while(true) {
-					synchronized(host) {
-						while(!host.gameLoaded) {
-							try {
-								host.wait(2000);
-							} catch(InterruptedException e) {}
-						}
-					}
-					
-					host = new GameHost();
-					host.start();
-				}
-			}
+			if(!lobby.bind()) return;
+			
+			lobby.start();
+			
+			//virtual threads don't keep the JVM running on their own
+			try {
+				lobby.join();
+			} catch(InterruptedException e) {}
 		} else {
 			Game game = new Game(Config.getInt("numplayers", 4), false);
 			
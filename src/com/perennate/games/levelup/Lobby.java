@@ -0,0 +1,279 @@
+package com.perennate.games.levelup;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.security.SecureRandom;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+//accepts every connection on the server port and seats players at tables
+//a connection stays in the lobby until it sends JOIN, and is then seated at
+// the oldest table that still has a free seat; a table is opened whenever
+// none has one, so any number of tables can be filling at the same time
+//tables are listed in the directory by id until their game is over
+//a connection that sends SPECTATE instead watches a table without a seat,
+// and one that sends RESUME takes back the seat of a session that dropped
+public class Lobby implements Runnable {
+	ServerSocket server;
+	
+	//null if every connection gets its own thread
+	NioTransport transport;
+	
+	//hostmulti: keep opening tables; otherwise the lobby stops accepting once
+	// the first table is full and exits when its game is over
+	boolean multi;
+	
+	//without hostmulti, keep accepting spectators, or players resuming
+	// their seat, until the game is over
+	boolean spectators;
+	boolean resume;
+	
+	ConcurrentHashMap<Integer, GameHost> tables;
+	
+	//tables that had a free seat the last time we looked, oldest first
+	ConcurrentLinkedQueue<GameHost> formingTables;
+	
+	//guarded by this
+	int nextTableId;
+	
+	//every open connection, seated or not
+	Set<GameConnection> connections;
+	
+	//the table of every session that can still be resumed, by token
+	ConcurrentHashMap<String, GameHost> sessions;
+	SecureRandom random;
+	
+	Thread thread;
+	
+	public Lobby(boolean multi) {
+		this.multi = multi;
+		spectators = Config.getInt("max_spectators", SpectatorFanout.DEFAULT_LIMIT) > 0;
+		resume = Config.getInt("resume_grace", GameHost.DEFAULT_RESUME_GRACE) > 0;
+		
+		tables = new ConcurrentHashMap<Integer, GameHost>();
+		formingTables = new ConcurrentLinkedQueue<GameHost>();
+		connections = ConcurrentHashMap.newKeySet();
+		sessions = new ConcurrentHashMap<String, GameHost>();
+		random = new SecureRandom();
+		
+		//transport: nio (default) serves every connection from a few shared
+		// selector threads; thread gives each connection its own thread
+		if(!Config.getString("transport", "nio").equals("thread")) {
+			transport = NioTransport.getInstance();
+		}
+	}
+	
+	//returns false if we couldn't listen on the port
+	public boolean bind() {
+		try {
+			if(transport != null) {
+				server = ServerSocketChannel.open().socket();
+				server.bind(new InetSocketAddress(GameHost.DEFAULT_PORT));
+			} else {
+				server = new ServerSocket(GameHost.DEFAULT_PORT);
+			}
+			
+			return true;
+		} catch(IOException ioe) {
+			LevelUp.println("[Lobby] Error while binding to " + GameHost.DEFAULT_PORT + ": " + ioe.getLocalizedMessage());
+			
+			if(LevelUp.DEBUG) {
+				ioe.printStackTrace();
+			}
+			
+			return false;
+		}
+	}
+	
+	public void start() {
+		thread = Threads.start(this, "Lobby");
+	}
+	
+	public void join() throws InterruptedException {
+		thread.join();
+	}
+	
+	public void run() {
+		while(!server.isClosed()) {
+			try {
+				Socket socket = server.accept();
+				LevelUp.println("[Lobby] New connection from " + socket.getInetAddress().getHostAddress());
+				
+				GameConnection connection = new GameConnection(this, socket);
+				connections.add(connection);
+				
+				if(transport == null) {
+					connection.start();
+				} else if(!transport.register(connection, socket.getChannel())) {
+					connection.terminate();
+				}
+			} catch(IOException ioe) {
+				if(server.isClosed()) break;
+				
+				LevelUp.println("[Lobby] Error while accepting socket: " + ioe.getLocalizedMessage());
+				
+				if(LevelUp.DEBUG) {
+					ioe.printStackTrace();
+				}
+			}
+		}
+		
+		//without hostmulti, stay until the one game is over
+		for(GameHost table : tables.values()) {
+			try {
+				table.join();
+			} catch(InterruptedException e) {}
+		}
+	}
+	
+	//seats the connection and returns its pid at the table, or -1 if there
+	// is no room (only without hostmulti, once the table is full)
+	public int eventPlayerJoin(GameConnection connection, String name) {
+		while(true) {
+			GameHost table = formingTables.peek();
+			
+			if(table == null) {
+				table = openTable();
+				
+				if(table == null) return -1;
+			}
+			
+			int pid = table.eventPlayerJoin(connection, name);
+			
+			if(pid != -1) return pid;
+			
+			//the table filled up since we looked
+			formingTables.remove(table);
+		}
+	}
+	
+	//has the connection watch a table: tableId if there is such a table,
+	// otherwise the table with a game that the most spectators are watching
+	//returns false if there is no table to watch, or it is full
+	public boolean eventSpectatorJoin(GameConnection connection, int tableId) {
+		GameHost table = tables.get(tableId);
+		
+		if(table == null) {
+			for(GameHost candidate : tables.values()) {
+				if(table == null || (candidate.gameLoaded && !table.gameLoaded) ||
+						(candidate.gameLoaded == table.gameLoaded && candidate.getNumSpectators() > table.getNumSpectators())) {
+					table = candidate;
+				}
+			}
+		}
+		
+		if(table == null) return false;
+		
+		return table.eventSpectatorJoin(connection);
+	}
+	
+	//returns a new session token for a player seated at the table
+	public String newSession(GameHost table) {
+		byte[] bytes = new byte[16];
+		random.nextBytes(bytes);
+		
+		StringBuilder token = new StringBuilder(32);
+		
+		for(byte b : bytes) {
+			token.append(Character.forDigit((b >> 4) & 15, 16));
+			token.append(Character.forDigit(b & 15, 16));
+		}
+		
+		sessions.put(token.toString(), table);
+		return token.toString();
+	}
+	
+	public void endSession(String token) {
+		sessions.remove(token);
+	}
+	
+	//seats the connection again at the table of the session, and returns
+	// its pid there, or -1 if the session is over
+	public int eventPlayerResume(GameConnection connection, String token, int count) {
+		GameHost table = sessions.get(token);
+		
+		if(table == null) return -1;
+		
+		return table.eventPlayerResume(connection, token, count);
+	}
+	
+	synchronized GameHost openTable() {
+		//another join may have opened one while we waited
+		GameHost table = formingTables.peek();
+		
+		if(table != null) return table;
+		else if(!multi && nextTableId > 0) return null;
+		
+		table = new GameHost(this, nextTableId++);
+		tables.put(table.id, table);
+		formingTables.add(table);
+		
+		LevelUp.println("[Lobby] Opened table " + table.id);
+		return table;
+	}
+	
+	//called by a table that hasn't started when a player leaves it
+	public void eventSeatFreed(GameHost table) {
+		if(!formingTables.contains(table)) {
+			formingTables.add(table);
+		}
+	}
+	
+	//called by a table once every seat is taken and the game starts
+	public void eventTableLoaded(GameHost table) {
+		formingTables.remove(table);
+		
+		if(!multi && !spectators && !resume) {
+			try {
+				server.close();
+			} catch(IOException ioe) {
+				LevelUp.println("[Lobby] Error while closing server socket: " + ioe.getLocalizedMessage());
+			}
+		}
+	}
+	
+	public void eventTableClosed(GameHost table) {
+		tables.remove(table.id);
+		formingTables.remove(table);
+		
+		//the one game is over, so there is nothing left to watch or resume
+		if(!multi && (spectators || resume)) {
+			try {
+				server.close();
+			} catch(IOException ioe) {
+				LevelUp.println("[Lobby] Error while closing server socket: " + ioe.getLocalizedMessage());
+			}
+		}
+	}
+	
+	public void eventConnectionTerminate(GameConnection connection) {
+		LevelUp.println("[Lobby] Connection from " + connection.socket.getInetAddress().getHostAddress() + " is terminated");
+		connections.remove(connection);
+	}
+	
+	public GameHost getTable(int id) {
+		return tables.get(id);
+	}
+	
+	public int getNumTables() {
+		return tables.size();
+	}
+	
+	public int getNumConnections() {
+		return connections.size();
+	}
+	
+	public void terminate() {
+		try {
+			server.close();
+		} catch(IOException ioe) {}
+		
+		for(GameConnection connection : connections) {
+			connection.terminate();
+		}
+	}
+}
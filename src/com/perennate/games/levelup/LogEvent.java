@@ -0,0 +1,27 @@
+package com.perennate.games.levelup;
+
+import com.perennate.games.levelup.engine.GameEvent;
+
+//a packet for every seat, or a reset if identifier is -1, in order with
+// the game's events
+class LogEvent extends GameEvent {
+	TableLog log;
+	int identifier;
+	Object[] fields;
+	
+	public LogEvent(TableLog log, int identifier, Object[] fields) {
+		this.log = log;
+		this.identifier = identifier;
+		this.fields = fields;
+	}
+	
+	public void dispatch() {
+		for(SeatLog seat : log.seats) {
+			if(identifier == -1) {
+				seat.base = seat.count;
+			} else {
+				seat.record(identifier, fields);
+			}
+		}
+	}
+}
@@ -0,0 +1,231 @@
+package com.perennate.games.levelup;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+//a connection served by a NioLoop: its socket, read buffer and output
+class NioChannel {
+	NioLoop loop;
+	SocketChannel socketChannel;
+	SelectionKey key;
+	GameConnection connection;
+	
+	//bytes received that don't make a whole packet yet
+	ByteBuffer readBuffer;
+	DataInputStream packetIn;
+	
+	//packets taken from the queue that aren't fully written yet, from
+	// gatherStart to gatherEnd; loop thread only
+	ByteBuffer[] gather;
+	int gatherStart;
+	int gatherEnd;
+	
+	//set while the channel is in the loop's pending queue or waiting for
+	// the socket to become writable, guarded by this
+	boolean scheduled;
+	
+	//set once close is called, guarded by this
+	boolean closing;
+	
+	//only used on the loop thread
+	boolean closed;
+	
+	public NioChannel(NioLoop loop, SocketChannel socketChannel, GameConnection connection) {
+		this.loop = loop;
+		this.socketChannel = socketChannel;
+		this.connection = connection;
+		
+		readBuffer = ByteBuffer.allocate(NioTransport.READ_BUFFER_SIZE);
+		packetIn = new DataInputStream(new NioInputStream(this));
+		gather = new ByteBuffer[NioTransport.MAX_GATHER];
+	}
+	
+	//called on any thread once the connection's queue has output again
+	public void schedule() {
+		synchronized(this) {
+			if(scheduled || closing) return;
+			scheduled = true;
+		}
+		
+		loop.schedule(this);
+	}
+	
+	//called on any thread; the loop closes the socket after a last attempt
+	// to write what is left
+	public void close() {
+		synchronized(this) {
+			if(closing) return;
+			closing = true;
+		}
+		
+		loop.schedule(this);
+	}
+	
+	public synchronized boolean isClosing() {
+		return closing;
+	}
+	
+	//loop thread only
+	//writes queued packets until the socket is full or the queue is empty,
+	// and waits for the socket to become writable if there is more
+	//everything queued so far goes out in one gathering write, so a change
+	// to the game that produced several packets costs one system call
+	void flush() throws IOException {
+		if(key == null || closed) return;
+		
+		while(true) {
+			if(gatherStart == gatherEnd && !fillGather()) {
+				synchronized(this) {
+					scheduled = false;
+				}
+				
+				//a packet queued before scheduled was cleared didn't
+				// schedule us again, so look once more
+				if(connection.queue.getQueuedFrames() == 0) break;
+				else continue;
+			}
+			
+			socketChannel.write(gather, gatherStart, gatherEnd - gatherStart);
+			
+			while(gatherStart < gatherEnd && !gather[gatherStart].hasRemaining()) {
+				gather[gatherStart++] = null;
+			}
+			
+			if(gatherStart < gatherEnd) {
+				key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+				return;
+			}
+		}
+		
+		key.interestOps(SelectionKey.OP_READ);
+	}
+	
+	//takes as many packets as fit from the queue; returns false if there
+	// were none
+	boolean fillGather() {
+		gatherStart = 0;
+		gatherEnd = 0;
+		
+		byte[] frame;
+		
+		while(gatherEnd < gather.length && (frame = connection.queue.poll()) != null) {
+			gather[gatherEnd++] = ByteBuffer.wrap(frame);
+		}
+		
+		return gatherEnd > 0;
+	}
+	
+	//loop thread only
+	//reads what is available and handles every complete packet
+	void read() throws IOException {
+		int n = socketChannel.read(readBuffer);
+		
+		if(n == -1) {
+			closeNow("Remote disconnected");
+			return;
+		}
+		
+		readBuffer.flip();
+		
+		while(readBuffer.hasRemaining() && !isClosing()) {
+			readBuffer.mark();
+			
+			try {
+				if(!connection.readPacket(packetIn)) {
+					closeNow(null);
+					return;
+				}
+			} catch(EOFException e) {
+				//the rest of the packet hasn't arrived yet
+				readBuffer.reset();
+				break;
+			}
+		}
+		
+		readBuffer.compact();
+		
+		if(!readBuffer.hasRemaining()) {
+			//a single packet fills the buffer
+			if(readBuffer.capacity() >= NioTransport.MAX_PACKET_SIZE) {
+				closeNow("Packet too large");
+				return;
+			}
+			
+			ByteBuffer newBuffer = ByteBuffer.allocate(Math.min(readBuffer.capacity() * 2, NioTransport.MAX_PACKET_SIZE));
+			readBuffer.flip();
+			newBuffer.put(readBuffer);
+			readBuffer = newBuffer;
+		}
+	}
+	
+	//loop thread only
+	void closeNow(String reason) {
+		if(closed) return;
+		closed = true;
+		
+		synchronized(this) {
+			closing = true;
+		}
+		
+		if(reason != null) {
+			connection.println(reason);
+		}
+		
+		if(key != null) {
+			key.cancel();
+			loop.numChannels--;
+			
+			//last chance for anything queued before the close, like a JOIN
+			// rejection; the socket is still non-blocking so this won't wait
+			try {
+				while(gatherStart < gatherEnd || fillGather()) {
+					socketChannel.write(gather, gatherStart, gatherEnd - gatherStart);
+					
+					if(gather[gatherEnd - 1].hasRemaining()) break;
+					gatherStart = gatherEnd;
+				}
+			} catch(IOException ioe) {}
+		}
+		
+		connection.println("Closing connection");
+		
+		try {
+			socketChannel.close();
+		} catch(IOException ioe) {}
+		
+		connection.terminate();
+	}
+}
+
+//reads packets out of a channel's read buffer
+//runs out (EOFException) at the end of the bytes received so far
+class NioInputStream extends InputStream {
+	NioChannel channel;
+	
+	public NioInputStream(NioChannel channel) {
+		this.channel = channel;
+	}
+	
+	public int read() {
+		ByteBuffer buffer = channel.readBuffer;
+		
+		if(!buffer.hasRemaining()) return -1;
+		else return buffer.get() & 0xFF;
+	}
+	
+	public int read(byte[] bytes, int offset, int len) {
+		ByteBuffer buffer = channel.readBuffer;
+		
+		if(len == 0) return 0;
+		else if(!buffer.hasRemaining()) return -1;
+		
+		len = Math.min(len, buffer.remaining());
+		buffer.get(bytes, offset, len);
+		return len;
+	}
+}
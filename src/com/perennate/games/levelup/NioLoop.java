@@ -0,0 +1,126 @@
+package com.perennate.games.levelup;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+//one selector thread of the NioTransport, and the channels registered with it
+class NioLoop extends Thread {
+	Selector selector;
+	
+	//channels waiting to be registered with the selector
+	ConcurrentLinkedQueue<NioChannel> registrations;
+	
+	//channels with new output or that should be closed
+	ConcurrentLinkedQueue<NioChannel> pending;
+	
+	//only changed on the loop thread
+	volatile int numChannels;
+	
+	public NioLoop(int index) throws IOException {
+		super("NioLoop-" + index);
+		setDaemon(true);
+		
+		selector = Selector.open();
+		registrations = new ConcurrentLinkedQueue<NioChannel>();
+		pending = new ConcurrentLinkedQueue<NioChannel>();
+	}
+	
+	public void register(NioChannel channel) {
+		registrations.add(channel);
+		selector.wakeup();
+	}
+	
+	public void schedule(NioChannel channel) {
+		pending.add(channel);
+		selector.wakeup();
+	}
+	
+	//idle connections are closed by GameConnection's timeout on the shared
+	// timer, so the loop only wakes up for I/O
+	public void run() {
+		while(true) {
+			//every connection on this loop stalls if the thread dies, so
+			// nothing gets out of here
+			try {
+				poll();
+			} catch(Throwable t) {
+				LevelUp.println("[NioLoop] Unexpected error: " + t);
+				
+				if(LevelUp.DEBUG) {
+					t.printStackTrace();
+				}
+			}
+		}
+	}
+	
+	//one round of selecting, registering, flushing and handling keys
+	void poll() {
+		try {
+			selector.select();
+		} catch(IOException ioe) {
+			LevelUp.println("[NioLoop] Error while selecting: " + ioe.getLocalizedMessage());
+			return;
+		}
+		
+		NioChannel channel;
+		
+		while((channel = registrations.poll()) != null) {
+			try {
+				channel.key = channel.socketChannel.register(selector, SelectionKey.OP_READ, channel);
+				numChannels++;
+				
+				//output may have been queued before the key existed
+				channel.flush();
+			} catch(IOException ioe) {
+				channel.closeNow("Error while registering: " + ioe.getLocalizedMessage());
+			} catch(Throwable t) {
+				channel.closeNow("Error while registering: " + t);
+			}
+		}
+		
+		while((channel = pending.poll()) != null) {
+			if(channel.isClosing()) {
+				channel.closeNow(null);
+			} else {
+				try {
+					channel.flush();
+				} catch(IOException ioe) {
+					channel.closeNow("Error while writing: " + ioe.getLocalizedMessage());
+				} catch(Throwable t) {
+					channel.closeNow("Error while writing: " + t);
+				}
+			}
+		}
+		
+		Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+		
+		while(it.hasNext()) {
+			SelectionKey key = it.next();
+			it.remove();
+			channel = (NioChannel) key.attachment();
+			
+			try {
+				if(key.isValid() && key.isReadable()) {
+					channel.read();
+				}
+				
+				if(key.isValid() && key.isWritable()) {
+					channel.flush();
+				}
+			} catch(IOException ioe) {
+				channel.closeNow("Error while reading: " + ioe.getLocalizedMessage());
+			} catch(Throwable t) {
+				//don't let one connection take the whole loop down, even
+				// with an error like running out of memory
+				channel.closeNow("Error while handling packet: " + t);
+				
+				if(LevelUp.DEBUG) {
+					t.printStackTrace();
+				}
+			}
+		}
+	}
+}
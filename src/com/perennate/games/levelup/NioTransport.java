@@ -0,0 +1,89 @@
+package com.perennate.games.levelup;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//serves connections from a few selector threads instead of a thread per connection
+//each connection stays on one loop for its whole life; packets are handled
+// on the loop thread by the same GameConnection code as the blocking transport
+//output is taken from the connection's OutboundQueue and written by the
+// loop when the socket can take it, so listener callbacks (which run while
+// the game is locked) never wait on the network
+public class NioTransport {
+	//bytes read from the socket at a time; buffers grow up to MAX_PACKET_SIZE
+	// if a single packet doesn't fit
+	public static int READ_BUFFER_SIZE = 512;
+	
+	//the largest packet is a chat message of up to 64KB
+	public static int MAX_PACKET_SIZE = 70000;
+	
+	//the most packets handed to the socket in one gathering write
+	public static int MAX_GATHER = 64;
+	
+	static NioTransport instance;
+	
+	NioLoop[] loops;
+	AtomicInteger nextLoop;
+	
+	NioTransport(NioLoop[] loops) {
+		this.loops = loops;
+		nextLoop = new AtomicInteger();
+		
+		for(NioLoop loop : loops) {
+			loop.start();
+		}
+	}
+	
+	//returns the transport shared by every table, or null if the selectors
+	// could not be opened
+	//the number of loops is set by nio_threads (default: one per core)
+	public static synchronized NioTransport getInstance() {
+		if(instance == null) {
+			int numLoops = Config.getInt("nio_threads", Runtime.getRuntime().availableProcessors());
+			NioLoop[] loops = new NioLoop[Math.max(1, numLoops)];
+			
+			try {
+				for(int i = 0; i < loops.length; i++) {
+					loops[i] = new NioLoop(i);
+				}
+			} catch(IOException ioe) {
+				LevelUp.println("[NioTransport] Error while opening selector: " + ioe.getLocalizedMessage());
+				return null;
+			}
+			
+			LevelUp.println("[NioTransport] Serving connections from " + loops.length + " selector threads");
+			instance = new NioTransport(loops);
+		}
+		
+		return instance;
+	}
+	
+	//hands an accepted connection to one of the loops
+	//the connection must have been created from the channel's socket
+	public boolean register(GameConnection connection, SocketChannel socketChannel) {
+		try {
+			socketChannel.configureBlocking(false);
+			socketChannel.socket().setTcpNoDelay(true);
+		} catch(IOException ioe) {
+			LevelUp.println("[NioTransport] Error while configuring channel: " + ioe.getLocalizedMessage());
+			return false;
+		}
+		
+		NioLoop loop = loops[(nextLoop.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+		NioChannel channel = new NioChannel(loop, socketChannel, connection);
+		connection.attach(channel);
+		loop.register(channel);
+		return true;
+	}
+	
+	public int getNumConnections() {
+		int total = 0;
+		
+		for(NioLoop loop : loops) {
+			total += loop.numChannels;
+		}
+		
+		return total;
+	}
+}
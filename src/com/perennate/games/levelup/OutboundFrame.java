@@ -0,0 +1,12 @@
+package com.perennate.games.levelup;
+
+//an encoded packet waiting in a connection's outbound queue
+class OutboundFrame {
+	byte[] data;
+	int kind;
+	
+	public OutboundFrame(byte[] data, int kind) {
+		this.data = data;
+		this.kind = kind;
+	}
+}
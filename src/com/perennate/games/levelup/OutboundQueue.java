@@ -0,0 +1,309 @@
+package com.perennate.games.levelup;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+//packets waiting to be written to one connection
+//listener callbacks only add whole packets here, so the game lock is never
+// held while waiting on a socket; the transport takes them off as fast as
+// the client reads them
+//the queue is bounded by outbound_queue_limit bytes; what happens to a
+// client that falls that far behind is set by slow_client_policy:
+// disconnect: the connection is closed
+// drop: packets that don't matter later (chat, keep-alives, play errors,
+//  counters) are thrown away, and the connection is closed only if a packet
+//  that changes the game doesn't fit
+// coalesce (default): like drop, but a counter update also replaces the
+//  update of the same counter that is still waiting, so a slow client only
+//  gets the latest value
+public class OutboundQueue {
+	public static int POLICY_DISCONNECT = 0;
+	public static int POLICY_DROP = 1;
+	public static int POLICY_COALESCE = 2;
+	
+	//packets that the client must get to stay in sync
+	public static int FRAME_ESSENTIAL = 0;
+	//packets that can be lost
+	public static int FRAME_DROPPABLE = 1;
+	//counter updates, where only the latest value matters; these are also droppable
+	public static int FRAME_BETCOUNTER = 2;
+	public static int FRAME_ROUNDOVERCOUNTER = 3;
+	public static int NUM_FRAME_KINDS = 4;
+	
+	//results of offer
+	public static int QUEUED = 0;
+	public static int QUEUED_FIRST = 1; //the queue was empty, so the writer may need waking
+	public static int DROPPED = 2;
+	public static int OVERFLOW = 3; //the connection should be closed
+	public static int CLOSED = 4;
+	
+	public static int DEFAULT_LIMIT = 256 * 1024;
+	
+	//totals over every connection
+	static AtomicLong totalDropped = new AtomicLong();
+	static AtomicLong totalCoalesced = new AtomicLong();
+	static AtomicLong totalOverflows = new AtomicLong();
+	
+	ReentrantLock lock;
+	Condition notEmpty;
+	
+	ArrayDeque<OutboundFrame> frames;
+	boolean closed;
+	
+	//the last queued frame of each coalescing kind, if it is still queued
+	OutboundFrame[] lastOfKind;
+	
+	int limit;
+	int policy;
+	
+	//metrics
+	int queuedBytes;
+	int queuedFrames;
+	int peakBytes;
+	long dropped;
+	long coalesced;
+	
+	public OutboundQueue(int limit, int policy) {
+		this.limit = limit;
+		this.policy = policy;
+		
+		lock = new ReentrantLock();
+		notEmpty = lock.newCondition();
+		frames = new ArrayDeque<OutboundFrame>();
+		lastOfKind = new OutboundFrame[NUM_FRAME_KINDS];
+	}
+	
+	//a queue with the limit and policy from the configuration
+	public static OutboundQueue create() {
+		String policyString = Config.getString("slow_client_policy", "coalesce");
+		int policy = POLICY_COALESCE;
+		
+		if(policyString.equals("disconnect")) policy = POLICY_DISCONNECT;
+		else if(policyString.equals("drop")) policy = POLICY_DROP;
+		else if(!policyString.equals("coalesce")) {
+			LevelUp.println("[OutboundQueue] Unknown slow_client_policy [" + policyString + "]; using coalesce");
+		}
+		
+		return new OutboundQueue(Config.getInt("outbound_queue_limit", DEFAULT_LIMIT), policy);
+	}
+	
+	public int offer(byte[] data, int kind) {
+		lock.lock();
+		
+		try {
+			return add(data, kind, true);
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	//queues packets that should be written together; the writer is only
+	// woken once all of them are in
+	//returns OVERFLOW if any packet overflowed, otherwise QUEUED_FIRST if
+	// the queue was empty before
+	public int offerAll(List<OutboundFrame> batch) {
+		lock.lock();
+		
+		try {
+			boolean wasEmpty = queuedFrames == 0;
+			int result = QUEUED;
+			
+			for(OutboundFrame frame : batch) {
+				int frameResult = add(frame.data, frame.kind, false);
+				
+				if(frameResult == OVERFLOW || frameResult == CLOSED) {
+					result = frameResult;
+					break;
+				}
+			}
+			
+			if(wasEmpty && queuedFrames > 0) {
+				notEmpty.signalAll();
+				
+				if(result == QUEUED) {
+					result = QUEUED_FIRST;
+				}
+			}
+			
+			return result;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	//called with the lock held
+	int add(byte[] data, int kind, boolean signal) {
+		if(closed) return CLOSED;
+		
+		if(policy == POLICY_COALESCE && kind >= FRAME_BETCOUNTER && lastOfKind[kind] != null) {
+			//the client hasn't seen the last value yet; it only needs this one
+			//the frame is taken out of the deque, so that a client that
+			// never reads doesn't pile up replaced counters past the limit;
+			// it is searched for from the back, which it is usually near
+			frames.removeLastOccurrence(lastOfKind[kind]);
+			remove(lastOfKind[kind]);
+			coalesced++;
+			totalCoalesced.incrementAndGet();
+		}
+		
+		if(queuedBytes + data.length > limit) {
+			if(policy != POLICY_DISCONNECT && kind != FRAME_ESSENTIAL) {
+				dropped++;
+				totalDropped.incrementAndGet();
+				return DROPPED;
+			}
+			
+			totalOverflows.incrementAndGet();
+			return OVERFLOW;
+		}
+		
+		boolean wasEmpty = queuedFrames == 0;
+		OutboundFrame frame = new OutboundFrame(data, kind);
+		frames.add(frame);
+		queuedBytes += data.length;
+		queuedFrames++;
+		peakBytes = Math.max(peakBytes, queuedBytes);
+		
+		if(kind >= FRAME_BETCOUNTER) {
+			lastOfKind[kind] = frame;
+		}
+		
+		if(wasEmpty && signal) {
+			notEmpty.signalAll();
+			return QUEUED_FIRST;
+		} else {
+			return QUEUED;
+		}
+	}
+	
+	//called with the lock held, once the frame is out of the deque
+	void remove(OutboundFrame frame) {
+		queuedBytes -= frame.data.length;
+		queuedFrames--;
+		
+		if(lastOfKind[frame.kind] == frame) {
+			lastOfKind[frame.kind] = null;
+		}
+	}
+	
+	//returns the next packet, or null if there is none
+	public byte[] poll() {
+		lock.lock();
+		
+		try {
+			return next();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	//waits for the next packet; returns null once the queue is closed
+	public byte[] take() throws InterruptedException {
+		lock.lock();
+		
+		try {
+			while(queuedFrames == 0 && !closed) {
+				notEmpty.await(GameConnection.TIMEOUT, TimeUnit.MILLISECONDS);
+			}
+			
+			return next();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	//called with the lock held
+	byte[] next() {
+		OutboundFrame frame = frames.poll();
+		
+		if(frame == null) {
+			return null;
+		}
+		
+		remove(frame);
+		return frame.data;
+	}
+	
+	//wakes the writer; packets that are still queued can be taken, but no
+	// more are accepted
+	public void close() {
+		lock.lock();
+		
+		try {
+			closed = true;
+			notEmpty.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	public int getLimit() {
+		return limit;
+	}
+	
+	public int getQueuedBytes() {
+		lock.lock();
+		
+		try {
+			return queuedBytes;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	public int getQueuedFrames() {
+		lock.lock();
+		
+		try {
+			return queuedFrames;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	public int getPeakBytes() {
+		lock.lock();
+		
+		try {
+			return peakBytes;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	public long getDropped() {
+		lock.lock();
+		
+		try {
+			return dropped;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	public long getCoalesced() {
+		lock.lock();
+		
+		try {
+			return coalesced;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	public static long getTotalDropped() {
+		return totalDropped.get();
+	}
+	
+	public static long getTotalCoalesced() {
+		return totalCoalesced.get();
+	}
+	
+	public static long getTotalOverflows() {
+		return totalOverflows.get();
+	}
+}
@@ -0,0 +1,167 @@
+package com.perennate.games.levelup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.perennate.games.levelup.engine.Card;
+import com.perennate.games.levelup.util.Util;
+
+//turns a packet (an identifier and its fields) into the bytes that go on
+// the wire, in the framing of a protocol version (see GameConnection)
+//fields are written by type:
+// Integer: an int, or a varint in version 2
+// String: writeUTF
+// Card: a suit and a value, or the card id in version 2
+// List: the number of elements, then each element
+// byte[]: the length as a short, or a varint in version 2, then the bytes
+//frames are never changed once they are built, so the same array can be
+// queued on any number of connections
+//a GameHost has one encoder for the packets that go to every connection at
+// the table: the first connection that sends one encodes it, and the rest
+// reuse the frame as long as the fields are the same
+public class PacketEncoder {
+	//the newest frame of each identifier, per protocol version, and the
+	// fields it was built from; guarded by this
+	Object[][] lastFields;
+	byte[][][] lastFrames;
+	
+	//metrics
+	long encoded;
+	long shared;
+	
+	public PacketEncoder() {
+		lastFields = new Object[256][];
+		lastFrames = new byte[256][][];
+	}
+	
+	public synchronized byte[] encodeShared(int version, int identifier, Object... fields) throws IOException {
+		if(lastFields[identifier] == null || !Arrays.deepEquals(fields, lastFields[identifier])) {
+			lastFields[identifier] = copyFields(fields);
+			lastFrames[identifier] = new byte[LevelUp.LEVELUP_VERSION + 1][];
+		} else if(lastFrames[identifier][version] != null) {
+			shared++;
+			return lastFrames[identifier][version];
+		}
+		
+		encoded++;
+		byte[] frame = encode(version, identifier, fields);
+		lastFrames[identifier][version] = frame;
+		return frame;
+	}
+	
+	//lists are copied, since the game may change them after the event
+	static Object[] copyFields(Object[] fields) {
+		Object[] copy = new Object[fields.length];
+		
+		for(int i = 0; i < fields.length; i++) {
+			if(fields[i] instanceof List) copy[i] = new ArrayList<Object>((List<?>) fields[i]);
+			else copy[i] = fields[i];
+		}
+		
+		return copy;
+	}
+	
+	public synchronized long getEncoded() {
+		return encoded;
+	}
+	
+	public synchronized long getShared() {
+		return shared;
+	}
+	
+	//throws IOException if a field can't be written, like a string that is
+	// too long for writeUTF
+	public static byte[] encode(int version, int identifier, Object... fields) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream(64);
+		DataOutputStream out = new DataOutputStream(buffer);
+		
+		//version 2 packets get their length below instead
+		if(version < GameConnection.PROTOCOL_V2) {
+			out.write(GameConnection.PACKET_HEADER);
+		}
+		
+		out.write(identifier);
+		
+		for(Object field : fields) {
+			writeField(out, version, field);
+		}
+		
+		if(version < GameConnection.PROTOCOL_V2) {
+			return buffer.toByteArray();
+		}
+		
+		int len = buffer.size();
+		ByteArrayOutputStream framed = new ByteArrayOutputStream(Util.getVarIntSize(len) + len);
+		Util.writeVarInt(new DataOutputStream(framed), len);
+		buffer.writeTo(framed);
+		return framed.toByteArray();
+	}
+	
+	//a whole sync: SYNC with the length of the game data, then the data in
+	// SYNCPART packets of SYNC_PART_SIZE, all in one frame, so that it can be
+	// queued on any number of connections as is
+	public static byte[] encodeSync(int version, byte[] data) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream(data.length + data.length / GameHost.SYNC_PART_SIZE * 8 + 16);
+		DataOutputStream out = new DataOutputStream(buffer);
+		out.write(encode(version, GameConnection.PACKET_SYNC, data.length));
+		
+		for(int i = 0; i < data.length; i += GameHost.SYNC_PART_SIZE) {
+			int len = Math.min(GameHost.SYNC_PART_SIZE, data.length - i);
+			
+			//the same as encode with the part as a byte[], without copying it
+			if(version >= GameConnection.PROTOCOL_V2) {
+				Util.writeVarInt(out, 1 + Util.getVarIntSize(len) + len);
+				out.write(GameConnection.PACKET_SYNCPART);
+				Util.writeVarInt(out, len);
+			} else {
+				out.write(GameConnection.PACKET_HEADER);
+				out.write(GameConnection.PACKET_SYNCPART);
+				out.writeShort((short) len);
+			}
+			
+			out.write(data, i, len);
+		}
+		
+		return buffer.toByteArray();
+	}
+	
+	static void writeField(DataOutputStream out, int version, Object field) throws IOException {
+		if(field instanceof Integer) {
+			int x = (Integer) field;
+			
+			if(version >= GameConnection.PROTOCOL_V2) Util.writeVarInt(out, x);
+			else out.writeInt(x);
+		} else if(field instanceof String) {
+			out.writeUTF((String) field);
+		} else if(field instanceof Card) {
+			Card card = (Card) field;
+			
+			if(version >= GameConnection.PROTOCOL_V2) {
+				out.write(card.getId());
+			} else {
+				out.writeInt(card.getSuit());
+				out.writeInt(card.getValue());
+			}
+		} else if(field instanceof List) {
+			List<?> list = (List<?>) field;
+			writeField(out, version, list.size());
+			
+			for(Object element : list) {
+				writeField(out, version, element);
+			}
+		} else if(field instanceof byte[]) {
+			byte[] bytes = (byte[]) field;
+			
+			if(version >= GameConnection.PROTOCOL_V2) Util.writeVarInt(out, bytes.length);
+			else out.writeShort((short) bytes.length);
+			
+			out.write(bytes);
+		} else {
+			throw new IllegalArgumentException("can't encode " + field);
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package com.perennate.games.levelup;
+
+import java.util.List;
+
+import com.perennate.games.levelup.engine.GameEvent;
+
+//resumes a player's seat: sends what they missed, or the snapshot that
+// was taken when they came back if the log couldn't cover it then
+//dispatched in order with the game's events, so the packets recorded by
+// then are exactly the ones the new connection didn't get
+class ResumeEvent extends GameEvent {
+	GameHost host;
+	GameConnection connection;
+	int pid;
+	int count;
+	List<SpectatorEvent> snapshot;
+	
+	public ResumeEvent(GameHost host, GameConnection connection, int pid, int count, List<SpectatorEvent> snapshot) {
+		this.host = host;
+		this.connection = connection;
+		this.pid = pid;
+		this.count = count;
+		this.snapshot = snapshot;
+	}
+	
+	public void dispatch() {
+		List<SpectatorEvent> events = host.log.getMissed(pid, count);
+		
+		if(events == null && snapshot == null) {
+			//the log moved past the client's count after it was checked;
+			// the seat stays held, and the client gets a snapshot when it
+			// resumes again
+			connection.println("Missed packets are no longer kept (client has " + count + " of " + host.log.getCount(pid) + " packets)");
+			connection.closeSocket();
+			return;
+		} else if(events == null) {
+			connection.println("Resuming from a snapshot (client has " + count + " of " + host.log.getCount(pid) + " packets)");
+			events = snapshot;
+			events.add(new SpectatorEvent(OutboundQueue.FRAME_ESSENTIAL, GameConnection.PACKET_SESSION, connection.token, host.log.getCount(pid)));
+		} else {
+			connection.println("Resuming with " + (host.log.getCount(pid) - count) + " missed packets");
+		}
+		
+		connection.sendFrames(SpectatorFanout.encode(events, connection.version));
+	}
+}
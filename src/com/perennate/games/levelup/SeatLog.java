@@ -0,0 +1,98 @@
+package com.perennate.games.levelup;
+
+import java.util.List;
+
+import com.perennate.games.levelup.engine.Card;
+import com.perennate.games.levelup.engine.GamePlayerListener;
+
+//records what the player at one seat gets from the game
+//lists in the events were already copied by the game when it posted them
+class SeatLog implements GamePlayerListener {
+	TableLog log;
+	int pid;
+	
+	SpectatorEvent[] ring;
+	
+	//packets recorded so far, and the first one that can be resumed from
+	//also read with the game lock held, while a resume is checked
+	volatile int count;
+	volatile int base;
+	
+	public SeatLog(TableLog log, int pid, int size) {
+		this.log = log;
+		this.pid = pid;
+		ring = new SpectatorEvent[size];
+	}
+	
+	void record(int identifier, Object... fields) {
+		ring[count % ring.length] = new SpectatorEvent(OutboundQueue.FRAME_ESSENTIAL, identifier, fields);
+		count++;
+	}
+	
+	public int getPlayer() {
+		return pid;
+	}
+	
+	public void eventPlayerJoined(int pid, String name) {
+		record(GameConnection.PACKET_JOINOTHER, pid, name);
+	}
+	
+	public void eventPlayerLeft(int pid) {
+		//the connection at the seat is closed instead
+		if(pid == this.pid) return;
+		
+		record(GameConnection.PACKET_LEAVEOTHER, pid);
+	}
+	
+	public void eventGameStateChange(int newState) {
+		record(GameConnection.PACKET_GAMESTATECHANGE, newState);
+	}
+	
+	public void eventDeclare(int pid, int suit, int amount) {
+		record(GameConnection.PACKET_DECLARE, pid, suit, amount);
+	}
+	
+	public void eventWithdrawDeclaration(int pid) {
+		record(GameConnection.PACKET_WITHDRAWDECLARATION, pid);
+	}
+	
+	public void eventDefendDeclaration(int pid, int amount) {
+		record(GameConnection.PACKET_DEFENDDECLARATION, pid, amount);
+	}
+	
+	public void eventPlayCards(int pid, List<Card> cards, List<Integer> amounts) {
+		record(GameConnection.PACKET_PLAYCARDS, pid, cards, amounts);
+	}
+	
+	public void eventDealtCard(Card card) {
+		record(GameConnection.PACKET_DEALTCARD, card);
+	}
+	
+	public void eventUpdateBetCounter(int newCounter) {
+		log.betCounter = newCounter;
+	}
+	
+	public void eventBottom(List<Card> cards) {
+		record(GameConnection.PACKET_BOTTOM, cards);
+	}
+	
+	public void eventSelectBottom(List<Card> cards) {
+		record(GameConnection.PACKET_SELECTBOTTOM, cards);
+	}
+	
+	public void eventUpdateRoundOverCounter(int newCounter) {
+		log.roundOverCounter = newCounter;
+	}
+	
+	public void eventPlayerSwapped(int id1, int id2) {
+		record(GameConnection.PACKET_SWAP, id1, id2);
+	}
+	
+	public void eventNewPID(int newPID) {
+		record(GameConnection.PACKET_NEWPID, newPID);
+	}
+	
+	public void eventResized(int newSize) {
+		record(GameConnection.PACKET_RESIZED, newSize);
+	}
+}
@@ -0,0 +1,21 @@
+package com.perennate.games.levelup;
+
+import com.perennate.games.levelup.engine.GameEvent;
+
+//tells a newly seated player their session, once the packets before it
+// have been recorded
+class SessionEvent extends GameEvent {
+	GameHost host;
+	GameConnection connection;
+	int pid;
+	
+	public SessionEvent(GameHost host, GameConnection connection, int pid) {
+		this.host = host;
+		this.connection = connection;
+		this.pid = pid;
+	}
+	
+	public void dispatch() {
+		connection.sendSession(connection.token, host.log.getCount(pid));
+	}
+}
@@ -0,0 +1,15 @@
+package com.perennate.games.levelup;
+
+import java.util.List;
+
+//events for every spectator, or the catch-up for one new spectator; a
+// batch without events stops the fan-out thread
+class SpectatorBatch {
+	GameConnection spectator;
+	List<SpectatorEvent> events;
+	
+	public SpectatorBatch(GameConnection spectator, List<SpectatorEvent> events) {
+		this.spectator = spectator;
+		this.events = events;
+	}
+}
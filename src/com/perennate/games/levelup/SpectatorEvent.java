@@ -0,0 +1,15 @@
+package com.perennate.games.levelup;
+
+//a packet to be encoded for each version that needs it, and the kind of
+// frame it is queued as
+class SpectatorEvent {
+	int kind;
+	int identifier;
+	Object[] fields;
+	
+	public SpectatorEvent(int kind, int identifier, Object... fields) {
+		this.kind = kind;
+		this.identifier = identifier;
+		this.fields = fields;
+	}
+}
@@ -0,0 +1,312 @@
+package com.perennate.games.levelup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.perennate.games.levelup.engine.Card;
+import com.perennate.games.levelup.engine.Game;
+import com.perennate.games.levelup.engine.GamePlayerListener;
+
+//sends the public events of one table to its spectators
+//spectators aren't listeners themselves: this is the only listener for all
+// of them, and since getPlayer is -1 the game never gives it a hand
+//events are recorded as the table dispatches them and handed over at the
+// table's flush point; the fan-out thread then encodes them once for
+// each protocol version in use and queues the same frames on every
+// spectator, so thousands of spectators cost the game thread nothing
+public class SpectatorFanout implements GamePlayerListener, Runnable {
+	public static int DEFAULT_LIMIT = 10000;
+	
+	GameHost host;
+	
+	//spectators per table, from max_spectators
+	int limit;
+	
+	//added on the fan-out thread and removed when a spectator terminates
+	//changes and size checks are made while synchronized on the set, so a
+	// spectator that terminates before its catch-up is never added back
+	Set<GameConnection> spectators;
+	
+	//events of the current change to the game; guarded by this
+	List<SpectatorEvent> pending;
+	
+	//set once the first spectator joins; until then nothing is recorded
+	volatile boolean active;
+	
+	LinkedBlockingQueue<SpectatorBatch> batches;
+	Thread thread;
+	
+	public SpectatorFanout(GameHost host) {
+		this.host = host;
+		limit = Config.getInt("max_spectators", DEFAULT_LIMIT);
+		
+		spectators = ConcurrentHashMap.newKeySet();
+		pending = new ArrayList<SpectatorEvent>();
+		batches = new LinkedBlockingQueue<SpectatorBatch>();
+	}
+	
+	//called with the table's game lock held
+	//catchUp is sent to the new spectator before any event after it
+	public void addSpectator(GameConnection connection, List<SpectatorEvent> catchUp) {
+		if(!active) {
+			active = true;
+			thread = Threads.start(this, "SpectatorFanout " + host.id);
+		}
+		
+		submit(connection, catchUp);
+	}
+	
+	//hands events over, or the catch-up of a new spectator
+	//with the game lock held, the table's events so far haven't been
+	// dispatched yet, so this waits its turn behind them
+	void submit(GameConnection spectator, List<SpectatorEvent> events) {
+		if(host.gameLock.isHeldByCurrentThread()) {
+			host.game.post(new FanoutEvent(this, spectator, events));
+		} else if(spectator != null) {
+			//events recorded so far are already part of the catch-up
+			flush();
+			batches.add(new SpectatorBatch(spectator, events));
+		} else {
+			synchronized(this) {
+				pending.addAll(events);
+			}
+			
+			//GameHost flushes once the change is over
+			if(!host.game.isDispatching()) {
+				flush();
+			}
+		}
+	}
+	
+	//called once the connection is terminated
+	public void removeSpectator(GameConnection connection) {
+		synchronized(spectators) {
+			spectators.remove(connection);
+		}
+	}
+	
+	public int getNumSpectators() {
+		synchronized(spectators) {
+			return spectators.size();
+		}
+	}
+	
+	public boolean isFull() {
+		synchronized(spectators) {
+			return spectators.size() >= limit;
+		}
+	}
+	
+	//records an event for every spectator
+	void record(int kind, int identifier, Object... fields) {
+		if(!active) return;
+		
+		List<SpectatorEvent> events = new ArrayList<SpectatorEvent>(1);
+		events.add(new SpectatorEvent(kind, identifier, PacketEncoder.copyFields(fields)));
+		submit(null, events);
+	}
+	
+	//the table's flush point: hands what was recorded to the fan-out thread
+	public void flush() {
+		synchronized(this) {
+			if(pending.isEmpty()) return;
+			
+			batches.add(new SpectatorBatch(null, pending));
+			pending = new ArrayList<SpectatorEvent>();
+		}
+	}
+	
+	//called when the table closes; spectators are disconnected once they
+	// have everything
+	public void close() {
+		if(active) {
+			flush();
+			batches.add(new SpectatorBatch(null, null));
+		}
+	}
+	
+	public void run() {
+		while(true) {
+			SpectatorBatch batch;
+			
+			try {
+				batch = batches.take();
+			} catch(InterruptedException e) {
+				continue;
+			}
+			
+			if(batch.events == null) {
+				break;
+			} else if(batch.spectator != null) {
+				GameConnection spectator = batch.spectator;
+				
+				synchronized(spectators) {
+					//removeSpectator may already have run for it
+					if(spectator.terminated) continue;
+					spectators.add(spectator);
+				}
+				
+				spectator.sendFrames(encode(batch.events, spectator.version));
+			} else {
+				//each version is encoded the first time a spectator needs it
+				List<List<OutboundFrame>> frames = new ArrayList<List<OutboundFrame>>(LevelUp.LEVELUP_VERSION + 1);
+				
+				for(int version = 0; version <= LevelUp.LEVELUP_VERSION; version++) {
+					frames.add(null);
+				}
+				
+				for(GameConnection spectator : spectators) {
+					int version = spectator.version;
+					
+					if(frames.get(version) == null) {
+						frames.set(version, encode(batch.events, version));
+					}
+					
+					spectator.sendFrames(frames.get(version));
+				}
+			}
+		}
+		
+		for(GameConnection spectator : spectators) {
+			spectator.close();
+		}
+		
+		spectators.clear();
+	}
+	
+	static List<OutboundFrame> encode(List<SpectatorEvent> events, int version) {
+		List<OutboundFrame> frames = new ArrayList<OutboundFrame>(events.size());
+		
+		for(SpectatorEvent event : events) {
+			try {
+				if(event.identifier == GameConnection.PACKET_SYNC) {
+					frames.add(new OutboundFrame(PacketEncoder.encodeSync(version, (byte[]) event.fields[0]), event.kind));
+					continue;
+				}
+				
+				frames.add(new OutboundFrame(PacketEncoder.encode(version, event.identifier, event.fields), event.kind));
+			} catch(IOException ioe) {
+				LevelUp.println("[SpectatorFanout] Failed to encode packet " + event.identifier + ": " + ioe.getLocalizedMessage());
+			}
+		}
+		
+		return frames;
+	}
+	
+	//what a new spectator needs to follow the table from here on: the
+	// seats, and the public part of the game as a sync
+	//called with the table's game lock held
+	public static List<SpectatorEvent> getCatchUp(GameHost host) {
+		List<SpectatorEvent> events = new ArrayList<SpectatorEvent>();
+		events.add(new SpectatorEvent(OutboundQueue.FRAME_ESSENTIAL, GameConnection.PACKET_SPECTATE, host.id));
+		events.add(new SpectatorEvent(OutboundQueue.FRAME_ESSENTIAL, GameConnection.PACKET_RESIZED, host.slots.length));
+		
+		for(int i = 0; i < host.slots.length; i++) {
+			if(host.slots[i].name != null) {
+				events.add(new SpectatorEvent(OutboundQueue.FRAME_ESSENTIAL, GameConnection.PACKET_JOINOTHER, i, host.slots[i].name));
+			}
+		}
+		
+		if(host.gameLoaded) {
+			events.add(new SpectatorEvent(OutboundQueue.FRAME_ESSENTIAL, GameConnection.PACKET_GAMELOADED));
+			addSync(events, host.game);
+		}
+		
+		return events;
+	}
+	
+	//the game without hands, deck or bottom
+	//a sync event carries all of the game data, and is encoded as one frame
+	// (see PacketEncoder.encodeSync)
+	static void addSync(List<SpectatorEvent> events, Game game) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		
+		if(!Game.writeGame(game, out, false, false)) {
+			LevelUp.println("[SpectatorFanout] Failed to buffer game data for spectators");
+			return;
+		}
+		
+		events.add(new SpectatorEvent(OutboundQueue.FRAME_ESSENTIAL, GameConnection.PACKET_SYNC, out.toByteArray()));
+	}
+	
+	//called with the table's game lock held, after a saved game is loaded
+	public void sync() {
+		if(!active) return;
+		
+		List<SpectatorEvent> events = new ArrayList<SpectatorEvent>();
+		addSync(events, host.game);
+		submit(null, events);
+	}
+	
+	public void sendGameLoaded() {
+		record(OutboundQueue.FRAME_ESSENTIAL, GameConnection.PACKET_GAMELOADED);
+	}
+	
+	public void sendChat(String name, String message) {
+		record(OutboundQueue.FRAME_DROPPABLE, GameConnection.PACKET_CHAT, name, message);
+	}
+	
+	public int getPlayer() {
+		return -1;
+	}
+	
+	public void eventPlayerJoined(int pid, String name) {
+		record(OutboundQueue.FRAME_ESSENTIAL, GameConnection.PACKET_JOINOTHER, pid, name);
+	}
+	
+	public void eventPlayerLeft(int pid) {
+		record(OutboundQueue.FRAME_ESSENTIAL, GameConnection.PACKET_LEAVEOTHER, pid);
+	}
+	
+	public void eventGameStateChange(int newState) {
+		record(OutboundQueue.FRAME_ESSENTIAL, GameConnection.PACKET_GAMESTATECHANGE, newState);
+	}
+	
+	public void eventDeclare(int pid, int suit, int amount) {
+		record(OutboundQueue.FRAME_ESSENTIAL, GameConnection.PACKET_DECLARE, pid, suit, amount);
+	}
+	
+	public void eventWithdrawDeclaration(int pid) {
+		record(OutboundQueue.FRAME_ESSENTIAL, GameConnection.PACKET_WITHDRAWDECLARATION, pid);
+	}
+	
+	public void eventDefendDeclaration(int pid, int amount) {
+		record(OutboundQueue.FRAME_ESSENTIAL, GameConnection.PACKET_DEFENDDECLARATION, pid, amount);
+	}
+	
+	public void eventPlayCards(int pid, List<Card> cards, List<Integer> amounts) {
+		record(OutboundQueue.FRAME_ESSENTIAL, GameConnection.PACKET_PLAYCARDS, pid, cards, amounts);
+	}
+	
+	//hands are never sent to spectators
+	public void eventDealtCard(Card card) {}
+	
+	public void eventUpdateBetCounter(int newCounter) {
+		record(OutboundQueue.FRAME_BETCOUNTER, GameConnection.PACKET_UPDATEBETCOUNTER, newCounter);
+	}
+	
+	public void eventBottom(List<Card> cards) {
+		record(OutboundQueue.FRAME_ESSENTIAL, GameConnection.PACKET_BOTTOM, cards);
+	}
+	
+	public void eventSelectBottom(List<Card> cards) {}
+	
+	public void eventUpdateRoundOverCounter(int newCounter) {
+		record(OutboundQueue.FRAME_ROUNDOVERCOUNTER, GameConnection.PACKET_UPDATEROUNDOVERCOUNTER, newCounter);
+	}
+	
+	public void eventPlayerSwapped(int id1, int id2) {
+		record(OutboundQueue.FRAME_ESSENTIAL, GameConnection.PACKET_SWAP, id1, id2);
+	}
+	
+	public void eventNewPID(int newPID) {}
+	
+	public void eventResized(int newSize) {
+		record(OutboundQueue.FRAME_ESSENTIAL, GameConnection.PACKET_RESIZED, newSize);
+	}
+}
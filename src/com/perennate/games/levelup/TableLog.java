@@ -0,0 +1,130 @@
+package com.perennate.games.levelup;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.perennate.games.levelup.engine.Game;
+
+//the recent packets of a table, so that a player whose connection drops can
+// resume their seat and get only what they missed
+//a seat's packets include its own hand, so every seat keeps its own ring
+// of the last resume_log_size packets, recorded by a listener that the game
+// treats like the player sitting there
+//packets are counted per seat from the start of the table; a client counts
+// the same packets as it gets them (GameClient.isTableEvent), and asks for
+// everything after its count when it resumes
+//counter updates may be coalesced on the way to a slow client, so they
+// aren't counted: a resume ends with the latest value of each counter
+//everything here happens while the table's events are dispatched, which
+// is one thread at a time
+public class TableLog {
+	public static int DEFAULT_SIZE = 1024;
+	
+	GameHost host;
+	int size;
+	
+	//by pid; a resize only ever adds seats
+	List<SeatLog> seats;
+	
+	//latest counter values
+	int betCounter;
+	int roundOverCounter;
+	
+	public TableLog(GameHost host, int numSeats) {
+		this.host = host;
+		size = Math.max(1, Config.getInt("resume_log_size", DEFAULT_SIZE));
+		seats = new ArrayList<SeatLog>();
+		resized(numSeats);
+	}
+	
+	//called with the table's game lock held
+	public void resized(int numSeats) {
+		while(seats.size() < numSeats) {
+			SeatLog seat = new SeatLog(this, seats.size(), size);
+			seats.add(seat);
+			host.game.addListener(seat);
+		}
+	}
+	
+	//called with the table's game lock held, for packets that the table
+	// sends every player itself instead of through the game
+	public void recordAll(int identifier, Object... fields) {
+		host.game.post(new LogEvent(this, identifier, fields));
+	}
+	
+	//called with the table's game lock held, when the game changes in a way
+	// that the packets can't follow, like loading a saved game
+	//a player that resumes from before this gets a snapshot
+	public void reset() {
+		host.game.post(new LogEvent(this, -1, null));
+	}
+	
+	//the number of packets that the seat has had so far
+	public int getCount(int pid) {
+		return seats.get(pid).count;
+	}
+	
+	//called with the table's game lock held, before building a snapshot
+	// for a resume, which is most of its cost
+	//whether the seat still has the packets after the first count, and
+	// the client isn't ahead of the seat; events that are still being
+	// dispatched may record more, so getMissed has the last word
+	public boolean canResume(int pid, int count) {
+		SeatLog seat = seats.get(pid);
+		return count >= seat.base && count >= seat.count - size && count <= seat.count;
+	}
+	
+	//the packets that the seat had after the first count, followed by the
+	// counters; null if they are no longer kept
+	public List<SpectatorEvent> getMissed(int pid, int count) {
+		SeatLog seat = seats.get(pid);
+		
+		if(count < seat.base || count < seat.count - size || count > seat.count) {
+			return null;
+		}
+		
+		List<SpectatorEvent> events = new ArrayList<SpectatorEvent>(seat.count - count + 2);
+		
+		for(int i = count; i < seat.count; i++) {
+			events.add(seat.ring[i % size]);
+		}
+		
+		addCounters(events);
+		return events;
+	}
+	
+	void addCounters(List<SpectatorEvent> events) {
+		events.add(new SpectatorEvent(OutboundQueue.FRAME_BETCOUNTER, GameConnection.PACKET_UPDATEBETCOUNTER, betCounter));
+		events.add(new SpectatorEvent(OutboundQueue.FRAME_ROUNDOVERCOUNTER, GameConnection.PACKET_UPDATEROUNDOVERCOUNTER, roundOverCounter));
+	}
+	
+	//what a player needs to pick up the game from scratch: the seats, and
+	// the game as that player may see it, as a sync
+	//called with the table's game lock held; the session packet with the
+	// count to go on from is added once it is sent
+	public static List<SpectatorEvent> getSnapshot(GameHost host, int pid) {
+		List<SpectatorEvent> events = new ArrayList<SpectatorEvent>();
+		events.add(new SpectatorEvent(OutboundQueue.FRAME_ESSENTIAL, GameConnection.PACKET_RESIZED, host.slots.length));
+		
+		for(int i = 0; i < host.slots.length; i++) {
+			if(host.slots[i].name != null) {
+				events.add(new SpectatorEvent(OutboundQueue.FRAME_ESSENTIAL, GameConnection.PACKET_JOINOTHER, i, host.slots[i].name));
+			}
+		}
+		
+		if(host.gameLoaded) {
+			events.add(new SpectatorEvent(OutboundQueue.FRAME_ESSENTIAL, GameConnection.PACKET_GAMELOADED));
+		}
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		
+		if(!Game.writeGameFor(host.game, out, pid)) {
+			LevelUp.println("[TableLog] Failed to buffer game data for player " + pid);
+			return events;
+		}
+		
+		events.add(new SpectatorEvent(OutboundQueue.FRAME_ESSENTIAL, GameConnection.PACKET_SYNC, out.toByteArray()));
+		return events;
+	}
+}
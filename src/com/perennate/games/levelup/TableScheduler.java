@@ -0,0 +1,224 @@
+package com.perennate.games.levelup;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+//runs the game updates of every table from a few worker threads, instead of
+// a thread per table that sleeps between updates
+//tables wait in a queue ordered by the time of their next update; a worker
+// takes the earliest one once it is due, updates it and puts it back with
+// the delay that Game.update returned
+//a player action wakes the table up early, which replaces the old wait on
+// the table's condition: the table gets a new entry that is due now, and
+// the one it had is skipped when it reaches the head of the queue
+public class TableScheduler {
+	static TableScheduler instance;
+	
+	//guards queue and the scheduling fields of every GameHost
+	ReentrantLock lock;
+	Condition changed;
+	PriorityQueue<ScheduledTable> queue;
+	
+	Thread[] workers;
+	
+	TableScheduler(int numWorkers) {
+		lock = new ReentrantLock();
+		changed = lock.newCondition();
+		queue = new PriorityQueue<ScheduledTable>();
+		workers = new Thread[numWorkers];
+		
+		for(int i = 0; i < workers.length; i++) {
+			workers[i] = new Thread(new TableWorker(this), "TableScheduler " + i);
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+	}
+	
+	//returns the scheduler shared by every table
+	//the number of workers is set by scheduler_threads (default: one per
+	// core, up to four); updates are short, so a few are enough for
+	// thousands of tables
+	public static synchronized TableScheduler getInstance() {
+		if(instance == null) {
+			int numWorkers = Config.getInt("scheduler_threads", Math.min(4, Runtime.getRuntime().availableProcessors()));
+			LevelUp.println("[TableScheduler] Updating tables from " + Math.max(1, numWorkers) + " threads");
+			instance = new TableScheduler(Math.max(1, numWorkers));
+		}
+		
+		return instance;
+	}
+	
+	//starts updating the table; the first update is right away
+	public void add(GameHost host) {
+		lock.lock();
+		
+		try {
+			host.scheduled = true;
+			enqueue(host, System.nanoTime());
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	//called by player actions, usually with the table's game lock held
+	//the next update is right away instead of when the last one asked for
+	public void wakeUp(GameHost host) {
+		lock.lock();
+		
+		try {
+			if(!host.scheduled) {
+				return;
+			} else if(host.updating) {
+				//the worker puts it back once the update is over
+				host.woken = true;
+			} else if(host.deadline - System.nanoTime() > 0) {
+				enqueue(host, System.nanoTime());
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	//called with lock held
+	void enqueue(GameHost host, long deadline) {
+		host.deadline = deadline;
+		host.generation++;
+		
+		ScheduledTable entry = new ScheduledTable(host, deadline, host.generation);
+		queue.add(entry);
+		
+		//a worker may be waiting for a later deadline
+		if(queue.peek() == entry) {
+			changed.signal();
+		}
+	}
+	
+	//worker thread only
+	//waits for the next table that is due and marks it as updating
+	GameHost take() throws InterruptedException {
+		lock.lock();
+		
+		try {
+			while(true) {
+				ScheduledTable entry = queue.peek();
+				
+				if(entry == null) {
+					changed.await();
+				} else if(entry.generation != entry.host.generation) {
+					//replaced by an earlier wake-up
+					queue.poll();
+				} else {
+					long delay = entry.deadline - System.nanoTime();
+					
+					if(delay > 0) {
+						changed.awaitNanos(delay);
+					} else {
+						queue.poll();
+						entry.host.updating = true;
+						
+						//another table may be due as well
+						if(!queue.isEmpty()) {
+							changed.signal();
+						}
+						
+						return entry.host;
+					}
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	//worker thread only
+	//puts the table back after an update that asked for the next one in
+	// delayMillis, or drops it if delayMillis is negative
+	void done(GameHost host, int delayMillis) {
+		lock.lock();
+		
+		try {
+			host.updating = false;
+			
+			if(delayMillis < 0) {
+				host.scheduled = false;
+				return;
+			}
+			
+			long now = System.nanoTime();
+			
+			//keep to the pace the game asked for, measured from when the
+			// update was due rather than when it finished; a table that has
+			// fallen behind doesn't try to catch up
+			long deadline = host.deadline + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+			
+			if(host.woken || deadline - now < 0) {
+				deadline = now;
+			}
+			
+			host.woken = false;
+			enqueue(host, deadline);
+		} finally {
+			lock.unlock();
+		}
+	}
+}
+
+class ScheduledTable implements Comparable<ScheduledTable> {
+	GameHost host;
+	long deadline;
+	int generation;
+	
+	public ScheduledTable(GameHost host, long deadline, int generation) {
+		this.host = host;
+		this.deadline = deadline;
+		this.generation = generation;
+	}
+	
+	public int compareTo(ScheduledTable other) {
+		//nanoTime values are only compared by their difference
+		long difference = deadline - other.deadline;
+		
+		if(difference < 0) return -1;
+		else if(difference > 0) return 1;
+		else return 0;
+	}
+}
+
+class TableWorker implements Runnable {
+	TableScheduler scheduler;
+	
+	public TableWorker(TableScheduler scheduler) {
+		this.scheduler = scheduler;
+	}
+	
+	public void run() {
+		while(true) {
+			GameHost host;
+			
+			try {
+				host = scheduler.take();
+			} catch(InterruptedException e) {
+				continue;
+			}
+			
+			int delay = -1;
+			
+			try {
+				delay = host.update();
+			} catch(RuntimeException e) {
+				//one broken table shouldn't stop the others
+				LevelUp.println("[TableScheduler] Error while updating table " + host.id + ": " + e);
+				
+				if(LevelUp.DEBUG) {
+					e.printStackTrace();
+				}
+				
+				host.finish();
+			} finally {
+				scheduler.done(host, delay);
+			}
+		}
+	}
+}
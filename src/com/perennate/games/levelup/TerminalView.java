@@ -8,6 +8,7 @@ import java.util.List;
 
 import com.perennate.games.levelup.engine.Card;
 import com.perennate.games.levelup.engine.Game;
+import com.perennate.games.levelup.engine.GameSnapshot;
 
 public class TerminalView extends View {
 	boolean hasJoined;
@@ -19,14 +20,14 @@ public class TerminalView extends View {
 	}
 	
 	public void eventGameUpdated() {
-		synchronized(game) {
-			if(game.getState() == Game.STATE_PLAYING) {
-				if(pid == game.getNextPlayer()) {
-					LevelUp.println("[View] It is now your turn.");
-					LevelUp.println("[View] Your cards:" + game.getPlayer(pid).getHandString());
-				} else {
-					LevelUp.println("[View] It is Player " + game.getNextPlayer() + "'s turn.");
-				}
+		GameSnapshot snapshot = game.getSnapshot();
+		
+		if(snapshot.getState() == Game.STATE_PLAYING) {
+			if(pid == snapshot.getNextPlayer()) {
+				LevelUp.println("[View] It is now your turn.");
+				LevelUp.println("[View] Your cards:" + snapshot.getPlayer(pid).getHandString());
+			} else {
+				LevelUp.println("[View] It is Player " + snapshot.getNextPlayer() + "'s turn.");
 			}
 		}
 	}
@@ -171,8 +172,14 @@ public class TerminalView extends View {
 							int suit = Card.getSuitInt(parts[1]);
 							int value = Card.getValueInt(parts[2]);
 							int amount = Integer.parseInt(parts[3]);
-							selectedCards.add(new Card(suit, value));
-							selectedAmounts.add(amount);
+							Card card = Card.getCardBySuit(suit, value);
+							
+							if(card != null) {
+								selectedCards.add(card);
+								selectedAmounts.add(amount);
+							} else {
+								System.out.println("that card does not exist");
+							}
 						} else if(parts[0].equals("qselect")) {
 							System.out.println("you have selected:");
 							for(int i = 0; i < selectedCards.size(); i++) {
@@ -0,0 +1,62 @@
+package com.perennate.games.levelup;
+
+import java.lang.reflect.Method;
+
+//starts the long-running threads: GameHost, GameConnection (with the thread
+// transport) and the GameClient reader
+//with virtual_threads set, these are virtual threads, which need Java 21;
+// they are looked up by reflection so that we still build and run on older
+// versions, where we fall back to platform threads
+//code that runs on these threads uses ReentrantLock rather than
+// synchronized around socket writes, since a virtual thread that blocks
+// inside a monitor pins its carrier thread
+public class Threads {
+	static boolean initialized = false;
+	static boolean virtual;
+	
+	//Thread.ofVirtual, Thread.Builder.name and Thread.Builder.start
+	static Method ofVirtualMethod;
+	static Method nameMethod;
+	static Method startMethod;
+	
+	static synchronized void init() {
+		if(initialized) return;
+		initialized = true;
+		
+		virtual = Config.getBoolean("virtual_threads", false);
+		
+		if(virtual) {
+			try {
+				Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+				ofVirtualMethod = Thread.class.getMethod("ofVirtual");
+				nameMethod = builderClass.getMethod("name", String.class);
+				startMethod = builderClass.getMethod("start", Runnable.class);
+				LevelUp.println("[Threads] Using virtual threads");
+			} catch(Exception e) {
+				LevelUp.println("[Threads] Virtual threads are not available in this Java version; using platform threads");
+				virtual = false;
+			}
+		}
+	}
+	
+	public static boolean isVirtual() {
+		init();
+		return virtual;
+	}
+	
+	public static Thread start(Runnable task, String name) {
+		if(isVirtual()) {
+			try {
+				Object builder = ofVirtualMethod.invoke(null);
+				builder = nameMethod.invoke(builder, name);
+				return (Thread) startMethod.invoke(builder, task);
+			} catch(Exception e) {
+				LevelUp.println("[Threads] Failed to start virtual thread: " + e + "; using a platform thread");
+			}
+		}
+		
+		Thread thread = new Thread(task, name);
+		thread.start();
+		return thread;
+	}
+}
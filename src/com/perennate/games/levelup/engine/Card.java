@@ -3,6 +3,7 @@ package com.perennate.games.levelup.engine;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 
 public class Card {
 	public static int SUIT_NONE = -2;
@@ -12,31 +13,33 @@ public class Card {
 	public static int SUIT_HEARTS = 2;
 	public static int SUIT_SPADES = 3;
 	
-	public static int nextCardUID = 0;
+	//number of distinct cards in a deck, so ids are 0 to NUM_IDS - 1
+	public static int NUM_IDS = 54;
 	
-	int value; //2=two, 13=king, 14=ace; 15=small joker; 16=big joker
-	int suit;
+	//cards are immutable and shared, one instance per card id and deck copy
+	//how a card behaves under the current trump lives in TrumpContext
+	public static int MAX_DECKS = 64;
+	static Card[][] cards;
 	
-	//gameSuit is updated after betting is over
-	//in this case, the trump value and suit are all represented by SUIT_TRUMP
-	int gameSuit;
+	static {
+		cards = new Card[MAX_DECKS][NUM_IDS];
+		
+		for(int copy = 0; copy < MAX_DECKS; copy++) {
+			for(int id = 0; id < NUM_IDS; id++) {
+				cards[copy][id] = new Card(id, copy);
+			}
+		}
+	}
 	
-	//gameValue is similar...
-	int gameValue;
+	final int value; //2=two, 13=king, 14=ace; 15=small joker; 16=big joker
+	final int suit;
+	final int id;
 	
 	//this is just for keeping track of a specific card
-	int uid;
+	//it's unique among the cards of a multi-deck game
+	final int uid;
 	
-	public Card(int suit, int value) {
-		this.value = value;
-		this.suit = suit;
-		gameSuit = suit;
-		
-		uid = nextCardUID++;
-	}
-	
-	//create card based on a unique ID
-	public Card(int id) {
+	Card(int id, int copy) {
 		if(id == 52 || id == 53) {
 			value = id - 37;
 			suit = SUIT_TRUMP;
@@ -45,9 +48,30 @@ public class Card {
 			suit = id / 13;
 		}
 		
-		gameSuit = suit;
+		this.id = id;
+		uid = copy * NUM_IDS + id;
+	}
+	
+	//returns the shared card with the given id and deck copy,
+	// or null if there is no such card
+	public static Card getCard(int id, int copy) {
+		if(id < 0 || id >= NUM_IDS || copy < 0 || copy >= MAX_DECKS) return null;
+		else return cards[copy][id];
+	}
+	
+	public static Card getCard(int id) {
+		return getCard(id, 0);
+	}
+	
+	//returns null if the suit and value combination is not a real card
+	public static Card getCardBySuit(int suit, int value) {
+		if(value == 15 || value == 16) {
+			if(suit == SUIT_TRUMP) return cards[0][value + 37];
+		} else if(suit >= SUIT_CLUBS && suit <= SUIT_SPADES && value >= 2 && value <= 14) {
+			return cards[0][suit * 13 + value - 2];
+		}
 		
-		uid = nextCardUID++;
+		return null;
 	}
 	
 	public boolean isTrump(int trumpSuit, int trumpValue) {
@@ -91,42 +115,54 @@ public class Card {
 		} else return false;
 	}
 	
-	public void calculateGameSuit(int trumpSuit, int trumpValue) {
-		if(suit == trumpSuit || suit == SUIT_TRUMP || value == trumpValue) {
-			gameSuit = Card.SUIT_TRUMP;
-			gameValue = getTrumpWeight(trumpSuit, trumpValue);
-		} else {
-			gameSuit = suit;
-			gameValue =  value;
-		}
+	public int hashCode() {
+		return id;
 	}
 	
 	public int getId() {
-		if(value == 15 || value == 16) {
-			return value + 37;
-		} else {
-			return suit * 13 + value - 2;
-		}
+		return id;
 	}
 	
 	public int getUID() {
 		return uid;
 	}
 	
+	//which deck this card came from, in multi-deck games
+	public int getCopy() {
+		return uid / NUM_IDS;
+	}
+	
 	public String toString() {
 		return getValueString(value) + getSuitString(suit);
 	}
 	
 	public static List<Card> getCards(int numDecks) {
-		List<Card> deck = new ArrayList<Card>();
+		List<Card> deck = getOrderedCards(numDecks);
+		Collections.shuffle(deck);
+		return deck;
+	}
+	
+	//shuffles with the given random instead of the shared one,
+	// so that games can be seeded and shuffled in parallel
+	public static List<Card> getCards(int numDecks, Random random) {
+		List<Card> deck = getOrderedCards(numDecks);
+		Collections.shuffle(deck, random);
+		return deck;
+	}
+	
+	static List<Card> getOrderedCards(int numDecks) {
+		if(numDecks > MAX_DECKS) {
+			throw new IllegalArgumentException("at most " + MAX_DECKS + " decks are supported");
+		}
+		
+		List<Card> deck = new ArrayList<Card>(numDecks * NUM_IDS);
 		
 		for(int k = 0; k < numDecks; k++) {
-			for(int i = 0; i < 54; i++) {
-				deck.add(new Card(i));
+			for(int i = 0; i < NUM_IDS; i++) {
+				deck.add(cards[k][i]);
 			}
 		}
 		
-		Collections.shuffle(deck);
 		return deck;
 	}
 	
@@ -140,24 +176,6 @@ public class Card {
 		return num;
 	}
 	
-	public static void calculateGameSuit(int trumpSuit, int trumpValue, List<Card> array) {
-		for(Card card : array) {
-			card.calculateGameSuit(trumpSuit, trumpValue);
-		}
-	}
-	
-	//this uses game suit so that trump are considered one suit
-	//game suit is set by player once the game starts
-	public static int countSuit(int suit, List<Card> array) {
-		int num = 0;
-		
-		for(Card x : array) {
-			if(x.gameSuit == suit) num++;
-		}
-		
-		return num;
-	}
-	
 	public static String getValueString(int value) {
 		String valStr;
 		
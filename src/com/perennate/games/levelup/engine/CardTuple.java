@@ -49,7 +49,8 @@ public class CardTuple {
 	
 	//creates a trick, which is just a list of card tuples
 	//this trick must be in order by the value of the cards
-	public static List<CardTuple> createTrick(List<Card> cards, List<Integer> amounts) {
+	//the context is the trump of the round the trick is played in
+	public static List<CardTuple> createTrick(List<Card> cards, List<Integer> amounts, TrumpContext context) {
 		if(cards.size() != amounts.size()) return null;
 		
 		List<CardTuple> trick = new ArrayList<CardTuple>();
@@ -67,7 +68,7 @@ public class CardTuple {
 		}
 		
 		//sort the trick by suit, then value within suit
-		Collections.sort(trick, new GameCardTupleComparator());
+		Collections.sort(trick, new GameCardTupleComparator(context));
 		
 		return trick;
 	}
@@ -114,8 +115,13 @@ public class CardTuple {
 		List<CardTuple> trick = new ArrayList<CardTuple>(size);
 		
 		for(int i = 0; i < size; i++) {
-			CardTuple tuple = new CardTuple(new Card(in.read()), in.read());
-			trick.add(tuple);
+			Card card = Card.getCard(in.read());
+			
+			if(card == null) {
+				throw new IOException("invalid card in trick");
+			}
+			
+			trick.add(new CardTuple(card, in.read()));
 		}
 		
 		return trick;
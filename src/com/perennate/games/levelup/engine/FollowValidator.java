@@ -0,0 +1,333 @@
+package com.perennate.games.levelup.engine;
+
+import java.util.List;
+
+//checks whether a play that follows the opening play of a trick is legal
+//this is called for every play (and by bots for every candidate play), so
+// it works on card ids and amounts in arrays that are reused between calls
+// instead of building lists of cards and tuples
+public class FollowValidator {
+	public static int VALID = 0;
+	public static int NOT_IN_HAND = 1;
+	public static int WRONG_SIZE = 2;
+	public static int NOT_FOLLOWING_SUIT = 3;
+	public static int AVOIDS_COMBINATION = 4;
+	public static int NO_REPLACEMENT = 5;
+	public static int NOT_FOLLOWING_TUPLES = 6;
+	
+	Game game;
+	
+	//the play being validated
+	int[] playIds;
+	int[] playAmounts;
+	
+	//amounts in the opening play, which are all the same
+	int[] openingAmounts;
+	int numOpening;
+	
+	//tuples (two or more of a card) in the player's hand in the trick suit,
+	// in hand order; tupleAlive is cleared once a tuple has been used up
+	int[] tupleIds;
+	int[] tupleAmounts;
+	int[] tupleValues;
+	boolean[] tupleAlive;
+	int numTuples;
+	int numAliveTuples;
+	
+	//tuples that the player played, as an index into the hand tuples
+	// and the number of cards of it played that haven't been matched yet
+	int[] playedTuples;
+	int[] playedAmounts;
+	int numPlayed;
+	
+	//details of the last NOT_FOLLOWING_SUIT result
+	int suitCards;
+	int suitTotal;
+	
+	public FollowValidator(Game game) {
+		this.game = game;
+		
+		playIds = new int[Card.NUM_IDS];
+		playAmounts = new int[Card.NUM_IDS];
+		openingAmounts = new int[Card.NUM_IDS];
+		tupleIds = new int[Card.NUM_IDS];
+		tupleAmounts = new int[Card.NUM_IDS];
+		tupleValues = new int[Card.NUM_IDS];
+		tupleAlive = new boolean[Card.NUM_IDS];
+		playedTuples = new int[Card.NUM_IDS];
+		playedAmounts = new int[Card.NUM_IDS];
+	}
+	
+	public int validate(Player player, List<CardTuple> trick) {
+		int n = trick.size();
+		ensureCapacity(n);
+		
+		for(int i = 0; i < n; i++) {
+			CardTuple tuple = trick.get(i);
+			playIds[i] = tuple.card.id;
+			playAmounts[i] = tuple.amount;
+		}
+		
+		return validate(player, playIds, playAmounts, n);
+	}
+	
+	//ids and amounts are the first n entries of the arrays, like the cards
+	// and amounts of a trick; a card may appear more than once
+	//amounts must be positive
+	public int validate(Player player, int[] ids, int[] amounts, int n) {
+		TrumpContext context = game.trumpContext;
+		
+		//find the suit and amount of opening play
+		int trickSuit = context.gameSuit[game.openingPlay.get(0).card.id];
+		int trickAmount = game.openingPlay.get(0).amount;
+		int trickCards = game.trickCards;
+		
+		//make sure player has the cards
+		for(int i = 0; i < n; i++) {
+			if(player.cardCounts[ids[i]] < amounts[i]) {
+				return NOT_IN_HAND;
+			}
+		}
+		
+		//match previous play
+		//same number of cards
+		int totalCards = 0;
+		int totalSuitCards = 0;
+		
+		for(int i = 0; i < n; i++) {
+			totalCards += amounts[i];
+			
+			if(context.gameSuit[ids[i]] == trickSuit) {
+				totalSuitCards += amounts[i];
+			}
+		}
+		
+		if(totalCards != trickCards) {
+			return WRONG_SIZE;
+		}
+		
+		//match suit if possible
+		//if total cards in suit that player played is not
+		// equal to the total cards in suit or the total trick
+		// cards, then this in an invalid play
+		int totalInSuit = player.countSuit(trickSuit);
+		
+		if(totalSuitCards != totalInSuit && totalSuitCards != trickCards) {
+			suitCards = totalSuitCards;
+			suitTotal = totalInSuit;
+			return NOT_FOLLOWING_SUIT;
+		}
+		
+		//follow doubles and triples if possible
+		// this only applies if the player has not exhausted the suit
+		//past this point every played card is in the trick suit
+		if(trickAmount <= 1 || totalSuitCards != trickCards) {
+			return VALID;
+		}
+		
+		loadOpeningAmounts();
+		loadTuples(player, trickSuit);
+		
+		//first make sure player isn't avoiding playing the entire combination
+		//do this first by comparing play to the opening amounts
+		// and then by searching player's hand for the combination
+		if(searchCombination()) {
+			if(n != numOpening) {
+				return AVOIDS_COMBINATION;
+			}
+			
+			for(int i = 0; i < n; i++) {
+				if(amounts[i] != openingAmounts[i]) {
+					return AVOIDS_COMBINATION;
+				}
+			}
+			
+			return VALID;
+		}
+		
+		//if not combination, make sure player plays as many individual parts as possible
+		//for example, on a triple, the player must play a double if the player has one
+		
+		//find the hand tuples that the player has played
+		// because player doesn't have to play entire tuple, we must
+		// also keep track of the number of cards within the tuple played
+		numPlayed = 0;
+		
+		for(int i = 0; i < n; i++) {
+			if(amounts[i] >= 2) {
+				//the player has at least this many of the card, so it's a hand tuple
+				for(int t = 0; t < numTuples; t++) {
+					if(tupleIds[t] == ids[i]) {
+						playedTuples[numPlayed] = t;
+						playedAmounts[numPlayed] = amounts[i];
+						numPlayed++;
+						break;
+					}
+				}
+			}
+		}
+		
+		//now loop through each amount (which should all be the same)
+		// and make sure player didn't avoid something needed to play
+		for(int i = 0; i < numOpening; i++) {
+			int currAmount = openingAmounts[i];
+			
+			//see if player has exact number
+			boolean hasExact = false;
+			
+			for(int t = 0; t < numTuples; t++) {
+				if(tupleAlive[t] && tupleAmounts[t] == currAmount) {
+					hasExact = true;
+					break;
+				}
+			}
+			
+			if(hasExact) {
+				//player does have the exact number of cards
+				// now just make sure they played it or an appropriate replacement
+				boolean foundReplacement = false;
+				
+				for(int j = 0; j < numPlayed; j++) {
+					if(playedAmounts[j] >= currAmount) {
+						usePlayed(j, currAmount);
+						foundReplacement = true;
+						break;
+					}
+				}
+				
+				if(!foundReplacement) {
+					return NO_REPLACEMENT;
+				}
+			} else {
+				//player doesn't have exact number
+				// then just make sure that player has played any lower-order tuples
+				int remaining = currAmount;
+				
+				while(remaining >= 2) {
+					if(numPlayed > 0) {
+						//calculate the amount played for this round
+						int amount = Math.min(playedAmounts[0], remaining);
+						remaining -= amount;
+						usePlayed(0, amount);
+					} else if(numAliveTuples > 0) {
+						//player has tuples remaining but didn't play them
+						return NOT_FOLLOWING_TUPLES;
+					} else {
+						//no more tuples, so we're done here
+						break;
+					}
+				}
+			}
+		}
+		
+		return VALID;
+	}
+	
+	public String getMessage(int result) {
+		if(result == VALID) return "Played cards are valid.";
+		else if(result == NOT_IN_HAND) return "Played cards are not in player's hand.";
+		else if(result == WRONG_SIZE) return "Number of played cards does not equal opening trick size.";
+		else if(result == NOT_FOLLOWING_SUIT) return "Played cards do not follow suit (" + suitCards + "/" + suitTotal + ").";
+		else if(result == AVOIDS_COMBINATION) return "Played cards avoids playing combination.";
+		else if(result == NO_REPLACEMENT) return "Player did not play replacement for the cards appropriately.";
+		else if(result == NOT_FOLLOWING_TUPLES) return "Played cards do not follow tuples.";
+		else return "Unknown validation result " + result + ".";
+	}
+	
+	void ensureCapacity(int n) {
+		if(n > playIds.length) {
+			playIds = new int[n];
+			playAmounts = new int[n];
+			playedTuples = new int[n];
+			playedAmounts = new int[n];
+		}
+	}
+	
+	void loadOpeningAmounts() {
+		List<CardTuple> openingPlay = game.openingPlay;
+		numOpening = openingPlay.size();
+		
+		if(numOpening > openingAmounts.length) {
+			openingAmounts = new int[numOpening];
+		}
+		
+		for(int i = 0; i < numOpening; i++) {
+			openingAmounts[i] = openingPlay.get(i).amount;
+		}
+	}
+	
+	//same as Player.getTuples, but into the tuple arrays
+	void loadTuples(Player player, int suit) {
+		TrumpContext context = game.trumpContext;
+		numTuples = 0;
+		
+		int start = player.suitStart(suit);
+		int end = start + player.countSuit(suit);
+		
+		for(int i = start; i < end; ) {
+			int id = player.hand.get(i).id;
+			int count = player.cardCounts[id];
+			
+			if(count >= 2) {
+				tupleIds[numTuples] = id;
+				tupleAmounts[numTuples] = count;
+				tupleValues[numTuples] = context.gameValue[id];
+				tupleAlive[numTuples] = true;
+				numTuples++;
+			}
+			
+			//all copies of a card are next to each other in the hand
+			i += count;
+		}
+		
+		numAliveTuples = numTuples;
+	}
+	
+	//same as Player.searchTrick on the loaded tuples and opening amounts
+	boolean searchCombination() {
+		//a single tuple is handled by the replacement rules instead
+		if(numOpening < 2) return false;
+		
+		int lastValue = -1;
+		int trickIndex = 0;
+		
+		for(int t = 0; t < numTuples; t++) {
+			if(tupleAmounts[t] > openingAmounts[trickIndex]) {
+				if(lastValue != -1 && tupleValues[t] == lastValue + 1) {
+					lastValue++;
+					trickIndex++;
+					
+					if(trickIndex >= numOpening) {
+						return true;
+					}
+				} else {
+					lastValue = tupleValues[t];
+					trickIndex = 1;
+				}
+			}
+		}
+		
+		return false;
+	}
+	
+	//matches amount cards of the j-th played tuple against the opening play,
+	// taking them out of both the played tuple and the hand tuple
+	void usePlayed(int j, int amount) {
+		int t = playedTuples[j];
+		tupleAmounts[t] -= amount;
+		playedAmounts[j] -= amount;
+		
+		//remove from hand tuples if it's no longer a tuple
+		if(tupleAmounts[t] <= 1 && tupleAlive[t]) {
+			tupleAlive[t] = false;
+			numAliveTuples--;
+		}
+		
+		//remove from played tuples if it's now a single or gone completely
+		if(playedAmounts[j] <= 1) {
+			numPlayed--;
+			System.arraycopy(playedTuples, j + 1, playedTuples, j, numPlayed - j);
+			System.arraycopy(playedAmounts, j + 1, playedAmounts, j, numPlayed - j);
+		}
+	}
+}
@@ -6,12 +6,17 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Random;
 
 import com.perennate.games.levelup.LevelUp;
+import com.perennate.games.levelup.util.SplitMixRandom;
+import com.perennate.games.levelup.util.Util;
 
 public class Game {
 	public static int STATE_INIT = 0;
@@ -22,8 +27,22 @@ public class Game {
 	public static int STATE_ROUNDOVER = 5;
 	public static int STATE_GAMEOVER = 6;
 	
+	public static int SHUFFLE_FAST = 0; //SplitMixRandom, for simulations
+	public static int SHUFFLE_STRONG = 1; //SHA1PRNG, for live games
+	
+	//the format of saved games (and of syncs, which use the same data);
+	// kept apart from LevelUp.LEVELUP_VERSION so that protocol changes
+	// don't change it
+	//version 1: shuffle seed
+	public static int SAVE_VERSION = 1;
+	
 	boolean controller; //whether or not this instance is the server
-	List<GamePlayerListener> listeners;
+	boolean quiet; //if set, don't log anything (for simulations)
+	boolean spectating; //non-controller without a seat, so no hand to go by
+	GameEventBus events;
+	
+	//the state as of the last publishSnapshot, for readers without the lock
+	volatile GameSnapshot snapshot;
 	
 	int numPlayers;
 	int numDecks;
@@ -47,6 +66,10 @@ public class Game {
 	
 	int trumpSuit;
 	
+	//game suit and value lookups for the current trump suit and level
+	//rebuilt whenever either of them changes
+	TrumpContext trumpContext;
+	
 	//playing fields
 	int startingPlayer;
 	int trickCards; //total number of cards in this play
@@ -54,6 +77,11 @@ public class Game {
 	
 	List<CardTuple> openingPlay;
 	List<List<CardTuple>> plays;
+	long playsHash; //Zobrist hash of plays, kept up to date as plays are made
+	
+	//checks plays that follow the opening play
+	FollowValidator followValidator;
+	LegalMoves legalMoves;
 	
 	//store the information from the previous play
 	int storedStartingPlayer;
@@ -62,9 +90,26 @@ public class Game {
 	//roundover fields
 	int roundOverCounter;
 	
+	//result of the last round, as calculated in roundOver
+	int roundAttackingPoints;
+	int roundWinner;
+	
+	//each round's deck is shuffled by a new generator seeded from the game
+	// seed and the round number, so any deal can be reproduced from the
+	// seed (which is logged and saved with the game, but never sent to clients)
+	long seed;
+	int shuffleMode;
+	int roundNumber; //number of rounds dealt so far
+	
 	public Game(int numPlayers, boolean controller) {
+		this(numPlayers, controller, generateSeed(), SHUFFLE_STRONG);
+	}
+	
+	public Game(int numPlayers, boolean controller, long seed, int shuffleMode) {
 		this.numPlayers = numPlayers;
 		this.controller = controller;
+		this.seed = seed;
+		this.shuffleMode = shuffleMode;
 		numDecks = numPlayers / 2;
 		
 		players = new ArrayList<Player>();
@@ -72,18 +117,23 @@ public class Game {
 			players.add(new Player(this));
 		}
 		
-		listeners = new ArrayList<GamePlayerListener>();
+		events = new GameEventBus();
+		followValidator = new FollowValidator(this);
+		legalMoves = new LegalMoves(this);
 		
 		firstRound = true;
 		currentDealer = 0;
 		setState(STATE_INIT);
+		publishSnapshot();
 	}
 	
 	public void init() {
-		deck = Card.getCards(numDecks);
+		roundNumber++;
+		deck = Card.getCards(numDecks, createShuffleRandom(getRoundSeed(roundNumber), shuffleMode));
 		bottom = new ArrayList<Card>();
 		bets = new ArrayList<Bet>();
 		plays = new ArrayList<List<CardTuple>>();
+		playsHash = 0;
 		storedPlays = new ArrayList<List<CardTuple>>();
 		
 		for(Player player : players) {
@@ -95,17 +145,26 @@ public class Game {
 		betCountDown = 0;
 		roundOverCounter = 0;
 		trumpSuit = Card.SUIT_NONE;
+		trumpContext = new TrumpContext(trumpSuit, currentLevel);
 	}
 	
 	public void println(String message) {
-		LevelUp.println("[Game] " + message);
+		if(!quiet) LevelUp.println("[Game] " + message);
 	}
 	
 	public void debug(String message) {
-		LevelUp.debug("[Game] " + message);
+		if(!quiet) LevelUp.debug("[Game] " + message);
 	}
 	
 	public void setState(int newState) {
+		//spectators don't know when the hands run out, so the round is over
+		// when the server says so; the last trick's winner is the starting
+		// player by now
+		if(spectating && state == STATE_PLAYING && (newState == STATE_ROUNDOVER || newState == STATE_GAMEOVER)) {
+			players.get(startingPlayer).points += bottomPoints() * 2;
+			roundOver();
+		}
+		
 		state = newState;
 		
 		if(state == STATE_INIT) {
@@ -115,10 +174,11 @@ public class Game {
 			
 			//set the trump suit
 			trumpSuit = winningBet.suit;
+			trumpContext = new TrumpContext(trumpSuit, currentLevel);
 			
 			//fix the hands of the players to be in correct order with new trumps
 			for(Player player : players) {
-				player.calculateGameSuit(trumpSuit, currentLevel);
+				player.calculateGameSuit(trumpContext);
 			}
 			
 			//set the current dealer for the first round
@@ -144,26 +204,69 @@ public class Game {
 			storedStartingPlayer = startingPlayer;
 		}
 		
-		for(GamePlayerListener listener : listeners) {
-			listener.eventGameStateChange(state);
-		}
+		notifyListeners(-1, ListenerEvent.GAME_STATE_CHANGE, state, 0, 0, null, null);
 	}
 	
 	public void addListener(GamePlayerListener listener) {
-		listeners.add(listener);
+		events.addListener(listener);
 	}
 	
 	public void removeListener(GamePlayerListener listener) {
-		listeners.remove(listener);
+		events.removeListener(listener);
+	}
+	
+	//with deferred events, listeners only hear about a change once
+	// dispatchEvents is called, which should be after the game is unlocked
+	public void setDeferredEvents(boolean deferred) {
+		events.setDeferred(deferred);
+	}
+	
+	public void dispatchEvents() {
+		events.dispatch();
+	}
+	
+	//called by whoever owns the game at the end of each change, while they
+	// still have it locked
+	public void publishSnapshot() {
+		snapshot = new GameSnapshot(this, snapshot);
+	}
+	
+	//the state as of the end of the last change; can be read without a lock
+	public GameSnapshot getSnapshot() {
+		return snapshot;
+	}
+	
+	public boolean isDispatching() {
+		return events.isDispatching();
+	}
+	
+	//posts an event of the owner's own, to be dispatched after the events
+	// of the game so far
+	public void post(GameEvent event) {
+		events.post(event);
+	}
+	
+	//tells the listeners of the player, or all of them if pid is -1
+	//the listeners are picked now, even if the event is deferred
+	void notifyListeners(int pid, int type, int x, int y, int z, Object first, Object second) {
+		GamePlayerListener[] recipients = events.getListeners(pid);
+		
+		if(recipients.length == 0) return;
+		
+		//the game may change its lists before a deferred event goes out
+		if(events.isDeferred()) {
+			if(first instanceof List) first = new ArrayList<Object>((List<?>) first);
+			if(second instanceof List) second = new ArrayList<Object>((List<?>) second);
+		}
+		
+		events.post(new ListenerEvent(recipients, type, x, y, z, first, second));
 	}
 	
 	public boolean playerJoined(int id, String name) {
 		if(id >= 0 && id < players.size() && players.get(id).name == null) {
 			players.get(id).name = name;
 			
-			for(GamePlayerListener listener : listeners) {
-				listener.eventPlayerJoined(id, name);
-			}
+			notifyListeners(-1, ListenerEvent.PLAYER_JOINED, id, 0, 0, name, null);
 			
 			return true;
 		} else {
@@ -175,9 +278,7 @@ public class Game {
 		if(id >= 0 && id < players.size()) {
 			players.get(id).name = null;
 			
-			for(GamePlayerListener listener : listeners) {
-				listener.eventPlayerLeft(id);
-			}
+			notifyListeners(-1, ListenerEvent.PLAYER_LEFT, id, 0, 0, null, null);
 		}
 	}
 	
@@ -187,14 +288,18 @@ public class Game {
 			players.get(id1).name = players.get(id2).name;
 			players.get(id2).name = tmpName;
 			
-			for(GamePlayerListener listener : listeners) {
-				listener.eventPlayerSwapped(id1, id2);
-				
-				if(listener.getPlayer() == id1) {
-					listener.eventNewPID(id2);
-				} else if(listener.getPlayer() == id2) {
-					listener.eventNewPID(id1);
-				}
+			//the listeners of the two players are picked before any of them
+			// hears about the swap
+			GamePlayerListener[] listeners1 = events.getListeners(id1);
+			GamePlayerListener[] listeners2 = events.getListeners(id2);
+			notifyListeners(-1, ListenerEvent.PLAYER_SWAPPED, id1, id2, 0, null, null);
+			
+			if(listeners1.length > 0) {
+				events.post(new ListenerEvent(listeners1, ListenerEvent.NEW_PID, id2, 0, 0, null, null));
+			}
+			
+			if(id1 != id2 && listeners2.length > 0) {
+				events.post(new ListenerEvent(listeners2, ListenerEvent.NEW_PID, id1, 0, 0, null, null));
 			}
 		}
 	}
@@ -223,9 +328,7 @@ public class Game {
 		numDecks = numPlayers / 2;
 		
 		//notify listeners of the resize
-		for(GamePlayerListener listener : listeners) {
-			listener.eventResized(newSize);
-		}
+		notifyListeners(-1, ListenerEvent.RESIZED, newSize, 0, 0, null, null);
 	}
 	
 	//make a card declaration (bet)
@@ -235,8 +338,16 @@ public class Game {
 		
 		println("Player " + player + " is attempting to declare.");
 		
+		//the card that the player is declaring with
+		Card card = Card.getCardBySuit(suit, currentLevel);
+		
+		if(card == null) {
+			debug("Declare failed: there is no such card.");
+			return false;
+		}
+		
 		if((bets.isEmpty() || amount > bets.get(bets.size() - 1).getAmount())
-				&& (!controller || players.get(player).countCards(new Card(suit, currentLevel)) >= amount)) {
+				&& (!controller || players.get(player).countCards(card) >= amount)) {
 			//also make sure that the player has not already made a bet
 			// in this case it is valid if another player has bet in between
 			//and this bet must have a different suit
@@ -272,9 +383,7 @@ public class Game {
 			betCountDown = 0;
 			bets.add(new Bet(player, suit, amount));
 			
-			for(GamePlayerListener listener : listeners) {
-				listener.eventDeclare(player, suit, amount);
-			}
+			notifyListeners(-1, ListenerEvent.DECLARE, player, suit, amount, null, null);
 			
 			return true;
 		} else {
@@ -294,9 +403,7 @@ public class Game {
 				betCountDown = 0;
 				bets.remove(i);
 				
-				for(GamePlayerListener listener : listeners) {
-					listener.eventWithdrawDeclaration(player);
-				}
+				notifyListeners(-1, ListenerEvent.WITHDRAW_DECLARATION, player, 0, 0, null, null);
 				
 				return true;
 			}
@@ -323,8 +430,10 @@ public class Game {
 		
 		//make sure that the current amount is greater or equal to the previous bet
 		// and that the player has enough cards (we can only check the latter if we are controller)
-		if(amount >= bets.get(bets.size() - 1).getAmount() &&
-				(!controller || players.get(player).countCards(new Card(bet.suit, currentLevel)) >= amount)) {
+		Card card = Card.getCardBySuit(bet.suit, currentLevel);
+		
+		if(card != null && amount >= bets.get(bets.size() - 1).getAmount() &&
+				(!controller || players.get(player).countCards(card) >= amount)) {
 			//this is acceptable, delete all bets after the found one
 			betCountDown = 0;
 			bet.amount = amount;
@@ -333,9 +442,7 @@ public class Game {
 				bets.remove(betIndex + 1);
 			}
 			
-			for(GamePlayerListener listener : listeners) {
-				listener.eventDefendDeclaration(player, amount);
-			}
+			notifyListeners(-1, ListenerEvent.DEFEND_DECLARATION, player, amount, 0, null, null);
 			
 			return true;
 		} else {
@@ -348,14 +455,21 @@ public class Game {
 	public boolean playTrick(int player, List<CardTuple> trick) {
 		println("Player " + player + " is attempting to play a trick.");
 		
-		List<Card> cards = CardTuple.extractCards(trick);
-		List<Integer> amounts = CardTuple.extractAmounts(trick);
-		
-		if(cards.isEmpty() || amounts.size() != cards.size()) {
+		if(trick.isEmpty()) {
 			return false;
 		}
 		
+		for(CardTuple tuple : trick) {
+			if(tuple.getAmount() < 1) {
+				println("Played card amounts must be positive.");
+				return false;
+			}
+		}
+		
 		if(player == startingPlayer && player == nextPlayer && plays.size() == 0) {
+			List<Card> cards = CardTuple.extractCards(trick);
+			List<Integer> amounts = CardTuple.extractAmounts(trick);
+			
 			//first, amounts of each card must be equal
 			int amount = amounts.get(0);
 			for(Integer x : amounts) {
@@ -368,10 +482,10 @@ public class Game {
 			//suit must be same
 			//player must also have enough of each card
 			//use game suit so that trump are considered one suit
-			int suit = cards.get(0).gameSuit;
+			int suit = trumpContext.getGameSuit(cards.get(0));
 			
 			for(Card card : cards) {
-				if(card.gameSuit != suit) {
+				if(trumpContext.getGameSuit(card) != suit) {
 					println("Played cards are of different suits.");
 					return false;
 				}
@@ -384,10 +498,10 @@ public class Game {
 			}
 			
 			//if there's multiple cards, they must be consecutive
-			Collections.sort(cards, new CardSuitWeightComparator(trumpSuit, currentLevel)); //sort by value
+			Collections.sort(cards, new CardSuitWeightComparator(trumpContext)); //sort by value
 			
 			for(int i = 0; i < cards.size() - 1; i++) {
-				if(cards.get(i).gameValue != cards.get(i + 1).gameValue - 1) {
+				if(trumpContext.getGameValue(cards.get(i)) != trumpContext.getGameValue(cards.get(i + 1)) - 1) {
 					println("Played cards are not consecutive.");
 					return false;
 				}
@@ -405,9 +519,10 @@ public class Game {
 			players.get(player).removeCards(cards, amounts);
 			
 			//reconstruct trick
-			trick = CardTuple.createTrick(cards, amounts);
+			trick = CardTuple.createTrick(cards, amounts, trumpContext);
 			
 			//add to tricks for this play
+			playsHash ^= Zobrist.playKey(plays.size(), player, trick);
 			plays.add(trick);
 			
 			//we might have stored tricks from the last play,
@@ -419,10 +534,8 @@ public class Game {
 			//update information for this trick
 			trickCards = amount * cards.size();
 			openingPlay = trick;
-
-			for(GamePlayerListener listener : listeners) {
-				listener.eventPlayCards(player, cards, amounts);
-			}
+			
+			notifyListeners(-1, ListenerEvent.PLAY_CARDS, player, 0, 0, cards, amounts);
 			
 			//calculate the next player
 			nextPlayer = (nextPlayer + 1) % players.size();
@@ -430,197 +543,25 @@ public class Game {
 			return true;
 		} else if(player == nextPlayer) {
 			if(controller) {
-				//find the suit and amount of opening play
-				//todo: implement special flush case somehow...
-				int trickSuit = openingPlay.get(0).getCard().gameSuit;
-				int trickAmount = openingPlay.get(0).getAmount();
-				
-				//make sure player has the cards
-				if(controller) {
-					for(int i = 0; i < cards.size(); i++) {
-						if(players.get(player).countCards(cards.get(i)) < amounts.get(i)) {
-							println("Played cards are not in player's hand.");
-							return false;
-						}
-					}
-				}
-				
-				//match previous play
-				//same number of cards
-				int totalCards = 0;
-				for(Integer x : amounts) {
-					totalCards += x;
-				}
-				
-				if(totalCards != trickCards) {
-					println("Number of played cards does not equal opening trick size.");
-					return false;
-				}
-				
-				//match suit if possible
-				int suitTotal = players.get(player).countSuit(trickSuit);
-				
-				int totalSuitCards = 0;
-				for(int i = 0; i < cards.size(); i++) {
-					if(cards.get(i).gameSuit == trickSuit) {
-						totalSuitCards += amounts.get(i);
-					}
-				}
+				int result = followValidator.validate(players.get(player), trick);
 				
-				//if total cards in suit that player played is not
-				// equal to the total cards in suit or the total trick
-				// cards, then this in an invalid play
-				if(totalSuitCards != suitTotal && totalSuitCards != trickCards) {
-					println("Played cards do not follow suit (" + totalSuitCards + "/" + suitTotal + ").");
+				if(result != FollowValidator.VALID) {
+					println(followValidator.getMessage(result));
 					return false;
 				}
-				
-				//follow doubles and triples if possible
-				// this only applies if the player has not exhausted the suit
-				if(trickAmount > 1 && totalSuitCards == trickCards) {
-					//first make sure player isn't avoiding playing the enter combination
-					//do this first by comparing play to the opening amounts
-					// and then by searching player's hand for the combination
-					List<Integer> openingAmounts = CardTuple.extractAmounts(openingPlay);
-					
-					if(players.get(player).searchTrick(trickSuit, openingAmounts)) {
-						if(!amounts.equals(openingAmounts)) {
-							println("Played cards avoids playing combination.");
-							return false;
-						} else {
-							//order the cards because player has played entire combination so might beat it
-							Collections.sort(cards, new CardSuitWeightComparator(trumpSuit, currentLevel)); //sort by value
-						}
-					} else {
-						//if not combination, make sure player plays as many individual parts as possible
-						//for example, on a triple, the player must play a double if the player has one
-						
-						//find all the tuples
-						List<CardTuple> tuples = players.get(player).getTuples(trickSuit);
-						
-						//now find tuples that the player has played
-						// because player doesn't have to play entire tuple, we must
-						// also keep track of the number of cards within the tuple played
-						List<CardTuple> tuplesPlayed = new ArrayList<CardTuple>();
-						List<Integer> numCardsPlayed = new ArrayList<Integer>();
-						for(int i = 0; i < amounts.size(); i++) {
-							if(amounts.get(i) >= 2) {
-								numCardsPlayed.add(amounts.get(i));
-								
-								//find corresponding card tuple
-								for(CardTuple tuple : tuples) {
-									if(tuple.getCard().equals(cards.get(i))) {
-										tuplesPlayed.add(tuple);
-										break;
-									}
-								}
-							}
-						}
-						
-						//now loop through each amount (which should all be the same)
-						// and make sure player didn't avoid something needed to play
-						for(int i = 0; i < openingAmounts.size(); i++) {
-							int currAmount = openingAmounts.get(i);
-							
-							//see if player has exact number
-							boolean hasExact = false;
-							for(CardTuple tuple : tuples) {
-								if(tuple.getAmount() == currAmount) {
-									hasExact = true;
-									break;
-								}
-							}
-							
-							if(hasExact) {
-								//player does have the exact number of cards
-								// now just make sure he played it or an appropriate replacement
-								boolean foundReplacement = false;
-								for(int j = 0; j < numCardsPlayed.size(); j++) {
-									if(numCardsPlayed.get(j) >= currAmount) {
-										//player did play replacement
-										
-										//first update both the hand and played tuple
-										CardTuple tuple = tuplesPlayed.get(j);
-										tuple.amount -= currAmount;
-										numCardsPlayed.set(j, numCardsPlayed.get(j) - currAmount);
-										
-										//remove from hand tuples if needed
-										if(tuple.amount <= 1) {
-											//remove this tuple from hand tuples list because it's no longer a tuple
-											tuples.remove(tuple);
-										}
-										
-										//remove from played tuples if needed
-										if(numCardsPlayed.get(j) <= 1) {
-											//in this case, the played tuple is now either a single or gone completely
-											// so remove from the played list
-											numCardsPlayed.remove(j);
-											tuplesPlayed.remove(j);
-										}
-										
-										foundReplacement = true;
-										break;
-									}
-								}
-								
-								if(!foundReplacement) {
-									println("Player did not play replacement for the cards appropriately.");
-									return false;
-								}
-							} else {
-								//player doesn't have exact number
-								// then just make sure that player has played any lower-order tuples
-								int remaining = currAmount;
-								
-								while(remaining >= 2) {
-									if(!tuplesPlayed.isEmpty()) {
-										//calculate the amount played for this round
-										int numPlayed = numCardsPlayed.get(0);
-										if(numPlayed > remaining) {
-											numPlayed = remaining;
-										}
-										
-										remaining -= numPlayed;
-										
-										//first update both the hand and played tuple
-										CardTuple tuple = tuplesPlayed.get(0);
-										tuple.amount -= numPlayed;
-										numCardsPlayed.set(0, numCardsPlayed.get(0) - numPlayed);
-										
-										//remove from hand tuples if needed
-										if(tuple.amount <= 1) {
-											//remove this tuple from hand tuples list because it's no longer a tuple
-											tuples.remove(tuple);
-										}
-										
-										//remove from played tuples if needed
-										if(numCardsPlayed.get(0) <= 1) {
-											//remove this tuple from played tuples because it's a single or gone completely
-											numCardsPlayed.remove(0);
-											tuplesPlayed.remove(0);
-										}
-									} else if(!tuples.isEmpty()) {
-										//player has tuples remaining but didn't play them
-										println("Played cards do not follow tuples.");
-										return false;
-									} else {
-										//no more tuples, so we're done here
-										break;
-									}
-								}
-							}
-						}
-					}
-				}
 			}
 			
+			List<Card> cards = CardTuple.extractCards(trick);
+			List<Integer> amounts = CardTuple.extractAmounts(trick);
+			
 			//remove player's cards
 			players.get(player).removeCards(cards, amounts);
 			
 			//reconstruct trick
-			trick = CardTuple.createTrick(cards, amounts);
+			trick = CardTuple.createTrick(cards, amounts, trumpContext);
 			
 			//add to plays for this trick
+			playsHash ^= Zobrist.playKey(plays.size(), player, trick);
 			plays.add(trick);
 			storedPlays.add(trick);
 			
@@ -641,6 +582,7 @@ public class Game {
 				// see this play before the first trick of the next
 				// play is made.
 				plays.clear();
+				playsHash = 0;
 				
 				startingPlayer = winningPlayer;
 				nextPlayer = winningPlayer;
@@ -648,7 +590,7 @@ public class Game {
 				//determine if the round is over (all player's hands are empty)
 				//we have to loop through each player because this might not be
 				// a controller instance, and so we might not know all of the cards.
-				roundOver = true;
+				roundOver = !spectating;
 				
 				for(Player it_player : players) {
 					if(!it_player.getHand().isEmpty()) roundOver = false;
@@ -663,9 +605,7 @@ public class Game {
 					// all clients have the bottom cards before the above
 					// code is executed so that everyone remains in sync.
 					//so we call all our listeners here
-					for(GamePlayerListener listener : listeners) {
-						listener.eventBottom(bottom);
-					}
+					notifyListeners(-1, ListenerEvent.BOTTOM, 0, 0, 0, bottom, null);
 					
 					//we delay calling roundOver until later because otherwise
 					// clients won't receive the cards for the last trick
@@ -676,9 +616,7 @@ public class Game {
 			//make sure to update listeners last because we
 			// might have had to notify them about the bottom
 			// before this
-			for(GamePlayerListener listener : listeners) {
-				listener.eventPlayCards(player, cards, amounts);
-			}
+			notifyListeners(-1, ListenerEvent.PLAY_CARDS, player, 0, 0, cards, amounts);
 			
 			//call roundOver if needed here so that cards
 			// are updated first
@@ -728,11 +666,7 @@ public class Game {
 				if(controller) {
 					bottom = newBottom;
 					
-					for(GamePlayerListener listener : listeners) {
-						if(listener.getPlayer() == currentDealer) {
-							listener.eventSelectBottom(bottom);
-						}
-					}
+					notifyListeners(currentDealer, ListenerEvent.SELECT_BOTTOM, 0, 0, 0, bottom, null);
 					
 					setState(STATE_PLAYING);
 				} else {
@@ -756,8 +690,8 @@ public class Game {
 		//check if the tricks have the same structure (amounts)
 		if(CardTuple.compareCardTupleStructure(one, two)) {
 			//check that all the suits in two match
-			int oneSuit = one.get(0).getCard().gameSuit;
-			int twoSuit = two.get(0).getCard().gameSuit;
+			int oneSuit = trumpContext.getGameSuit(one.get(0).getCard());
+			int twoSuit = trumpContext.getGameSuit(two.get(0).getCard());
 			
 			if(oneSuit != twoSuit && twoSuit != Card.SUIT_TRUMP) {
 				debug("compareTrick: true because two's cards do not match one's");
@@ -766,7 +700,7 @@ public class Game {
 			
 			//make sure two is all of the same suit
 			for(int i = 0; i < two.size(); i++) {
-				if(twoSuit != two.get(i).getCard().gameSuit) {
+				if(twoSuit != trumpContext.getGameSuit(two.get(i).getCard())) {
 					debug("compareTrick: true because two's cards are split across suits,");
 					return true;
 				}
@@ -776,7 +710,7 @@ public class Game {
 			//confirm that a the second trick is in sequential order
 			// note: tricks will automatically be put in sequential order by CardTuple.createTrick
 			for(int i = 0; i < two.size() - 1; i++) {
-				if(two.get(i).getCard().gameValue != two.get(i + 1).getCard().gameValue - 1) {
+				if(trumpContext.getGameValue(two.get(i).getCard()) != trumpContext.getGameValue(two.get(i + 1).getCard()) - 1) {
 					debug("compareTrick: true because two is not in sequence");
 					return true;
 				}
@@ -791,7 +725,7 @@ public class Game {
 					//if trump, compare trump weight
 					//otherwise compare value
 					// gameValue does what we want
-					if(two.get(i).getCard().gameValue <= one.get(i).getCard().gameValue) {
+					if(trumpContext.getGameValue(two.get(i).getCard()) <= trumpContext.getGameValue(one.get(i).getCard())) {
 						debug("compareTrick: true because two's cards do not beat one's");
 						return true;
 					}
@@ -863,6 +797,8 @@ public class Game {
 		}
 		
 		debug("Winner is " + winner + " (attacking got " + attackingPoints + " points)");
+		roundAttackingPoints = attackingPoints;
+		roundWinner = winner;
 		
 		//level up the appropriate amount
 		//current level for the next round will be set in init()
@@ -907,9 +843,11 @@ public class Game {
 		roundOverCounter = 0;
 	}
 	
+	//the game is over once a team levels up past the big joker level (16)
+	//a round can win several levels at once, so anything past 16 counts too
 	public boolean gameOver() {
 		for(Player player : players) {
-			if(player.level == 16) return true;
+			if(player.level >= 16) return true;
 		}
 		
 		return false;
@@ -929,6 +867,7 @@ public class Game {
 			}
 			
 			//we have enough players
+			println("Dealing round " + roundNumber + " (game seed " + seed + ")");
 			
 			//calculate the number of cards to put on bottom
 			//currently, to do this, we start be calculating the number
@@ -968,11 +907,7 @@ public class Game {
 				Card card = deck.remove(0);
 				player.addCard(card);
 				
-				for(GamePlayerListener listener : listeners) {
-					if(listener.getPlayer() == lastPlayerDealt) {
-						listener.eventDealtCard(card);
-					}
-				}
+				notifyListeners(lastPlayerDealt, ListenerEvent.DEALT_CARD, 0, 0, 0, card, null);
 				
 				return 100;
 			}
@@ -987,24 +922,18 @@ public class Game {
 				}
 				
 				//notify the player with the cards
-				for(GamePlayerListener listener : listeners) {
-					if(listener.getPlayer() == currentDealer) {
-						for(int i = 0; i < bottom.size(); i++) {
-							listener.eventDealtCard(bottom.get(i));
-						}
-						
-						listener.eventBottom(bottom);
-					}
+				for(int i = 0; i < bottom.size(); i++) {
+					notifyListeners(currentDealer, ListenerEvent.DEALT_CARD, 0, 0, 0, bottom.get(i), null);
 				}
 				
+				notifyListeners(currentDealer, ListenerEvent.BOTTOM, 0, 0, 0, bottom, null);
+				
 				//do not clear the bottom because we'll use it to compare with the version
 				// that the player returns
 			} else {
 				betCountDown++;
 				
-				for(GamePlayerListener listener : listeners) {
-					listener.eventUpdateBetCounter(betCountDown);
-				}
+				notifyListeners(-1, ListenerEvent.UPDATE_BET_COUNTER, betCountDown, 0, 0, null, null);
 			}
 			
 			return 500;
@@ -1019,9 +948,7 @@ public class Game {
 				setState(STATE_INIT);
 				return 1000;
 			} else {
-				for(GamePlayerListener listener : listeners) {
-					listener.eventUpdateRoundOverCounter(roundOverCounter);
-				}
+				notifyListeners(-1, ListenerEvent.UPDATE_ROUND_OVER_COUNTER, roundOverCounter, 0, 0, null, null);
 				
 				return 500;
 			}
@@ -1040,6 +967,10 @@ public class Game {
 		return players.size();
 	}
 	
+	public int getNumDecks() {
+		return numDecks;
+	}
+	
 	public Player getPlayer(int i) {
 		return players.get(i);
 	}
@@ -1066,6 +997,25 @@ public class Game {
 		return storedStartingPlayer;
 	}
 	
+	//points the attacking team got in the last round
+	public int getRoundAttackingPoints() {
+		return roundAttackingPoints;
+	}
+	
+	//levels gained in the last round: negative for the defending team,
+	// zero or more for the attacking team (who also take over defending)
+	public int getRoundWinner() {
+		return roundWinner;
+	}
+	
+	public int getNumBets() {
+		return bets.size();
+	}
+	
+	public List<Card> getBottom() {
+		return bottom;
+	}
+	
 	public Bet getPlayerBet(int pid) {
 		for(Bet bet : bets) {
 			if(bet.player == pid) return bet;
@@ -1110,16 +1060,128 @@ public class Game {
 		return state;
 	}
 	
+	//every play that playTrick would accept from the player right now
+	public List<List<CardTuple>> getLegalMoves(int player) {
+		return legalMoves.getMoves(player);
+	}
+	
+	public LegalMoves getLegalMoveGenerator() {
+		return legalMoves;
+	}
+	
+	//64-bit Zobrist hash of the game state: hands, bottom, the plays in
+	// the current trick, and the scalar fields (state, trump, turn, levels,
+	// points and teams); equal games have equal hashes
+	//hands and plays are hashed as they change, the rest is folded in here
+	// in O(players + bottom)
+	public long getHash() {
+		long hash = getPublicHash();
+		
+		for(int i = 0; i < players.size(); i++) {
+			hash ^= Zobrist.seatKey(i, players.get(i).handHash);
+		}
+		
+		//the bottom is a multiset, like a hand
+		int[] counts = new int[Card.NUM_IDS];
+		
+		for(Card card : bottom) {
+			counts[card.id]++;
+			hash ^= Zobrist.key(Zobrist.BOTTOM, card.id * Card.MAX_DECKS + counts[card.id]);
+		}
+		
+		return hash;
+	}
+	
+	//hash of the state that every player can see (no hands or bottom)
+	//the current level is left out: it's the dealer's level, which is in
+	// here, and save files don't keep it after the round is over
+	public long getPublicHash() {
+		long hash = playsHash;
+		int field = 0;
+		
+		hash ^= Zobrist.scalarKey(field++, state);
+		hash ^= Zobrist.scalarKey(field++, trumpSuit);
+		hash ^= Zobrist.scalarKey(field++, currentDealer);
+		hash ^= Zobrist.scalarKey(field++, startingPlayer);
+		hash ^= Zobrist.scalarKey(field++, nextPlayer);
+		hash ^= Zobrist.scalarKey(field++, players.size());
+		
+		for(Player player : players) {
+			hash ^= Zobrist.scalarKey(field++, player.level);
+			hash ^= Zobrist.scalarKey(field++, player.points);
+			hash ^= Zobrist.scalarKey(field++, player.defending ? 1 : 0);
+		}
+		
+		return hash;
+	}
+	
+	//the state that the given player knows: the public state and their own hand
+	//a client's game and the server's game for that client should agree on this
+	public long getPlayerHash(int pid) {
+		return getPublicHash() ^ Zobrist.seatKey(pid, players.get(pid).handHash);
+	}
+	
+	long computePlaysHash() {
+		long hash = 0;
+		
+		for(int i = 0; i < plays.size(); i++) {
+			hash ^= Zobrist.playKey(i, (startingPlayer + i) % players.size(), plays.get(i));
+		}
+		
+		return hash;
+	}
+	
+	public long getSeed() {
+		return seed;
+	}
+	
+	public int getRoundNumber() {
+		return roundNumber;
+	}
+	
+	//seed of the generator that shuffles the deck for the given round
+	public long getRoundSeed(int round) {
+		return Util.mix64(seed + round * 0x9E3779B97F4A7C15L);
+	}
+	
+	public static long generateSeed() {
+		return new SecureRandom().nextLong();
+	}
+	
+	public static Random createShuffleRandom(long seed, int shuffleMode) {
+		if(shuffleMode == SHUFFLE_STRONG) {
+			try {
+				//SHA1PRNG only uses the given seed if it's set before the first use
+				SecureRandom random = SecureRandom.getInstance("SHA1PRNG");
+				random.setSeed(seed);
+				return random;
+			} catch(NoSuchAlgorithmException e) {
+				LevelUp.println("[Game] SHA1PRNG is not available; using fast shuffle instead");
+			}
+		}
+		
+		return new SplitMixRandom(seed);
+	}
+	
+	public void setQuiet(boolean quiet) {
+		this.quiet = quiet;
+	}
+	
+	public void setSpectating(boolean spectating) {
+		this.spectating = spectating;
+	}
+	
+	public TrumpContext getTrumpContext() {
+		return trumpContext;
+	}
+	
+	//returns null if the suit and value do not make a card
 	public Card constructCard(int suit, int value) {
-		Card card = new Card(suit, value);
-		card.calculateGameSuit(trumpSuit, currentLevel);
-		return card;
+		return Card.getCardBySuit(suit, value);
 	}
 	
 	public Card constructCard(Card original) {
-		Card card = new Card(original.suit, original.value);
-		card.calculateGameSuit(trumpSuit, currentLevel);
-		return card;
+		return Card.getCard(original.id);
 	}
 	
 	public void setBottom(List<Card> bottom) {
@@ -1129,9 +1191,7 @@ public class Game {
 		//in that case, we notify all listeners that we have the bottom,
 		// but only if this is the STATE_BOTTOM
 		if(state == STATE_BOTTOM) {
-			for(GamePlayerListener listener : listeners) {
-				listener.eventBottom(bottom);
-			}
+			notifyListeners(-1, ListenerEvent.BOTTOM, 0, 0, 0, bottom, null);
 		}
 	}
 	
@@ -1149,6 +1209,11 @@ public class Game {
 		nextPlayer = game.nextPlayer;
 		storedStartingPlayer = game.storedStartingPlayer;
 		roundOverCounter = game.roundOverCounter;
+		currentLevel = game.currentLevel;
+		trumpContext = new TrumpContext(trumpSuit, currentLevel);
+		seed = game.seed;
+		shuffleMode = game.shuffleMode;
+		roundNumber = game.roundNumber;
 		
 		//for players, we want to make sure we keep the
 		// existing player names when possible
@@ -1160,13 +1225,18 @@ public class Game {
 			}
 		}
 		
+		//the players now belong to this game
+		for(Player player : newPlayers) {
+			player.game = this;
+		}
+		
 		players = newPlayers;
 		
 		//delete any cards that we have for other players
 		if(!controller && pid != -1) {
 			for(int i = 0; i < players.size(); i++) {
 				if(i != pid) {
-					players.get(i).hand.clear();
+					players.get(i).clearHand();
 				}
 			}
 		}
@@ -1176,10 +1246,33 @@ public class Game {
 		bets = game.bets;
 		openingPlay = game.openingPlay;
 		plays = game.plays;
+		playsHash = game.playsHash;
 		storedPlays = game.storedPlays;
 	}
 	
 	public static boolean writeGame(Game game, OutputStream outStream) {
+		return writeGame(game, outStream, false);
+	}
+	
+	//includeSeed should only be set for save files: anyone with the seed
+	// can work out the deck for the rest of the game
+	public static boolean writeGame(Game game, OutputStream outStream, boolean includeSeed) {
+		return writeGame(game, outStream, includeSeed, true);
+	}
+	
+	//without includeHidden, hands, the deck and the bottom are written as
+	// empty, which is what spectators get
+	public static boolean writeGame(Game game, OutputStream outStream, boolean includeSeed, boolean includeHidden) {
+		return writeGame(game, outStream, includeSeed, includeHidden, -1);
+	}
+	
+	//what one player may see: like a spectator, but with the player's own
+	// hand, and the bottom once they would have been told about it
+	public static boolean writeGameFor(Game game, OutputStream outStream, int pid) {
+		return writeGame(game, outStream, false, false, pid);
+	}
+	
+	static boolean writeGame(Game game, OutputStream outStream, boolean includeSeed, boolean includeHidden, int pid) {
 		if(!game.controller) {
 			LevelUp.println("[Game] Save game failed: this is not a controller instance");
 			return false;
@@ -1190,7 +1283,7 @@ public class Game {
 		try {
 			out.writeUTF("p-levelup saved game");
 			out.writeLong(System.currentTimeMillis());
-			out.writeInt(LevelUp.LEVELUP_VERSION);
+			out.writeInt(SAVE_VERSION);
 			
 			//write game state information
 			out.write((byte) game.state);
@@ -1210,7 +1303,9 @@ public class Game {
 			//write player information
 			out.write((byte) game.players.size());
 			
-			for(Player player : game.players) {
+			for(int i = 0; i < game.players.size(); i++) {
+				Player player = game.players.get(i);
+				
 				if(player.name == null) {
 					player.name = "Leaver";
 				}
@@ -1221,8 +1316,9 @@ public class Game {
 				out.writeBoolean(player.defending);
 				
 				//write hand
-				out.writeShort((short) player.hand.size());
-				for(Card card : player.hand) {
+				List<Card> hand = includeHidden || i == pid ? player.hand : new ArrayList<Card>();
+				out.writeShort((short) hand.size());
+				for(Card card : hand) {
 					out.write((byte) card.getId());
 				}
 			}
@@ -1231,15 +1327,18 @@ public class Game {
 			if(game.deck == null) game.deck = new ArrayList<Card>();
 			if(game.bottom == null) game.bottom = new ArrayList<Card>();
 			
-			out.writeShort((short) game.deck.size());
+			List<Card> deck = includeHidden ? game.deck : new ArrayList<Card>();
+			List<Card> bottom = includeHidden || isBottomVisible(game.state, game.currentDealer, pid) ? game.bottom : new ArrayList<Card>();
+			
+			out.writeShort((short) deck.size());
 			
-			for(Card card : game.deck) {
+			for(Card card : deck) {
 				out.write((byte) card.getId());
 			}
 			
-			out.writeShort((short) game.bottom.size());
+			out.writeShort((short) bottom.size());
 			
-			for(Card card : game.bottom) {
+			for(Card card : bottom) {
 				out.write((byte) card.getId());
 			}
 			
@@ -1277,6 +1376,15 @@ public class Game {
 			byte[] bytes = new byte[] {(byte) 180, 116, (byte) 174, (byte) 163, (byte) 181, (byte) 243, (byte) 249, (byte) 246};
 			out.write(bytes);
 			
+			//version 1: shuffle seed
+			out.writeBoolean(includeSeed);
+			
+			if(includeSeed) {
+				out.writeLong(game.seed);
+				out.write((byte) game.shuffleMode);
+				out.writeInt(game.roundNumber);
+			}
+			
 			return true;
 		} catch(IOException ioe) {
 			LevelUp.println("[Game] Save game failed: " + ioe.getLocalizedMessage());
@@ -1297,8 +1405,8 @@ public class Game {
 			long currentTime = in.readLong();
 			int version = in.readInt();
 			
-			if(version != LevelUp.LEVELUP_VERSION) {
-				LevelUp.println("[Game] Load game: warning: different version number");
+			if(version > SAVE_VERSION) {
+				LevelUp.println("[Game] Load game: warning: saved by a newer version (" + version + ")");
 			}
 			
 			int state = in.readUnsignedByte();
@@ -1313,7 +1421,7 @@ public class Game {
 			game.firstRound = in.readBoolean();
 			game.lastPlayerDealt = in.readUnsignedByte();
 			game.betCountDown = in.readUnsignedShort();
-			game.trumpSuit = in.readUnsignedByte();
+			game.trumpSuit = in.readByte();
 			game.startingPlayer = in.readUnsignedByte();
 			game.trickCards = in.readUnsignedByte();
 			game.nextPlayer = in.readUnsignedByte();
@@ -1323,6 +1431,11 @@ public class Game {
 			int playerSize = in.readUnsignedByte();
 			game.players = new ArrayList<Player>(playerSize);
 			
+			//hands are stored after the player levels, so read all
+			// players first and then fill in the hands once we know
+			// the current level (hand order depends on it)
+			List<int[]> hands = new ArrayList<int[]>(playerSize);
+			
 			for(int i = 0; i < playerSize; i++) {
 				Player player = new Player(game);
 				player.name = in.readUTF();
@@ -1331,14 +1444,26 @@ public class Game {
 				player.defending = in.readBoolean();
 				
 				int handSize = in.readUnsignedShort();
-				player.hand = new ArrayList<Card>(handSize);
+				int[] hand = new int[handSize];
 				
 				for(int j = 0; j < handSize; j++) {
-					int cardId = in.readUnsignedByte();
-					player.hand.add(new Card(cardId));
+					hand[j] = in.readUnsignedByte();
 				}
 				
 				game.players.add(player);
+				hands.add(hand);
+			}
+			
+			if(game.currentDealer < playerSize) {
+				game.currentLevel = game.players.get(game.currentDealer).level;
+			}
+			
+			game.trumpContext = new TrumpContext(game.trumpSuit, game.currentLevel);
+			
+			for(int i = 0; i < playerSize; i++) {
+				for(int cardId : hands.get(i)) {
+					game.players.get(i).addCard(readCard(cardId));
+				}
 			}
 			
 			int deckSize = in.readUnsignedShort();
@@ -1346,7 +1471,7 @@ public class Game {
 			
 			for(int i = 0; i < deckSize; i++) {
 				int cardId = in.readUnsignedByte();
-				game.deck.add(new Card(cardId));
+				game.deck.add(readCard(cardId));
 			}
 			
 			int bottomSize = in.readUnsignedShort();
@@ -1354,7 +1479,7 @@ public class Game {
 			
 			for(int i = 0; i < bottomSize; i++) {
 				int cardId = in.readUnsignedByte();
-				game.bottom.add(new Card(cardId));
+				game.bottom.add(readCard(cardId));
 			}
 			
 			int betSize = in.readUnsignedByte();
@@ -1374,6 +1499,8 @@ public class Game {
 				game.plays.add(CardTuple.readTrick(inStream));
 			}
 			
+			game.playsHash = game.computePlaysHash();
+			
 			int storedPlaysSize = in.readUnsignedByte();
 			game.storedPlays = new ArrayList<List<CardTuple>>(storedPlaysSize);
 			
@@ -1397,6 +1524,13 @@ public class Game {
 				}
 			}
 			
+			if(version >= 1 && in.readBoolean()) {
+				game.seed = in.readLong();
+				game.shuffleMode = in.readUnsignedByte();
+				game.roundNumber = in.readInt();
+				LevelUp.println("[Game] Loaded game seed " + game.seed + " at round " + game.roundNumber);
+			}
+			
 			return game;
 		} catch(EOFException e) {
 			LevelUp.println("[Game] End of file reached before load completed: " + e.getLocalizedMessage());
@@ -1406,23 +1540,35 @@ public class Game {
 			return null;
 		}
 	}
+	
+	//whether the player (or a spectator, for -1) has been told the bottom by
+	// now: the dealer while they select it, and everyone after the round
+	static boolean isBottomVisible(int state, int currentDealer, int pid) {
+		return (state == STATE_BOTTOM && pid != -1 && pid == currentDealer) ||
+				state == STATE_ROUNDOVER || state == STATE_GAMEOVER;
+	}
+	
+	static Card readCard(int cardId) throws IOException {
+		Card card = Card.getCard(cardId);
+		
+		if(card == null) {
+			throw new IOException("invalid card id " + cardId);
+		}
+		
+		return card;
+	}
 }
 
 //for this comparator, all cards must be the same suit
 class CardSuitWeightComparator implements Comparator<Card> {
-	int trumpSuit;
-	int trumpValue;
+	TrumpContext context;
 	
-	public CardSuitWeightComparator(int trumpSuit, int trumpValue) {
-		this.trumpSuit = trumpSuit;
-		this.trumpValue = trumpValue;
+	public CardSuitWeightComparator(TrumpContext context) {
+		this.context = context;
 	}
 	
+	//game value is the card value, or the trump weight for trump
 	public int compare(Card a, Card b) {
-		if(a.gameSuit != Card.SUIT_TRUMP) { 
-			return a.value - b.value;
-		} else {
-			return a.getTrumpWeight(trumpSuit, trumpValue) - b.getTrumpWeight(trumpSuit, trumpValue);
-		}
+		return context.gameValue[a.id] - context.gameValue[b.id];
 	}
 }
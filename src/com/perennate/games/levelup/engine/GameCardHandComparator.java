@@ -4,18 +4,26 @@ import java.util.Comparator;
 
 //orders a card in the hand by value and then suit
 public class GameCardHandComparator implements Comparator<Card> {
+	TrumpContext context;
+	
+	public GameCardHandComparator(TrumpContext context) {
+		this.context = context;
+	}
+	
 	public int compare(Card a, Card b) {
-		boolean aTrump = a.gameSuit == Card.SUIT_TRUMP;
-		boolean bTrump = b.gameSuit == Card.SUIT_TRUMP;
+		int aSuit = context.gameSuit[a.id];
+		int bSuit = context.gameSuit[b.id];
+		boolean aTrump = aSuit == Card.SUIT_TRUMP;
+		boolean bTrump = bSuit == Card.SUIT_TRUMP;
 		
-		if(a.gameSuit != b.gameSuit) {
+		if(aSuit != bSuit) {
 			if(aTrump && !bTrump) return -1;
 			else if(!aTrump && bTrump) return 1;
 			else if(!aTrump && !bTrump)	return a.suit - b.suit;
 		}
 		
 		//they are in the same suit
-		int difference = a.gameValue - b.gameValue;
+		int difference = context.gameValue[a.id] - context.gameValue[b.id];
 		
 		//make sure that we aren't dealing with cards of the same
 		// gameValue but not suit
@@ -32,11 +40,11 @@ public class GameCardHandComparator implements Comparator<Card> {
 class GameCardTupleComparator implements Comparator<CardTuple> {
 	Comparator<Card> comparator;
 	
-	public GameCardTupleComparator() {
-		comparator = new GameCardHandComparator();
+	public GameCardTupleComparator(TrumpContext context) {
+		comparator = new GameCardHandComparator(context);
 	}
 	
 	public int compare(CardTuple a, CardTuple b) {
 		return comparator.compare(a.getCard(), b.getCard());
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,498 @@
+package com.perennate.games.levelup.engine;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.perennate.games.levelup.LevelUp;
+import com.perennate.games.levelup.util.Util;
+
+//the parts of a game that a resync is made of, copied out of the game so
+// that it can be compared with the game later on
+//instead of replacing a client's whole game like Game.synchronize, the
+// server sends each player only what changed between two of these, as
+// that player may see it, and the client changes its game in place
+//a delta only applies to the state it was taken from, so it starts with
+// the hash of that state (see getViewHash); a client whose game doesn't
+// match needs a full sync instead
+public class GameDelta {
+	//bits of the scalars that are only sent if they changed
+	static int CHANGED_STATE = 1;
+	static int CHANGED_TRUMP = 2;
+	static int CHANGED_DEALER = 4;
+	static int CHANGED_STARTING = 8;
+	static int CHANGED_NEXT = 16;
+	
+	//bits of a player's fields that changed
+	static int CHANGED_LEVEL = 1;
+	static int CHANGED_POINTS = 2;
+	static int CHANGED_DEFENDING = 4;
+	
+	int state;
+	int currentLevel;
+	int currentDealer;
+	boolean firstRound;
+	int lastPlayerDealt;
+	int betCountDown;
+	int trumpSuit;
+	int startingPlayer;
+	int trickCards;
+	int nextPlayer;
+	int storedStartingPlayer;
+	int roundOverCounter;
+	long publicHash;
+	
+	int[] levels;
+	int[] points;
+	boolean[] defending;
+	long[] handHashes;
+	
+	//the lists are copied, since the game keeps changing them
+	List<List<Card>> hands;
+	List<Card> bottom;
+	List<Bet> bets;
+	List<CardTuple> openingPlay;
+	List<List<CardTuple>> plays;
+	List<List<CardTuple>> storedPlays;
+	
+	public GameDelta(Game game) {
+		state = game.state;
+		currentLevel = game.currentLevel;
+		currentDealer = game.currentDealer;
+		firstRound = game.firstRound;
+		lastPlayerDealt = game.lastPlayerDealt;
+		betCountDown = game.betCountDown;
+		trumpSuit = game.trumpSuit;
+		startingPlayer = game.startingPlayer;
+		trickCards = game.trickCards;
+		nextPlayer = game.nextPlayer;
+		storedStartingPlayer = game.storedStartingPlayer;
+		roundOverCounter = game.roundOverCounter;
+		publicHash = game.getPublicHash();
+		
+		int numPlayers = game.players.size();
+		levels = new int[numPlayers];
+		points = new int[numPlayers];
+		defending = new boolean[numPlayers];
+		handHashes = new long[numPlayers];
+		hands = new ArrayList<List<Card>>(numPlayers);
+		
+		for(int i = 0; i < numPlayers; i++) {
+			Player player = game.players.get(i);
+			levels[i] = player.level;
+			points[i] = player.points;
+			defending[i] = player.defending;
+			handHashes[i] = player.handHash;
+			hands.add(new ArrayList<Card>(player.hand));
+		}
+		
+		bottom = game.bottom == null ? new ArrayList<Card>() : new ArrayList<Card>(game.bottom);
+		bets = new ArrayList<Bet>();
+		
+		//bets are changed in place when defended
+		if(game.bets != null) {
+			for(Bet bet : game.bets) {
+				bets.add(new Bet(bet.player, bet.suit, bet.amount));
+			}
+		}
+		
+		openingPlay = game.openingPlay == null ? new ArrayList<CardTuple>() : new ArrayList<CardTuple>(game.openingPlay);
+		
+		//the tricks themselves are never changed once played
+		plays = game.plays == null ? new ArrayList<List<CardTuple>>() : new ArrayList<List<CardTuple>>(game.plays);
+		storedPlays = game.storedPlays == null ? new ArrayList<List<CardTuple>>() : new ArrayList<List<CardTuple>>(game.storedPlays);
+	}
+	
+	//the bottom as the player (or a spectator, for -1) has it
+	List<Card> getBottom(int pid) {
+		if(Game.isBottomVisible(state, currentDealer, pid)) return bottom;
+		else return new ArrayList<Card>();
+	}
+	
+	//hash of what the player (or a spectator, for -1) knows of the state,
+	// as far as a delta depends on it: Game.getPlayerHash, and the lists
+	// that the delta compares
+	//the counters and the scalars that a delta always sends are left out;
+	// counters may be coalesced on the way to a client
+	public long getViewHash(int pid) {
+		long hash = publicHash;
+		
+		if(pid >= 0 && pid < handHashes.length) {
+			hash ^= Zobrist.seatKey(pid, handHashes[pid]);
+		}
+		
+		List<Card> visibleBottom = getBottom(pid);
+		hash = mix(hash, visibleBottom.size());
+		
+		for(Card card : visibleBottom) {
+			hash = mix(hash, card.id);
+		}
+		
+		hash = mix(hash, bets.size());
+		
+		for(Bet bet : bets) {
+			hash = mix(hash, (bet.player * 8 + bet.suit) * 256 + bet.amount);
+		}
+		
+		hash = mixTrick(hash, openingPlay);
+		hash = mix(hash, storedPlays.size());
+		
+		for(List<CardTuple> trick : storedPlays) {
+			hash = mixTrick(hash, trick);
+		}
+		
+		return hash;
+	}
+	
+	static long mix(long hash, long value) {
+		return Util.mix64(hash ^ (value + 1) * 0x9E3779B97F4A7C15L);
+	}
+	
+	static long mixTrick(long hash, List<CardTuple> trick) {
+		hash = mix(hash, trick.size());
+		
+		for(CardTuple tuple : trick) {
+			hash = mix(hash, tuple.card.id * 256 + tuple.amount);
+		}
+		
+		return hash;
+	}
+	
+	//writes what the player (or a spectator, for -1) needs to go from base
+	// to next; returns false on failure
+	public static boolean writeDelta(GameDelta base, GameDelta next, OutputStream outStream, int pid) {
+		DataOutputStream out = new DataOutputStream(outStream);
+		
+		try {
+			out.writeLong(base.getViewHash(pid));
+			
+			int changed = 0;
+			if(next.state != base.state) changed |= CHANGED_STATE;
+			if(next.trumpSuit != base.trumpSuit) changed |= CHANGED_TRUMP;
+			if(next.currentDealer != base.currentDealer) changed |= CHANGED_DEALER;
+			if(next.startingPlayer != base.startingPlayer) changed |= CHANGED_STARTING;
+			if(next.nextPlayer != base.nextPlayer) changed |= CHANGED_NEXT;
+			
+			out.write((byte) changed);
+			if((changed & CHANGED_STATE) != 0) out.write((byte) next.state);
+			if((changed & CHANGED_TRUMP) != 0) out.write((byte) next.trumpSuit);
+			if((changed & CHANGED_DEALER) != 0) out.write((byte) next.currentDealer);
+			if((changed & CHANGED_STARTING) != 0) out.write((byte) next.startingPlayer);
+			if((changed & CHANGED_NEXT) != 0) out.write((byte) next.nextPlayer);
+			
+			//the rest aren't in the view hash, and take less room than a mask
+			out.write((byte) next.currentLevel);
+			out.writeBoolean(next.firstRound);
+			out.write((byte) next.lastPlayerDealt);
+			out.writeShort((short) next.betCountDown);
+			out.write((byte) next.trickCards);
+			out.write((byte) next.storedStartingPlayer);
+			out.writeShort((short) next.roundOverCounter);
+			
+			//players; a resize comes as its own packet, so the number of
+			// players is the same on both sides
+			int numPlayers = next.levels.length;
+			
+			if(base.levels.length != numPlayers) {
+				LevelUp.println("[GameDelta] Write delta failed: number of players changed");
+				return false;
+			}
+			
+			for(int i = 0; i < numPlayers; i++) {
+				int playerChanged = 0;
+				if(next.levels[i] != base.levels[i]) playerChanged |= CHANGED_LEVEL;
+				if(next.points[i] != base.points[i]) playerChanged |= CHANGED_POINTS;
+				if(next.defending[i] != base.defending[i]) playerChanged |= CHANGED_DEFENDING;
+				
+				out.write((byte) playerChanged);
+				if((playerChanged & CHANGED_LEVEL) != 0) out.write((byte) next.levels[i]);
+				if((playerChanged & CHANGED_POINTS) != 0) out.writeShort((short) next.points[i]);
+				if((playerChanged & CHANGED_DEFENDING) != 0) out.writeBoolean(next.defending[i]);
+			}
+			
+			//the player's own hand, as the cards that left it and the cards
+			// that came into it
+			if(pid >= 0 && pid < numPlayers) {
+				int[] counts = new int[Card.NUM_IDS];
+				
+				for(Card card : next.hands.get(pid)) {
+					counts[card.id]++;
+				}
+				
+				for(Card card : base.hands.get(pid)) {
+					counts[card.id]--;
+				}
+				
+				writeCounts(out, counts, -1);
+				writeCounts(out, counts, 1);
+			}
+			
+			List<Card> nextBottom = next.getBottom(pid);
+			boolean bottomChanged = !sameCards(base.getBottom(pid), nextBottom);
+			out.writeBoolean(bottomChanged);
+			
+			if(bottomChanged) {
+				out.writeShort((short) nextBottom.size());
+				
+				for(Card card : nextBottom) {
+					out.write((byte) card.id);
+				}
+			}
+			
+			boolean betsChanged = !sameBets(base.bets, next.bets);
+			out.writeBoolean(betsChanged);
+			
+			if(betsChanged) {
+				out.write((byte) next.bets.size());
+				
+				for(Bet bet : next.bets) {
+					out.write((byte) bet.player);
+					out.write((byte) bet.suit);
+					out.write((byte) bet.amount);
+				}
+			}
+			
+			boolean openingChanged = !sameTrick(base.openingPlay, next.openingPlay);
+			out.writeBoolean(openingChanged);
+			
+			if(openingChanged) {
+				CardTuple.writeTrick(next.openingPlay, out);
+			}
+			
+			writeTricks(out, base.plays, next.plays);
+			writeTricks(out, base.storedPlays, next.storedPlays);
+			return true;
+		} catch(IOException ioe) {
+			LevelUp.println("[GameDelta] Write delta failed: " + ioe.getLocalizedMessage());
+			return false;
+		}
+	}
+	
+	//writes the cards whose count went the given way, once per copy
+	static void writeCounts(DataOutputStream out, int[] counts, int sign) throws IOException {
+		int total = 0;
+		
+		for(int id = 0; id < counts.length; id++) {
+			if(counts[id] * sign > 0) total += counts[id] * sign;
+		}
+		
+		out.writeShort((short) total);
+		
+		for(int id = 0; id < counts.length; id++) {
+			for(int j = 0; j < counts[id] * sign; j++) {
+				out.write((byte) id);
+			}
+		}
+	}
+	
+	//tricks only ever get added to the end or cleared, so this writes how
+	// many of the old ones to keep and then the new ones
+	static void writeTricks(DataOutputStream out, List<List<CardTuple>> base, List<List<CardTuple>> next) throws IOException {
+		int kept = 0;
+		
+		while(kept < base.size() && kept < next.size() && sameTrick(base.get(kept), next.get(kept))) {
+			kept++;
+		}
+		
+		out.write((byte) kept);
+		out.write((byte) (next.size() - kept));
+		
+		for(int i = kept; i < next.size(); i++) {
+			CardTuple.writeTrick(next.get(i), out);
+		}
+	}
+	
+	static boolean sameCards(List<Card> a, List<Card> b) {
+		if(a.size() != b.size()) return false;
+		
+		for(int i = 0; i < a.size(); i++) {
+			if(a.get(i).id != b.get(i).id) return false;
+		}
+		
+		return true;
+	}
+	
+	static boolean sameBets(List<Bet> a, List<Bet> b) {
+		if(a.size() != b.size()) return false;
+		
+		for(int i = 0; i < a.size(); i++) {
+			Bet x = a.get(i);
+			Bet y = b.get(i);
+			
+			if(x.player != y.player || x.suit != y.suit || x.amount != y.amount) return false;
+		}
+		
+		return true;
+	}
+	
+	static boolean sameTrick(List<CardTuple> a, List<CardTuple> b) {
+		if(a.size() != b.size()) return false;
+		
+		for(int i = 0; i < a.size(); i++) {
+			if(a.get(i).card.id != b.get(i).card.id || a.get(i).amount != b.get(i).amount) return false;
+		}
+		
+		return true;
+	}
+	
+	//changes the game in place by a delta from writeDelta
+	//returns false, without changing anything, if the game isn't the state
+	// that the delta was taken from
+	//the whole delta is read before the game is touched, so a delta that
+	// is cut short throws without changing anything either
+	public static boolean applyDelta(Game game, InputStream inStream, int pid) throws IOException {
+		DataInputStream in = new DataInputStream(inStream);
+		long baseHash = in.readLong();
+		
+		if(baseHash != new GameDelta(game).getViewHash(pid)) {
+			return false;
+		}
+		
+		int changed = in.readUnsignedByte();
+		int state = (changed & CHANGED_STATE) != 0 ? in.readUnsignedByte() : game.state;
+		int trumpSuit = (changed & CHANGED_TRUMP) != 0 ? in.readByte() : game.trumpSuit;
+		int currentDealer = (changed & CHANGED_DEALER) != 0 ? in.readUnsignedByte() : game.currentDealer;
+		int startingPlayer = (changed & CHANGED_STARTING) != 0 ? in.readUnsignedByte() : game.startingPlayer;
+		int nextPlayer = (changed & CHANGED_NEXT) != 0 ? in.readUnsignedByte() : game.nextPlayer;
+		int currentLevel = in.readUnsignedByte();
+		
+		boolean firstRound = in.readBoolean();
+		int lastPlayerDealt = in.readUnsignedByte();
+		int betCountDown = in.readUnsignedShort();
+		int trickCards = in.readUnsignedByte();
+		int storedStartingPlayer = in.readUnsignedByte();
+		int roundOverCounter = in.readUnsignedShort();
+		
+		int numPlayers = game.players.size();
+		int[] levels = new int[numPlayers];
+		int[] points = new int[numPlayers];
+		boolean[] defending = new boolean[numPlayers];
+		
+		for(int i = 0; i < numPlayers; i++) {
+			Player player = game.players.get(i);
+			int playerChanged = in.readUnsignedByte();
+			levels[i] = (playerChanged & CHANGED_LEVEL) != 0 ? in.readUnsignedByte() : player.level;
+			points[i] = (playerChanged & CHANGED_POINTS) != 0 ? in.readUnsignedShort() : player.points;
+			defending[i] = (playerChanged & CHANGED_DEFENDING) != 0 ? in.readBoolean() : player.defending;
+		}
+		
+		List<Card> removed = new ArrayList<Card>();
+		List<Card> added = new ArrayList<Card>();
+		
+		if(pid >= 0 && pid < numPlayers) {
+			int numRemoved = in.readUnsignedShort();
+			
+			for(int i = 0; i < numRemoved; i++) {
+				removed.add(Game.readCard(in.readUnsignedByte()));
+			}
+			
+			int numAdded = in.readUnsignedShort();
+			
+			for(int i = 0; i < numAdded; i++) {
+				added.add(Game.readCard(in.readUnsignedByte()));
+			}
+		}
+		
+		List<Card> bottom = game.bottom;
+		
+		if(in.readBoolean()) {
+			int bottomSize = in.readUnsignedShort();
+			bottom = new ArrayList<Card>(bottomSize);
+			
+			for(int i = 0; i < bottomSize; i++) {
+				bottom.add(Game.readCard(in.readUnsignedByte()));
+			}
+		}
+		
+		List<Bet> bets = game.bets;
+		
+		if(in.readBoolean()) {
+			int betSize = in.readUnsignedByte();
+			bets = new ArrayList<Bet>(betSize);
+			
+			for(int i = 0; i < betSize; i++) {
+				//the suit is signed: jokers are declared as SUIT_TRUMP
+				bets.add(new Bet(in.readUnsignedByte(), in.readByte(), in.readUnsignedByte()));
+			}
+		}
+		
+		List<CardTuple> openingPlay = game.openingPlay;
+		
+		if(in.readBoolean()) {
+			openingPlay = CardTuple.readTrick(in);
+		}
+		
+		List<List<CardTuple>> plays = readTricks(in, game.plays);
+		List<List<CardTuple>> storedPlays = readTricks(in, game.storedPlays);
+		
+		//everything is read, so nothing below can fail halfway
+		game.firstRound = firstRound;
+		game.lastPlayerDealt = lastPlayerDealt;
+		game.betCountDown = betCountDown;
+		game.trickCards = trickCards;
+		game.storedStartingPlayer = storedStartingPlayer;
+		game.roundOverCounter = roundOverCounter;
+		
+		for(int i = 0; i < numPlayers; i++) {
+			Player player = game.players.get(i);
+			player.level = levels[i];
+			player.points = points[i];
+			player.defending = defending[i];
+		}
+		
+		//cards leave the hand while it is still sorted for the old trump,
+		// and come in once it is sorted for the new one
+		for(Card card : removed) {
+			game.players.get(pid).removeCard(card, 1);
+		}
+		
+		game.state = state;
+		game.currentDealer = currentDealer;
+		game.startingPlayer = startingPlayer;
+		game.nextPlayer = nextPlayer;
+		
+		if(trumpSuit != game.trumpSuit || currentLevel != game.currentLevel) {
+			game.trumpSuit = trumpSuit;
+			game.currentLevel = currentLevel;
+			game.trumpContext = new TrumpContext(trumpSuit, currentLevel);
+			
+			for(Player player : game.players) {
+				player.calculateGameSuit(game.trumpContext);
+			}
+		}
+		
+		for(Card card : added) {
+			game.players.get(pid).addCard(card);
+		}
+		
+		game.bottom = bottom;
+		game.bets = bets;
+		game.openingPlay = openingPlay;
+		game.plays = plays;
+		game.storedPlays = storedPlays;
+		game.playsHash = game.computePlaysHash();
+		return true;
+	}
+	
+	//the first kept tricks of the old list followed by the new ones, as a
+	// new list so the old one is left alone until the delta is applied
+	static List<List<CardTuple>> readTricks(DataInputStream in, List<List<CardTuple>> tricks) throws IOException {
+		int kept = in.readUnsignedByte();
+		int numAdded = in.readUnsignedByte();
+		List<List<CardTuple>> result = new ArrayList<List<CardTuple>>(kept + numAdded);
+		
+		if(tricks != null) {
+			result.addAll(tricks.subList(0, Math.min(kept, tricks.size())));
+		}
+		
+		for(int i = 0; i < numAdded; i++) {
+			result.add(CardTuple.readTrick(in));
+		}
+		
+		return result;
+	}
+}
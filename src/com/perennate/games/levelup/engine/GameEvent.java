@@ -0,0 +1,9 @@
+package com.perennate.games.levelup.engine;
+
+//something that happened to a game, posted to its GameEventBus while the
+// change is made and dispatched in order once it is over
+//besides the listener events that the game posts itself, the owner of the
+// game can post its own, to have them happen in order with the game's
+public abstract class GameEvent {
+	public abstract void dispatch();
+}
@@ -0,0 +1,127 @@
+package com.perennate.games.levelup.engine;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.ReentrantLock;
+
+//hands a game's events to its listeners
+//by default an event is dispatched as soon as it is posted, in the middle of
+// the change to the game, like it always was; with deferred events the game
+// only records them, and whoever made the change dispatches them after it
+// has let go of the game, so that listeners doing I/O or Swing work don't
+// hold up everyone else waiting on it
+//events are dispatched by one thread at a time and always in the order
+// they were posted
+//listeners are kept copy-on-write: every event takes the array that was
+// current when it was posted, so adding or removing a listener never races
+// with a dispatch, and a listener added after an event doesn't get it
+public class GameEventBus {
+	static GamePlayerListener[] NO_LISTENERS = new GamePlayerListener[0];
+	
+	volatile GamePlayerListener[] listeners;
+	
+	boolean deferred;
+	
+	//events waiting to be dispatched; guarded by itself
+	ArrayDeque<GameEvent> pending;
+	
+	//held by the thread that is dispatching
+	ReentrantLock dispatchLock;
+	
+	public GameEventBus() {
+		listeners = NO_LISTENERS;
+		pending = new ArrayDeque<GameEvent>();
+		dispatchLock = new ReentrantLock();
+	}
+	
+	public synchronized void addListener(GamePlayerListener listener) {
+		GamePlayerListener[] newListeners = new GamePlayerListener[listeners.length + 1];
+		System.arraycopy(listeners, 0, newListeners, 0, listeners.length);
+		newListeners[listeners.length] = listener;
+		listeners = newListeners;
+	}
+	
+	public synchronized void removeListener(GamePlayerListener listener) {
+		for(int i = 0; i < listeners.length; i++) {
+			if(listeners[i] == listener) {
+				GamePlayerListener[] newListeners = new GamePlayerListener[listeners.length - 1];
+				System.arraycopy(listeners, 0, newListeners, 0, i);
+				System.arraycopy(listeners, i + 1, newListeners, i, listeners.length - i - 1);
+				listeners = newListeners;
+				return;
+			}
+		}
+	}
+	
+	//the listeners listening to the player, or every listener if pid is -1
+	//the array must not be changed
+	public GamePlayerListener[] getListeners(int pid) {
+		GamePlayerListener[] current = listeners;
+		
+		if(pid == -1 || current.length == 0) return current;
+		
+		int count = 0;
+		
+		for(GamePlayerListener listener : current) {
+			if(listener.getPlayer() == pid) count++;
+		}
+		
+		if(count == current.length) return current;
+		
+		GamePlayerListener[] matching = new GamePlayerListener[count];
+		count = 0;
+		
+		for(GamePlayerListener listener : current) {
+			if(listener.getPlayer() == pid) matching[count++] = listener;
+		}
+		
+		return matching;
+	}
+	
+	public void setDeferred(boolean deferred) {
+		this.deferred = deferred;
+	}
+	
+	public boolean isDeferred() {
+		return deferred;
+	}
+	
+	public void post(GameEvent event) {
+		if(!deferred) {
+			event.dispatch();
+			return;
+		}
+		
+		synchronized(pending) {
+			pending.add(event);
+		}
+	}
+	
+	//dispatches everything posted so far
+	//a listener may change the game again while its event is dispatched;
+	// the events that posts are dispatched by the same call, after the
+	// ones before them
+	public void dispatch() {
+		dispatchLock.lock();
+		
+		try {
+			while(true) {
+				GameEvent event;
+				
+				synchronized(pending) {
+					event = pending.poll();
+				}
+				
+				if(event == null) break;
+				
+				event.dispatch();
+			}
+		} finally {
+			dispatchLock.unlock();
+		}
+	}
+	
+	//whether the current thread is dispatching events
+	public boolean isDispatching() {
+		return dispatchLock.isHeldByCurrentThread();
+	}
+}
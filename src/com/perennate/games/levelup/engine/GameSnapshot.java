@@ -0,0 +1,180 @@
+package com.perennate.games.levelup.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+//the state of a game at the end of a change, for readers that shouldn't
+// hold up the game, like views painting or admin commands looking up names
+//a snapshot never changes once it is published, so it can be read from any
+// thread without a lock; Game.getSnapshot always has the latest one
+//a new snapshot shares whatever didn't change with the one before it, so
+// publishing one after every change mostly copies a few numbers: players
+// are only copied when they change, hands only when their cards or their
+// order change, and the stored plays only when a play is made
+public class GameSnapshot {
+	final int state;
+	final int currentLevel;
+	final int currentDealer;
+	final int trumpSuit;
+	final int nextPlayer;
+	final int startingPlayer;
+	final int storedStartingPlayer;
+	final int betCounter;
+	final int roundOverCounter;
+	
+	final PlayerSnapshot[] players;
+	
+	//each player's bet, or null if they have none
+	final Bet[] bets;
+	final int numBets;
+	
+	//unmodifiable; the tricks themselves are never changed once played
+	final List<List<CardTuple>> storedPlays;
+	
+	//the hands in players are sorted for this context
+	final TrumpContext trumpContext;
+	
+	GameSnapshot(Game game, GameSnapshot previous) {
+		state = game.state;
+		currentLevel = game.currentLevel;
+		currentDealer = game.currentDealer;
+		trumpSuit = game.trumpSuit;
+		nextPlayer = game.nextPlayer;
+		startingPlayer = game.startingPlayer;
+		storedStartingPlayer = game.storedStartingPlayer;
+		betCounter = game.betCountDown;
+		roundOverCounter = game.roundOverCounter;
+		trumpContext = game.trumpContext;
+		
+		int numPlayers = game.players.size();
+		boolean samePlayers = previous != null && previous.players.length == numPlayers;
+		boolean sameOrder = samePlayers && previous.trumpContext == trumpContext;
+		
+		players = new PlayerSnapshot[numPlayers];
+		
+		for(int i = 0; i < numPlayers; i++) {
+			players[i] = PlayerSnapshot.create(game.players.get(i), samePlayers ? previous.players[i] : null, sameOrder);
+		}
+		
+		bets = new Bet[numPlayers];
+		numBets = game.bets == null ? 0 : game.bets.size();
+		
+		for(int i = 0; i < numBets; i++) {
+			Bet bet = game.bets.get(i);
+			
+			if(bet.player < 0 || bet.player >= numPlayers) continue;
+			
+			//bets are changed in place when defended, so they are copied
+			Bet last = samePlayers ? previous.bets[bet.player] : null;
+			
+			if(last != null && last.suit == bet.suit && last.amount == bet.amount) {
+				bets[bet.player] = last;
+			} else {
+				bets[bet.player] = new Bet(bet.player, bet.suit, bet.amount);
+			}
+		}
+		
+		storedPlays = copyPlays(game.storedPlays, previous == null ? null : previous.storedPlays);
+	}
+	
+	static List<List<CardTuple>> copyPlays(List<List<CardTuple>> plays, List<List<CardTuple>> previous) {
+		if(plays == null) {
+			return Collections.emptyList();
+		}
+		
+		if(previous != null && previous.size() == plays.size()) {
+			boolean same = true;
+			
+			for(int i = 0; i < plays.size() && same; i++) {
+				same = previous.get(i) == plays.get(i);
+			}
+			
+			if(same) return previous;
+		}
+		
+		return Collections.unmodifiableList(new ArrayList<List<CardTuple>>(plays));
+	}
+	
+	public int getState() {
+		return state;
+	}
+	
+	public int getNumPlayers() {
+		return players.length;
+	}
+	
+	public PlayerSnapshot getPlayer(int i) {
+		return players[i];
+	}
+	
+	public int getCurrentLevel() {
+		return currentLevel;
+	}
+	
+	public int getCurrentDealer() {
+		return currentDealer;
+	}
+	
+	public int getTrumpSuit() {
+		return trumpSuit;
+	}
+	
+	public int getNextPlayer() {
+		return nextPlayer;
+	}
+	
+	public int getStartingPlayer() {
+		return startingPlayer;
+	}
+	
+	public int getNumStoredPlays() {
+		return storedPlays.size();
+	}
+	
+	public List<CardTuple> getStoredPlay(int i) {
+		return storedPlays.get(i);
+	}
+	
+	public int getStoredStartingPlayer() {
+		return storedStartingPlayer;
+	}
+	
+	public int getNumBets() {
+		return numBets;
+	}
+	
+	public Bet getPlayerBet(int pid) {
+		if(pid < 0 || pid >= bets.length) return null;
+		else return bets[pid];
+	}
+	
+	public int getBetCounter() {
+		return betCounter;
+	}
+	
+	public int getRoundOverCounter() {
+		return roundOverCounter;
+	}
+	
+	//the index of the first player whose name is name, ignoring case, or
+	// else of the last one whose name contains it; -1 if there is none
+	public int findPlayer(String name) {
+		name = name.toLowerCase();
+		int found = -1;
+		
+		for(int i = 0; i < players.length; i++) {
+			String playerName = players[i].name;
+			
+			if(playerName == null) {
+				continue;
+			} else if(playerName.toLowerCase().equals(name)) {
+				return i;
+			} else if(playerName.contains(name)) {
+				found = i;
+			}
+		}
+		
+		return found;
+	}
+}
@@ -0,0 +1,268 @@
+package com.perennate.games.levelup.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+//enumerates the plays a player can legally make right now, without
+// changing the game; each play is a trick in the same form as
+// CardTuple.createTrick returns (one tuple per card, in hand order)
+//plays are listed in a fixed order for a given hand and game state:
+// openings by first card in hand order, then by amount, then by length;
+// follows in depth-first order over the hand, taking more of the
+// earlier cards first
+//like the rest of the engine this is not thread safe, so callers must
+// hold the game lock
+public class LegalMoves {
+	Game game;
+	
+	//separate from the game's validator so that enumerating moves
+	// doesn't disturb a validation in progress
+	FollowValidator validator;
+	
+	//distinct cards of the hand in hand order, with their counts
+	int[] handIds;
+	int[] handCounts;
+	int numHand;
+	
+	//bounds on the amount of each hand card that a follow can use
+	int[] minAmounts;
+	int[] maxAmounts;
+	
+	//capacity[i] is how many more cards can be chosen from hand cards i and on
+	int[] capacity;
+	
+	//the play currently being built
+	int[] playIds;
+	int[] playAmounts;
+	int numPlay;
+	
+	Player player;
+	
+	//found moves go here; null when we are only counting
+	List<List<CardTuple>> moves;
+	int numMoves;
+	
+	//if not -1, only the move with this index is built, into wantedMove
+	int wantedIndex;
+	List<CardTuple> wantedMove;
+	
+	public LegalMoves(Game game) {
+		this.game = game;
+		validator = new FollowValidator(game);
+		
+		handIds = new int[Card.NUM_IDS];
+		handCounts = new int[Card.NUM_IDS];
+		minAmounts = new int[Card.NUM_IDS];
+		maxAmounts = new int[Card.NUM_IDS];
+		capacity = new int[Card.NUM_IDS + 1];
+		playIds = new int[Card.NUM_IDS];
+		playAmounts = new int[Card.NUM_IDS];
+		wantedIndex = -1;
+	}
+	
+	//returns every legal play for the player, or an empty list if it is not
+	// the player's turn to play
+	public List<List<CardTuple>> getMoves(int pid) {
+		moves = new ArrayList<List<CardTuple>>();
+		generate(pid);
+		
+		List<List<CardTuple>> result = moves;
+		moves = null;
+		return result;
+	}
+	
+	//same as getMoves(pid).size(), but without building the tricks
+	public int countMoves(int pid) {
+		moves = null;
+		generate(pid);
+		return numMoves;
+	}
+	
+	//same as getMoves(pid).get(index), but only builds that one trick
+	//returns null if there are not that many moves
+	public List<CardTuple> getMove(int pid, int index) {
+		moves = null;
+		wantedIndex = index;
+		generate(pid);
+		
+		List<CardTuple> result = wantedMove;
+		wantedIndex = -1;
+		wantedMove = null;
+		return result;
+	}
+	
+	public boolean isOpening(int pid) {
+		return pid == game.startingPlayer && pid == game.nextPlayer && game.plays.size() == 0;
+	}
+	
+	void generate(int pid) {
+		numMoves = 0;
+		
+		if(game.state != Game.STATE_PLAYING || pid < 0 || pid >= game.players.size()) {
+			return;
+		}
+		
+		player = game.players.get(pid);
+		loadHand();
+		
+		if(isOpening(pid)) {
+			generateOpenings();
+		} else if(pid == game.nextPlayer && game.openingPlay != null && !game.openingPlay.isEmpty()) {
+			generateFollows();
+		}
+		
+		player = null;
+	}
+	
+	void loadHand() {
+		List<Card> hand = player.hand;
+		numHand = 0;
+		
+		for(int i = 0; i < hand.size(); ) {
+			int id = hand.get(i).id;
+			int count = player.cardCounts[id];
+			
+			handIds[numHand] = id;
+			handCounts[numHand] = count;
+			numHand++;
+			
+			//all copies of a card are next to each other in the hand
+			i += count;
+		}
+	}
+	
+	//an opening play is some amount of one card, or two or more of each of
+	// cards with consecutive game values in the same game suit
+	void generateOpenings() {
+		for(int i = 0; i < numHand; i++) {
+			for(int amount = 1; amount <= handCounts[i]; amount++) {
+				playIds[0] = handIds[i];
+				playAmounts[0] = amount;
+				numPlay = 1;
+				emit();
+				
+				if(amount >= 2) {
+					extendRun(i, amount);
+				}
+			}
+		}
+	}
+	
+	//tries to extend the run ending with hand card i by one more card
+	void extendRun(int i, int amount) {
+		TrumpContext context = game.trumpContext;
+		int suit = context.gameSuit[handIds[i]];
+		int nextValue = context.gameValue[handIds[i]] + 1;
+		
+		//the hand is in order by game value within a suit, but several
+		// cards can share a game value (the level in the other suits)
+		for(int j = i + 1; j < numHand; j++) {
+			int id = handIds[j];
+			
+			if(context.gameSuit[id] != suit || context.gameValue[id] > nextValue) {
+				break;
+			} else if(context.gameValue[id] == nextValue && handCounts[j] >= amount) {
+				playIds[numPlay] = id;
+				playAmounts[numPlay] = amount;
+				numPlay++;
+				emit();
+				
+				extendRun(j, amount);
+				numPlay--;
+			}
+		}
+	}
+	
+	//a follow is any trickCards cards from the hand that the validator accepts
+	//if the player has fewer cards in the trick suit than the trick, all of
+	// them have to be played and the rest can be anything; otherwise the
+	// whole play has to come from the suit
+	void generateFollows() {
+		TrumpContext context = game.trumpContext;
+		int trickSuit = context.gameSuit[game.openingPlay.get(0).card.id];
+		int trickCards = game.trickCards;
+		int suitTotal = player.countSuit(trickSuit);
+		
+		if(player.hand.size() < trickCards) {
+			return;
+		}
+		
+		int remaining = trickCards;
+		
+		for(int i = 0; i < numHand; i++) {
+			boolean inSuit = context.gameSuit[handIds[i]] == trickSuit;
+			
+			if(suitTotal >= trickCards) {
+				minAmounts[i] = 0;
+				maxAmounts[i] = inSuit ? handCounts[i] : 0;
+			} else if(inSuit) {
+				minAmounts[i] = handCounts[i];
+				maxAmounts[i] = handCounts[i];
+				remaining -= handCounts[i];
+			} else {
+				minAmounts[i] = 0;
+				maxAmounts[i] = handCounts[i];
+			}
+		}
+		
+		capacity[numHand] = 0;
+		
+		for(int i = numHand - 1; i >= 0; i--) {
+			capacity[i] = capacity[i + 1] + maxAmounts[i] - minAmounts[i];
+		}
+		
+		numPlay = 0;
+		searchFollows(0, remaining);
+	}
+	
+	//remaining is the number of cards still to choose, not counting the
+	// cards that are forced into the play
+	void searchFollows(int i, int remaining) {
+		if(remaining > capacity[i]) {
+			return;
+		} else if(i == numHand) {
+			if(remaining == 0 && validator.validate(player, playIds, playAmounts, numPlay) == FollowValidator.VALID) {
+				emit();
+			}
+			
+			return;
+		}
+		
+		int extra = Math.min(maxAmounts[i] - minAmounts[i], remaining);
+		
+		for(int amount = minAmounts[i] + extra; amount >= minAmounts[i]; amount--) {
+			int chosen = amount - minAmounts[i];
+			
+			if(amount > 0) {
+				playIds[numPlay] = handIds[i];
+				playAmounts[numPlay] = amount;
+				numPlay++;
+				searchFollows(i + 1, remaining - chosen);
+				numPlay--;
+			} else {
+				searchFollows(i + 1, remaining - chosen);
+			}
+		}
+	}
+	
+	void emit() {
+		if(moves != null) {
+			moves.add(buildTrick());
+		} else if(numMoves == wantedIndex) {
+			wantedMove = buildTrick();
+		}
+		
+		numMoves++;
+	}
+	
+	//plays are built in hand order, which is the order createTrick uses
+	List<CardTuple> buildTrick() {
+		List<CardTuple> trick = new ArrayList<CardTuple>(numPlay);
+		
+		for(int i = 0; i < numPlay; i++) {
+			trick.add(new CardTuple(Card.getCard(playIds[i]), playAmounts[i]));
+		}
+		
+		return trick;
+	}
+}
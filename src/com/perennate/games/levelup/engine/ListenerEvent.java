@@ -0,0 +1,83 @@
+package com.perennate.games.levelup.engine;
+
+import java.util.List;
+
+//a GamePlayerListener event, for the listeners that were there when it was posted
+class ListenerEvent extends GameEvent {
+	static int PLAYER_JOINED = 0;
+	static int PLAYER_LEFT = 1;
+	static int GAME_STATE_CHANGE = 2;
+	static int DECLARE = 3;
+	static int WITHDRAW_DECLARATION = 4;
+	static int DEFEND_DECLARATION = 5;
+	static int PLAY_CARDS = 6;
+	static int DEALT_CARD = 7;
+	static int UPDATE_BET_COUNTER = 8;
+	static int BOTTOM = 9;
+	static int SELECT_BOTTOM = 10;
+	static int UPDATE_ROUND_OVER_COUNTER = 11;
+	static int PLAYER_SWAPPED = 12;
+	static int NEW_PID = 13;
+	static int RESIZED = 14;
+	
+	GamePlayerListener[] listeners;
+	int type;
+	
+	//the arguments of the event, in the order of the listener method
+	int x;
+	int y;
+	int z;
+	Object first;
+	Object second;
+	
+	public ListenerEvent(GamePlayerListener[] listeners, int type, int x, int y, int z, Object first, Object second) {
+		this.listeners = listeners;
+		this.type = type;
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		this.first = first;
+		this.second = second;
+	}
+	
+	public void dispatch() {
+		for(GamePlayerListener listener : listeners) {
+			dispatch(listener);
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	void dispatch(GamePlayerListener listener) {
+		if(type == PLAYER_JOINED) {
+			listener.eventPlayerJoined(x, (String) first);
+		} else if(type == PLAYER_LEFT) {
+			listener.eventPlayerLeft(x);
+		} else if(type == GAME_STATE_CHANGE) {
+			listener.eventGameStateChange(x);
+		} else if(type == DECLARE) {
+			listener.eventDeclare(x, y, z);
+		} else if(type == WITHDRAW_DECLARATION) {
+			listener.eventWithdrawDeclaration(x);
+		} else if(type == DEFEND_DECLARATION) {
+			listener.eventDefendDeclaration(x, y);
+		} else if(type == PLAY_CARDS) {
+			listener.eventPlayCards(x, (List<Card>) first, (List<Integer>) second);
+		} else if(type == DEALT_CARD) {
+			listener.eventDealtCard((Card) first);
+		} else if(type == UPDATE_BET_COUNTER) {
+			listener.eventUpdateBetCounter(x);
+		} else if(type == BOTTOM) {
+			listener.eventBottom((List<Card>) first);
+		} else if(type == SELECT_BOTTOM) {
+			listener.eventSelectBottom((List<Card>) first);
+		} else if(type == UPDATE_ROUND_OVER_COUNTER) {
+			listener.eventUpdateRoundOverCounter(x);
+		} else if(type == PLAYER_SWAPPED) {
+			listener.eventPlayerSwapped(x, y);
+		} else if(type == NEW_PID) {
+			listener.eventNewPID(x);
+		} else if(type == RESIZED) {
+			listener.eventResized(x);
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package com.perennate.games.levelup.engine;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -11,6 +12,21 @@ public class Player {
 	List<Card> hand;
 	int level;
 	
+	//multiset view of the hand so that queries don't have to scan the list
+	//cardCounts is indexed by card id, suitCounts by game suit + 1 (trump first)
+	//hand is kept ordered by CardHandComparator, which groups cards by game
+	// suit in the same order, so suitCounts also gives each suit's range in hand
+	int[] cardCounts;
+	int[] suitCounts;
+	
+	//bit i of copyMasks[id] is set if copy i of the card is in the hand
+	//cards coming from the network are all copy zero, so addCard swaps in
+	// a free copy to keep the uids in a hand unique
+	long[] copyMasks;
+	
+	//Zobrist hash of the multiset of cards in the hand (see Zobrist.cardKey)
+	long handHash;
+	
 	//round-dependent constants
 	int points;
 	boolean defending;
@@ -19,6 +35,9 @@ public class Player {
 		name = null;
 		this.game = game;
 		hand = new ArrayList<Card>();
+		cardCounts = new int[Card.NUM_IDS];
+		suitCounts = new int[5];
+		copyMasks = new long[Card.NUM_IDS];
 		level = 2;
 		defending = false;
 	}
@@ -28,27 +47,78 @@ public class Player {
 	}
 	
 	public void addCard(Card card) {
-		hand.add(card);
-		Collections.sort(hand, new CardHandComparator(game.getTrumpSuit(), game.getCurrentLevel()));
+		//make sure the game suit matches the current trump so that
+		// the card is counted in the right suit
+		TrumpContext context = game.getTrumpContext();
+		long mask = copyMasks[card.id];
+		
+		if((mask & (1L << card.getCopy())) != 0) {
+			card = Card.getCard(card.id, Long.numberOfTrailingZeros(~mask));
+		}
+		
+		//hand is already in order, so binary search for where the card goes
+		// instead of sorting again; the full sort only happens in
+		// calculateGameSuit, when the trump changes
+		int index = Collections.binarySearch(hand, card, context.getHandComparator());
+		
+		if(index < 0) {
+			index = -index - 1;
+		}
+		
+		hand.add(index, card);
+		cardCounts[card.id]++;
+		handHash ^= Zobrist.cardKey(card.id, cardCounts[card.id]);
+		suitCounts[context.getGameSuit(card) + 1]++;
+		copyMasks[card.id] |= 1L << card.getCopy();
+	}
+	
+	public void clearHand() {
+		hand.clear();
+		Arrays.fill(cardCounts, 0);
+		Arrays.fill(suitCounts, 0);
+		Arrays.fill(copyMasks, 0);
+		handHash = 0;
 	}
 	
 	public int countCards(Card card) {
-		return Card.countCards(card, hand);
+		return cardCounts[card.id];
 	}
 	
 	//this is based on game suit so should not be called until state is STATE_PLAYING
 	public int countSuit(int suit) {
-		return Card.countSuit(suit, hand);
+		if(suit < Card.SUIT_TRUMP || suit > Card.SUIT_SPADES) return 0;
+		else return suitCounts[suit + 1];
+	}
+	
+	//returns the index in hand of the first card in the given game suit
+	int suitStart(int suit) {
+		int start = 0;
+		
+		for(int i = 0; i < suit + 1; i++) {
+			start += suitCounts[i];
+		}
+		
+		return start;
 	}
 	
 	public void removeCard(Card card, int amount) {
+		if(countCards(card) == 0) return;
+		
+		//only search the range of the hand that holds the card's game suit
+		int suit = game.getTrumpContext().getGameSuit(card);
+		int start = suitStart(suit);
+		int end = start + suitCounts[suit + 1];
 		int numRemoved = 0;
 		
-		for(int j = 0; j < hand.size(); j++) {
+		for(int j = start; j < end; j++) {
 			if(hand.get(j).equals(card)) {
 				numRemoved++;
-				hand.remove(j);
+				copyMasks[card.id] &= ~(1L << hand.remove(j).getCopy());
+				handHash ^= Zobrist.cardKey(card.id, cardCounts[card.id]);
+				cardCounts[card.id]--;
+				suitCounts[suit + 1]--;
 				j--;
+				end--;
 				
 				if(numRemoved >= amount) break;
 			}
@@ -61,9 +131,15 @@ public class Player {
 		}
 	}
 	
-	public void calculateGameSuit(int trumpSuit, int trumpValue) {
-		Card.calculateGameSuit(trumpSuit, trumpValue, hand);
-		Collections.sort(hand, new CardHandComparator(trumpSuit, trumpValue));
+	public void calculateGameSuit(TrumpContext context) {
+		Collections.sort(hand, context.getHandComparator());
+		
+		//cards may have moved between suits, so recount
+		Arrays.fill(suitCounts, 0);
+		
+		for(Card card : hand) {
+			suitCounts[context.getGameSuit(card) + 1]++;
+		}
 	}
 	
 	//each integer in trickType is how many of a certain card there is
@@ -71,15 +147,21 @@ public class Player {
 	//4H 4H 5H 5H would be {2, 2}
 	//returns true if a trick matching the specified type exists in the suit
 	//assumes hand is already in order by CardHandComparator
+	//a single tuple is not a combination, so trickType needs two or more entries
 	public boolean searchTrick(int suit, List<Integer> trickType) {
+		if(trickType.size() < 2) return false;
+		
 		List<CardTuple> tuples = getTuples(suit);
+		TrumpContext context = game.getTrumpContext();
 		
 		int lastValue = -1;
 		int trickIndex = 0;
 		
 		for(CardTuple tuple : tuples) {
-			if(tuple.getCard().gameSuit == suit && tuple.getAmount() > trickType.get(trickIndex)) {
-				if(lastValue != -1 && tuple.getCard().gameValue == lastValue + 1) {
+			int gameValue = context.getGameValue(tuple.getCard());
+			
+			if(tuple.getAmount() > trickType.get(trickIndex)) {
+				if(lastValue != -1 && gameValue == lastValue + 1) {
 					lastValue++;
 					trickIndex++;
 					
@@ -87,7 +169,7 @@ public class Player {
 						return true;
 					}
 				} else {
-					lastValue = tuple.getCard().gameValue;
+					lastValue = gameValue;
 					trickIndex = 1;
 				}
 			}
@@ -101,37 +183,36 @@ public class Player {
 	public List<CardTuple> getTuples(int suit) {
 		List<CardTuple> array = new ArrayList<CardTuple>();
 		
-		Card currentCard = null;
-		int count = 0;
+		if(countSuit(suit) == 0) return array;
 		
-		for(int i = 0; i < hand.size(); i++) {
+		int start = suitStart(suit);
+		int end = start + suitCounts[suit + 1];
+		
+		for(int i = start; i < end; ) {
 			Card card = hand.get(i);
+			int count = cardCounts[card.getId()];
 			
-			if(card.gameSuit == suit) {
-				if(currentCard != null && card.equals(currentCard)) {
-					count++;
-				} else {
-					if(count >= 2) {
-						array.add(new CardTuple(currentCard, count));
-					}
-					
-					currentCard = card;
-					count = 1;
-				}
+			if(count >= 2) {
+				array.add(new CardTuple(card, count));
 			}
-		}
-		
-		if(count >= 2) {
-			array.add(new CardTuple(currentCard, count));
+			
+			//all copies of a card are next to each other in the hand
+			i += count;
 		}
 		
 		return array;
 	}
 	
+	//the returned list is kept in order and in sync with the card counts,
+	// so it should not be modified directly
 	public List<Card> getHand() {
 		return hand;
 	}
 	
+	public long getHandHash() {
+		return handHash;
+	}
+	
 	public int getLevel() {
 		return level;
 	}
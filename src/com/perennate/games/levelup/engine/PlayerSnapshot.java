@@ -0,0 +1,74 @@
+package com.perennate.games.levelup.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+//a player as of a GameSnapshot; never changes once created
+public class PlayerSnapshot {
+	final String name;
+	final int level;
+	final int points;
+	final boolean defending;
+	
+	//unmodifiable, in the order of the hand
+	final List<Card> hand;
+	final long handHash;
+	
+	PlayerSnapshot(String name, int level, int points, boolean defending, List<Card> hand, long handHash) {
+		this.name = name;
+		this.level = level;
+		this.points = points;
+		this.defending = defending;
+		this.hand = hand;
+		this.handHash = handHash;
+	}
+	
+	//a snapshot of the player that shares what it can with previous, the
+	// same player's last snapshot (or null)
+	//sameOrder is false if the hand may have been sorted differently since
+	static PlayerSnapshot create(Player player, PlayerSnapshot previous, boolean sameOrder) {
+		List<Card> hand;
+		
+		if(previous != null && sameOrder && previous.handHash == player.handHash && previous.hand.size() == player.hand.size()) {
+			if(previous.name == player.name && previous.level == player.level &&
+					previous.points == player.points && previous.defending == player.defending) {
+				return previous;
+			}
+			
+			hand = previous.hand;
+		} else {
+			hand = Collections.unmodifiableList(new ArrayList<Card>(player.hand));
+		}
+		
+		return new PlayerSnapshot(player.name, player.level, player.points, player.defending, hand, player.handHash);
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public int getLevel() {
+		return level;
+	}
+	
+	public int getPoints() {
+		return points;
+	}
+	
+	public boolean getDefending() {
+		return defending;
+	}
+	
+	public String getDefendingString() {
+		return defending ? "defending" : "attacking";
+	}
+	
+	public List<Card> getHand() {
+		return hand;
+	}
+	
+	public String getHandString() {
+		return Card.toString(hand);
+	}
+}
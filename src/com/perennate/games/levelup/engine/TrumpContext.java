@@ -0,0 +1,91 @@
+package com.perennate.games.levelup.engine;
+
+import java.util.Comparator;
+
+//lookup tables for how each card id behaves under a trump suit and value
+//these only change when the trump changes, so Game builds one per round
+// and everything that needs game suit or value indexes these tables
+// instead of going through Card.isTrump and Card.getTrumpWeight again
+public class TrumpContext {
+	int trumpSuit;
+	int trumpValue;
+	
+	//game suit and game value of each card id
+	byte[] gameSuit;
+	byte[] gameValue;
+	
+	//position of each card id in the hand order used by CardHandComparator
+	byte[] handRank;
+	
+	Comparator<Card> handComparator;
+	
+	public TrumpContext(int trumpSuit, int trumpValue) {
+		this.trumpSuit = trumpSuit;
+		this.trumpValue = trumpValue;
+		
+		gameSuit = new byte[Card.NUM_IDS];
+		gameValue = new byte[Card.NUM_IDS];
+		handRank = new byte[Card.NUM_IDS];
+		
+		//sort key for the hand order: trump first by trump weight (then suit,
+		// for the trump value cards that share a weight), then the other
+		// suits in order by value
+		int[] sortKeys = new int[Card.NUM_IDS];
+		
+		for(int id = 0; id < Card.NUM_IDS; id++) {
+			Card card = Card.getCard(id);
+			
+			if(card.isTrump(trumpSuit, trumpValue)) {
+				gameSuit[id] = (byte) Card.SUIT_TRUMP;
+				gameValue[id] = (byte) card.getTrumpWeight(trumpSuit, trumpValue);
+				sortKeys[id] = gameValue[id] * 8 + card.suit + 1;
+			} else {
+				gameSuit[id] = (byte) card.suit;
+				gameValue[id] = (byte) card.value;
+				sortKeys[id] = 1000 + card.suit * 100 + card.value;
+			}
+		}
+		
+		//keys are unique, so the rank is just the number of smaller keys
+		for(int id = 0; id < Card.NUM_IDS; id++) {
+			int rank = 0;
+			
+			for(int other = 0; other < Card.NUM_IDS; other++) {
+				if(sortKeys[other] < sortKeys[id]) rank++;
+			}
+			
+			handRank[id] = (byte) rank;
+		}
+		
+		handComparator = new CardHandComparator(this);
+	}
+	
+	public int getTrumpSuit() {
+		return trumpSuit;
+	}
+	
+	public int getTrumpValue() {
+		return trumpValue;
+	}
+	
+	public int getGameSuit(Card card) {
+		return gameSuit[card.id];
+	}
+	
+	public int getGameValue(Card card) {
+		return gameValue[card.id];
+	}
+	
+	public boolean isTrump(Card card) {
+		return gameSuit[card.id] == Card.SUIT_TRUMP;
+	}
+	
+	public int getHandRank(Card card) {
+		return handRank[card.id];
+	}
+	
+	//shared instance ordering cards like CardHandComparator under this trump
+	public Comparator<Card> getHandComparator() {
+		return handComparator;
+	}
+}
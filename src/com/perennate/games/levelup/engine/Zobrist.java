@@ -0,0 +1,59 @@
+package com.perennate.games.levelup.engine;
+
+import java.util.List;
+
+import com.perennate.games.levelup.util.Util;
+
+//keys for the Zobrist hash of a game (see Game.getHash)
+//keys come from fixed constants rather than a random source, so every
+// server and client computes the same hash for the same state
+class Zobrist {
+	//each kind of key gets its own stream
+	static long CARD = 0x6C8E9CF570932BD5L;
+	static long PLAY = 0x2545F4914F6CDD1DL;
+	static long SEAT = 0x3C6EF372FE94F82BL;
+	static long BOTTOM = 0x1B873593A54FF53AL;
+	static long SCALAR = 0x510E527FADE682D1L;
+	
+	//cardKeys[id][n] is hashed in when a hand gets its (n + 1)-th copy of the card
+	static long[][] cardKeys;
+	
+	static {
+		cardKeys = new long[Card.NUM_IDS][Card.MAX_DECKS];
+		
+		for(int id = 0; id < Card.NUM_IDS; id++) {
+			for(int n = 0; n < Card.MAX_DECKS; n++) {
+				cardKeys[id][n] = key(CARD, id * Card.MAX_DECKS + n);
+			}
+		}
+	}
+	
+	static long key(long stream, long value) {
+		return Util.mix64(stream + (value + 1) * 0x9E3779B97F4A7C15L);
+	}
+	
+	//count is the number of copies in the hand including this one
+	static long cardKey(int id, int count) {
+		return cardKeys[id][count - 1];
+	}
+	
+	//key for the play at index in the current trick
+	static long playKey(int index, int player, List<CardTuple> trick) {
+		long hash = key(PLAY, index * 256 + player);
+		
+		for(CardTuple tuple : trick) {
+			hash ^= key(PLAY + 1, (index * Card.NUM_IDS + tuple.card.id) * 256 + tuple.amount);
+		}
+		
+		return hash;
+	}
+	
+	//hand hashes don't know the seat, so this mixes the seat in
+	static long seatKey(int seat, long handHash) {
+		return Util.mix64(handHash + key(SEAT, seat));
+	}
+	
+	static long scalarKey(int field, long value) {
+		return key(SCALAR + field, value);
+	}
+}
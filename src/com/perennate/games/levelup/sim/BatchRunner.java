@@ -0,0 +1,126 @@
+package com.perennate.games.levelup.sim;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import com.perennate.games.levelup.LevelUp;
+import com.perennate.games.levelup.util.SplitMixRandom;
+import com.perennate.games.levelup.util.Util;
+
+//plays many independent simulated games across all cores
+//every game gets its own seed, from the batch seed and the game's index,
+// so results don't depend on how games are spread over threads
+//games share nothing but the immutable card table; each task keeps its own
+// SimulationStats and they are merged as the tasks are joined
+public class BatchRunner {
+	//games played by one task before it stops splitting
+	public static int GAMES_PER_TASK = 8;
+	
+	int numPlayers;
+	long seed;
+	SimulatedPlayerFactory factory;
+	
+	public BatchRunner(int numPlayers, long seed, SimulatedPlayerFactory factory) {
+		this.numPlayers = numPlayers;
+		this.seed = seed;
+		this.factory = factory;
+	}
+	
+	//parallelism is the number of worker threads, or zero for one per core
+	public SimulationStats run(int numGames, int parallelism) {
+		ForkJoinPool pool;
+		
+		if(parallelism > 0) pool = new ForkJoinPool(parallelism);
+		else pool = new ForkJoinPool();
+		
+		try {
+			return pool.invoke(new GameTask(this, 0, numGames));
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	//plays one game into stats
+	public void playGame(int index, SimulationStats stats) {
+		long gameSeed = getGameSeed(seed, index);
+		SimulatedPlayer[] players = new SimulatedPlayer[numPlayers];
+		
+		for(int i = 0; i < numPlayers; i++) {
+			players[i] = factory.createPlayer(i, new SplitMixRandom(Util.mix64(gameSeed + i + 1)));
+		}
+		
+		Simulation simulation = new Simulation(players, gameSeed);
+		simulation.setStats(stats);
+		simulation.run();
+		stats.recordGame(simulation);
+	}
+	
+	public static long getGameSeed(long seed, int index) {
+		return Util.mix64(seed + (index + 1) * 0x9E3779B97F4A7C15L);
+	}
+	
+	//usage: BatchRunner [games] [players] [seed] [threads]
+	public static void main(String args[]) {
+		int numGames = 1000;
+		int numPlayers = 4;
+		long seed = System.nanoTime();
+		int parallelism = 0;
+		
+		if(args.length >= 1) numGames = Integer.parseInt(args[0]);
+		if(args.length >= 2) numPlayers = Integer.parseInt(args[1]);
+		if(args.length >= 3) seed = Long.parseLong(args[2]);
+		if(args.length >= 4) parallelism = Integer.parseInt(args[3]);
+		
+		LevelUp.println("[BatchRunner] Playing " + numGames + " games with " + numPlayers + " players (seed " + seed + ")");
+		
+		BatchRunner runner = new BatchRunner(numPlayers, seed, new RandomPlayerFactory());
+		long startTime = System.nanoTime();
+		SimulationStats stats = runner.run(numGames, parallelism);
+		long elapsed = (System.nanoTime() - startTime) / 1000000;
+		
+		stats.print();
+		LevelUp.println("[BatchRunner] Finished in " + elapsed + " ms (" + (numGames * 1000L / Math.max(1, elapsed)) + " games per second)");
+	}
+}
+
+class GameTask extends RecursiveTask<SimulationStats> {
+	private static final long serialVersionUID = 1L;
+	
+	BatchRunner runner;
+	int from;
+	int to;
+	
+	public GameTask(BatchRunner runner, int from, int to) {
+		this.runner = runner;
+		this.from = from;
+		this.to = to;
+	}
+	
+	protected SimulationStats compute() {
+		if(to - from <= BatchRunner.GAMES_PER_TASK) {
+			SimulationStats stats = new SimulationStats(runner.numPlayers);
+			
+			for(int i = from; i < to; i++) {
+				runner.playGame(i, stats);
+			}
+			
+			return stats;
+		}
+		
+		int middle = (from + to) >>> 1;
+		GameTask left = new GameTask(runner, from, middle);
+		GameTask right = new GameTask(runner, middle, to);
+		left.fork();
+		
+		SimulationStats stats = right.compute();
+		stats.merge(left.join());
+		return stats;
+	}
+}
+
+class RandomPlayerFactory implements SimulatedPlayerFactory {
+	public SimulatedPlayer createPlayer(int pid, Random random) {
+		return new RandomPlayer(random);
+	}
+}
@@ -0,0 +1,481 @@
+package com.perennate.games.levelup.sim;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import com.perennate.games.levelup.LevelUp;
+import com.perennate.games.levelup.engine.Card;
+import com.perennate.games.levelup.engine.CardTuple;
+import com.perennate.games.levelup.engine.FollowValidator;
+import com.perennate.games.levelup.engine.Game;
+import com.perennate.games.levelup.engine.LegalMoves;
+import com.perennate.games.levelup.engine.Player;
+import com.perennate.games.levelup.engine.TrumpContext;
+
+//cross-checks FollowValidator and LegalMoves against the follow rules that
+// Game.playTrick used before them, over seeded simulated games
+//every time a player has to follow, random plays from their hand, and
+// plays one card away from a legal move, are put to the validator and the
+// old rules; they must agree, except where the old searchTrick threw on a
+// single-tuple opening, which FollowValidator leaves to the replacement
+// rules (the old rules are also checked with that guard added)
+//LegalMoves must list every play that they accept, once, and nothing else
+//with two decks there are no triples, so the default is six players
+//usage: FollowCheck [games] [players] [seed]
+public class FollowCheck implements SimulatedPlayer {
+	public static int CANDIDATES = 20; //random plays per follow
+	public static int MAX_REPORTS = 10;
+	
+	SimulatedPlayer player;
+	Random random;
+	FollowValidator validator;
+	
+	//statistics
+	int follows;
+	int moves;
+	int candidates;
+	int accepted;
+	int oldExceptions;
+	int disagreements;
+	
+	public FollowCheck(SimulatedPlayer player, Random random) {
+		this.player = player;
+		this.random = random;
+	}
+	
+	public void betTick(Game game, int pid) {
+		player.betTick(game, pid);
+	}
+	
+	public List<Card> chooseBottom(Game game, int pid) {
+		return player.chooseBottom(game, pid);
+	}
+	
+	public List<CardTuple> choosePlay(Game game, int pid) {
+		if(game.getNumPlays() > 0) {
+			check(game, pid);
+		}
+		
+		return player.choosePlay(game, pid);
+	}
+	
+	void check(Game game, int pid) {
+		if(validator == null) {
+			validator = new FollowValidator(game);
+		}
+		
+		follows++;
+		
+		LegalMoves legalMoves = game.getLegalMoveGenerator();
+		List<List<CardTuple>> legal = legalMoves.getMoves(pid);
+		HashSet<String> keys = new HashSet<String>();
+		
+		if(legalMoves.countMoves(pid) != legal.size()) {
+			report(game, pid, new ArrayList<CardTuple>(), "countMoves gives " + legalMoves.countMoves(pid) + " moves, getMoves " + legal.size());
+		}
+		
+		for(List<CardTuple> move : legal) {
+			moves++;
+			
+			if(!keys.add(key(move))) {
+				report(game, pid, move, "LegalMoves lists a play twice");
+			}
+			
+			if(!compare(game, pid, move, "legal move")) {
+				report(game, pid, move, "LegalMoves lists a play that the validator rejects");
+			}
+		}
+		
+		for(int i = 0; i < CANDIDATES; i++) {
+			List<CardTuple> play;
+			
+			if(i % 2 == 0 || legal.isEmpty()) {
+				play = randomPlay(game, pid);
+			} else {
+				play = nearMove(game, pid, legal.get(random.nextInt(legal.size())));
+			}
+			
+			if(compare(game, pid, play, "random play")) {
+				accepted++;
+				
+				if(!keys.contains(key(play))) {
+					report(game, pid, play, "LegalMoves is missing a valid play");
+				}
+			}
+			
+			candidates++;
+		}
+	}
+	
+	//returns whether FollowValidator accepts the play
+	boolean compare(Game game, int pid, List<CardTuple> trick, String source) {
+		Player hand = game.getPlayer(pid);
+		List<Card> cards = CardTuple.extractCards(trick);
+		List<Integer> amounts = CardTuple.extractAmounts(trick);
+		
+		int result = validator.validate(hand, trick);
+		boolean valid = result == FollowValidator.VALID;
+		boolean old;
+		
+		try {
+			old = followsOldRules(game, hand, cards, amounts, true);
+		} catch(RuntimeException e) {
+			report(game, pid, trick, source + ": old rules failed with the guard (" + e + ")");
+			return valid;
+		}
+		
+		try {
+			if(followsOldRules(game, hand, cards, amounts, false) != old) {
+				report(game, pid, trick, source + ": old rules changed by the guard");
+			}
+		} catch(IndexOutOfBoundsException e) {
+			oldExceptions++;
+		}
+		
+		if(valid != old) {
+			report(game, pid, trick, source + ": validator says \"" + validator.getMessage(result) + "\", old rules say " + old);
+		}
+		
+		return valid;
+	}
+	
+	void report(Game game, int pid, List<CardTuple> trick, String message) {
+		disagreements++;
+		
+		if(disagreements <= MAX_REPORTS) {
+			LevelUp.println("[FollowCheck] " + message + "; hand " + game.getPlayer(pid).getHandString() +
+					", opening " + toString(game.getPlay(0)) + ", play " + toString(trick));
+		}
+	}
+	
+	//trickCards cards from the hand, or from the trick suit first, with
+	// the cards in a random order
+	List<CardTuple> randomPlay(Game game, int pid) {
+		TrumpContext context = game.getTrumpContext();
+		List<CardTuple> opening = game.getPlay(0);
+		int trickSuit = context.getGameSuit(opening.get(0).getCard());
+		int trickCards = 0;
+		
+		for(CardTuple tuple : opening) {
+			trickCards += tuple.getAmount();
+		}
+		
+		boolean suitFirst = random.nextBoolean();
+		List<Card> suit = new ArrayList<Card>();
+		List<Card> rest = new ArrayList<Card>();
+		
+		for(Card card : game.getPlayer(pid).getHand()) {
+			if(suitFirst && context.getGameSuit(card) == trickSuit) {
+				suit.add(card);
+			} else {
+				rest.add(card);
+			}
+		}
+		
+		Collections.shuffle(suit, random);
+		Collections.shuffle(rest, random);
+		suit.addAll(rest);
+		
+		return group(suit.subList(0, Math.min(trickCards, suit.size())));
+	}
+	
+	//the move with one card swapped for a random card from the hand
+	List<CardTuple> nearMove(Game game, int pid, List<CardTuple> move) {
+		List<Card> hand = game.getPlayer(pid).getHand();
+		List<Card> cards = new ArrayList<Card>();
+		
+		for(CardTuple tuple : move) {
+			for(int i = 0; i < tuple.getAmount(); i++) {
+				cards.add(tuple.getCard());
+			}
+		}
+		
+		cards.set(random.nextInt(cards.size()), hand.get(random.nextInt(hand.size())));
+		Collections.shuffle(cards, random);
+		return group(cards);
+	}
+	
+	//the same for every order and grouping of the same cards
+	static String key(List<CardTuple> trick) {
+		int[] counts = new int[Card.NUM_IDS];
+		
+		for(CardTuple tuple : trick) {
+			counts[tuple.getCard().getId()] += tuple.getAmount();
+		}
+		
+		StringBuilder builder = new StringBuilder();
+		
+		for(int id = 0; id < counts.length; id++) {
+			if(counts[id] > 0) {
+				builder.append(id).append('x').append(counts[id]).append(' ');
+			}
+		}
+		
+		return builder.toString();
+	}
+	
+	//one tuple per distinct card, in the order the cards first appear
+	static List<CardTuple> group(List<Card> cards) {
+		List<Card> distinct = new ArrayList<Card>();
+		List<Integer> amounts = new ArrayList<Integer>();
+		
+		for(Card card : cards) {
+			int index = distinct.indexOf(card);
+			
+			if(index == -1) {
+				distinct.add(card);
+				amounts.add(1);
+			} else {
+				amounts.set(index, amounts.get(index) + 1);
+			}
+		}
+		
+		List<CardTuple> trick = new ArrayList<CardTuple>(distinct.size());
+		
+		for(int i = 0; i < distinct.size(); i++) {
+			trick.add(new CardTuple(distinct.get(i), amounts.get(i)));
+		}
+		
+		return trick;
+	}
+	
+	static String toString(List<CardTuple> trick) {
+		StringBuilder builder = new StringBuilder();
+		
+		for(CardTuple tuple : trick) {
+			if(builder.length() > 0) builder.append(' ');
+			builder.append(tuple.getAmount()).append('x').append(tuple.getCard());
+		}
+		
+		return builder.toString();
+	}
+	
+	//the follower branch of Game.playTrick before FollowValidator, working
+	// on copies of the hand tuples instead of changing CardTuple.amount
+	//without the guard, searchTrick throws IndexOutOfBoundsException like
+	// it used to when a single-tuple opening meets two bigger tuples
+	static boolean followsOldRules(Game game, Player player, List<Card> cards, List<Integer> amounts, boolean guarded) {
+		TrumpContext context = game.getTrumpContext();
+		List<CardTuple> openingPlay = game.getPlay(0);
+		
+		//find the suit and amount of opening play
+		int trickSuit = context.getGameSuit(openingPlay.get(0).getCard());
+		int trickAmount = openingPlay.get(0).getAmount();
+		int trickCards = 0;
+		
+		for(CardTuple tuple : openingPlay) {
+			trickCards += tuple.getAmount();
+		}
+		
+		//make sure player has the cards
+		for(int i = 0; i < cards.size(); i++) {
+			if(player.countCards(cards.get(i)) < amounts.get(i)) {
+				return false;
+			}
+		}
+		
+		//same number of cards
+		int totalCards = 0;
+		
+		for(Integer x : amounts) {
+			totalCards += x;
+		}
+		
+		if(totalCards != trickCards) {
+			return false;
+		}
+		
+		//match suit if possible
+		int suitTotal = player.countSuit(trickSuit);
+		int totalSuitCards = 0;
+		
+		for(int i = 0; i < cards.size(); i++) {
+			if(context.getGameSuit(cards.get(i)) == trickSuit) {
+				totalSuitCards += amounts.get(i);
+			}
+		}
+		
+		if(totalSuitCards != suitTotal && totalSuitCards != trickCards) {
+			return false;
+		}
+		
+		//follow doubles and triples if possible
+		if(trickAmount > 1 && totalSuitCards == trickCards) {
+			List<Integer> openingAmounts = CardTuple.extractAmounts(openingPlay);
+			
+			if(searchTrick(context, player.getTuples(trickSuit), openingAmounts, guarded)) {
+				return amounts.equals(openingAmounts);
+			}
+			
+			//hand tuples as {id, amount}
+			List<int[]> tuples = new ArrayList<int[]>();
+			
+			for(CardTuple tuple : player.getTuples(trickSuit)) {
+				tuples.add(new int[] {tuple.getCard().getId(), tuple.getAmount()});
+			}
+			
+			List<int[]> tuplesPlayed = new ArrayList<int[]>();
+			List<Integer> numCardsPlayed = new ArrayList<Integer>();
+			
+			for(int i = 0; i < amounts.size(); i++) {
+				if(amounts.get(i) >= 2) {
+					numCardsPlayed.add(amounts.get(i));
+					
+					for(int[] tuple : tuples) {
+						if(tuple[0] == cards.get(i).getId()) {
+							tuplesPlayed.add(tuple);
+							break;
+						}
+					}
+				}
+			}
+			
+			for(int i = 0; i < openingAmounts.size(); i++) {
+				int currAmount = openingAmounts.get(i);
+				boolean hasExact = false;
+				
+				for(int[] tuple : tuples) {
+					if(tuple[1] == currAmount) {
+						hasExact = true;
+						break;
+					}
+				}
+				
+				if(hasExact) {
+					boolean foundReplacement = false;
+					
+					for(int j = 0; j < numCardsPlayed.size(); j++) {
+						if(numCardsPlayed.get(j) >= currAmount) {
+							int[] tuple = tuplesPlayed.get(j);
+							tuple[1] -= currAmount;
+							numCardsPlayed.set(j, numCardsPlayed.get(j) - currAmount);
+							
+							if(tuple[1] <= 1) {
+								tuples.remove(tuple);
+							}
+							
+							if(numCardsPlayed.get(j) <= 1) {
+								numCardsPlayed.remove(j);
+								tuplesPlayed.remove(j);
+							}
+							
+							foundReplacement = true;
+							break;
+						}
+					}
+					
+					if(!foundReplacement) {
+						return false;
+					}
+				} else {
+					int remaining = currAmount;
+					
+					while(remaining >= 2) {
+						if(!tuplesPlayed.isEmpty()) {
+							int numPlayed = Math.min(numCardsPlayed.get(0), remaining);
+							remaining -= numPlayed;
+							
+							int[] tuple = tuplesPlayed.get(0);
+							tuple[1] -= numPlayed;
+							numCardsPlayed.set(0, numCardsPlayed.get(0) - numPlayed);
+							
+							if(tuple[1] <= 1) {
+								tuples.remove(tuple);
+							}
+							
+							if(numCardsPlayed.get(0) <= 1) {
+								numCardsPlayed.remove(0);
+								tuplesPlayed.remove(0);
+							}
+						} else if(!tuples.isEmpty()) {
+							return false;
+						} else {
+							break;
+						}
+					}
+				}
+			}
+		}
+		
+		return true;
+	}
+	
+	//Player.searchTrick as it was, optionally with the single-tuple guard
+	static boolean searchTrick(TrumpContext context, List<CardTuple> tuples, List<Integer> trickType, boolean guarded) {
+		if(guarded && trickType.size() < 2) return false;
+		
+		int lastValue = -1;
+		int trickIndex = 0;
+		
+		for(CardTuple tuple : tuples) {
+			int gameValue = context.getGameValue(tuple.getCard());
+			
+			if(tuple.getAmount() > trickType.get(trickIndex)) {
+				if(lastValue != -1 && gameValue == lastValue + 1) {
+					lastValue++;
+					trickIndex++;
+					
+					if(trickIndex >= trickType.size()) {
+						return true;
+					}
+				} else {
+					lastValue = gameValue;
+					trickIndex = 1;
+				}
+			}
+		}
+		
+		return false;
+	}
+	
+	public static void main(String args[]) {
+		int numGames = 200;
+		int numPlayers = 6;
+		long seed = System.nanoTime();
+		
+		if(args.length >= 1) numGames = Integer.parseInt(args[0]);
+		if(args.length >= 2) numPlayers = Integer.parseInt(args[1]);
+		if(args.length >= 3) seed = Long.parseLong(args[2]);
+		
+		LevelUp.println("[FollowCheck] Checking " + numGames + " games with " + numPlayers + " players (seed " + seed + ")");
+		
+		Random random = new Random(seed);
+		int failed = 0;
+		int follows = 0;
+		int moves = 0;
+		int candidates = 0;
+		int accepted = 0;
+		int oldExceptions = 0;
+		int disagreements = 0;
+		
+		for(int i = 0; i < numGames; i++) {
+			FollowCheck[] players = new FollowCheck[numPlayers];
+			
+			for(int j = 0; j < numPlayers; j++) {
+				players[j] = new FollowCheck(new RandomPlayer(new Random(random.nextLong())), new Random(random.nextLong()));
+			}
+			
+			Simulation simulation = new Simulation(players, random.nextLong());
+			
+			if(!simulation.run()) {
+				failed++;
+			}
+			
+			for(FollowCheck player : players) {
+				follows += player.follows;
+				moves += player.moves;
+				candidates += player.candidates;
+				accepted += player.accepted;
+				oldExceptions += player.oldExceptions;
+				disagreements += player.disagreements;
+			}
+		}
+		
+		LevelUp.println("[FollowCheck] " + follows + " follows, " + moves + " legal moves, " + candidates + " random plays (" + accepted + " valid), " + failed + " games failed");
+		LevelUp.println("[FollowCheck] The old searchTrick threw on " + oldExceptions + " plays");
+		LevelUp.println("[FollowCheck] " + (disagreements == 0 ? "No disagreements" : disagreements + " disagreements"));
+	}
+}
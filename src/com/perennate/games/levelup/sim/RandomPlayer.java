@@ -0,0 +1,93 @@
+package com.perennate.games.levelup.sim;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import com.perennate.games.levelup.engine.Card;
+import com.perennate.games.levelup.engine.CardTuple;
+import com.perennate.games.levelup.engine.Game;
+import com.perennate.games.levelup.engine.LegalMoves;
+import com.perennate.games.levelup.engine.Player;
+import com.perennate.games.levelup.engine.TrumpContext;
+
+//simple bot: declares with its most level cards, buries its cheapest
+// cards and plays a random legal move
+public class RandomPlayer implements SimulatedPlayer {
+	Random random;
+	
+	public RandomPlayer(Random random) {
+		this.random = random;
+	}
+	
+	public void betTick(Game game, int pid) {
+		if(game.getPlayerBet(pid) != null) return;
+		
+		Player player = game.getPlayer(pid);
+		int bestSuit = Card.SUIT_NONE;
+		int bestAmount = 0;
+		
+		int level = game.getCurrentLevel();
+		
+		//past ace the level cards are the jokers, declared as trump
+		int firstSuit = level > 14 ? Card.SUIT_TRUMP : Card.SUIT_CLUBS;
+		int lastSuit = level > 14 ? Card.SUIT_TRUMP : Card.SUIT_SPADES;
+		
+		for(int suit = firstSuit; suit <= lastSuit; suit++) {
+			Card card = Card.getCardBySuit(suit, level);
+			if(card == null) continue;
+			
+			int amount = player.countCards(card);
+			
+			if(amount > bestAmount) {
+				bestSuit = suit;
+				bestAmount = amount;
+			}
+		}
+		
+		//game checks whether this beats the current bet
+		if(bestAmount > 0) {
+			game.declare(pid, bestSuit, bestAmount);
+		}
+	}
+	
+	public List<Card> chooseBottom(Game game, int pid) {
+		List<Card> hand = new ArrayList<Card>(game.getPlayer(pid).getHand());
+		Collections.sort(hand, new BottomComparator(game.getTrumpContext()));
+		return new ArrayList<Card>(hand.subList(0, game.getBottom().size()));
+	}
+	
+	public List<CardTuple> choosePlay(Game game, int pid) {
+		//count first so that only the chosen trick is built
+		LegalMoves legalMoves = game.getLegalMoveGenerator();
+		int numMoves = legalMoves.countMoves(pid);
+		
+		if(numMoves == 0) return null;
+		else return legalMoves.getMove(pid, random.nextInt(numMoves));
+	}
+}
+
+//orders cards from the best to bury to the worst: low cards first,
+// then cards with points, then trump
+class BottomComparator implements Comparator<Card> {
+	TrumpContext context;
+	
+	public BottomComparator(TrumpContext context) {
+		this.context = context;
+	}
+	
+	public int compare(Card a, Card b) {
+		return score(a) - score(b);
+	}
+	
+	int score(Card card) {
+		int score = context.getGameValue(card);
+		
+		if(card.getPoints() > 0) score += 50;
+		if(context.isTrump(card)) score += 100;
+		
+		return score;
+	}
+}
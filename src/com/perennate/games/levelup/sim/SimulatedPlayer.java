@@ -0,0 +1,22 @@
+package com.perennate.games.levelup.sim;
+
+import java.util.List;
+
+import com.perennate.games.levelup.engine.Card;
+import com.perennate.games.levelup.engine.CardTuple;
+import com.perennate.games.levelup.engine.Game;
+
+//a player that lives in the same process as the Game, driven by Simulation
+//the player reads whatever it wants from the game, but should only change
+// it through the calls that a GameConnection would make
+public interface SimulatedPlayer {
+	//called on every tick while cards are dealt and bets are open
+	//the player can declare, withdraw or defend on the game directly
+	public void betTick(Game game, int pid);
+	
+	//returns the cards to put back on the bottom when the player is the dealer
+	public List<Card> chooseBottom(Game game, int pid);
+	
+	//returns the trick to play when it's the player's turn
+	public List<CardTuple> choosePlay(Game game, int pid);
+}
@@ -0,0 +1,10 @@
+package com.perennate.games.levelup.sim;
+
+import java.util.Random;
+
+//creates the players for each game of a BatchRunner
+//random is seeded per game and player, so the player should take all of
+// its randomness from it
+public interface SimulatedPlayerFactory {
+	public SimulatedPlayer createPlayer(int pid, Random random);
+}
@@ -0,0 +1,212 @@
+package com.perennate.games.levelup.sim;
+
+import java.util.List;
+import java.util.Random;
+
+import com.perennate.games.levelup.LevelUp;
+import com.perennate.games.levelup.engine.Card;
+import com.perennate.games.levelup.engine.CardTuple;
+import com.perennate.games.levelup.engine.Game;
+
+//runs a game between simulated players without waiting on the clock
+//GameHost sleeps for whatever Game.update returns; here those waits are
+// only added to a virtual clock, and players act as soon as the game
+// is waiting on them, so a whole game takes milliseconds
+public class Simulation {
+	//if nobody declares within this many bet ticks, the cards are dealt again
+	public static int MAX_BET_TICKS = 20;
+	
+	//give up after this many redeals in a row (for example, nobody is
+	// ever dealt a level card to declare with)
+	public static int MAX_REDEALS = 10;
+	
+	Game game;
+	SimulatedPlayer[] players;
+	
+	//stop after this many rounds, or zero to play until the game is over
+	int maxRounds;
+	
+	//statistics
+	long virtualTime; //milliseconds that GameHost would have waited
+	int rounds;
+	int redeals;
+	int consecutiveRedeals;
+	int plays;
+	String error;
+	
+	//if set, every finished round is recorded here
+	SimulationStats stats;
+	
+	public Simulation(SimulatedPlayer[] players) {
+		this(players, Game.generateSeed());
+	}
+	
+	//the same seed and seeded players give the same game every time
+	public Simulation(SimulatedPlayer[] players, long seed) {
+		this.players = players;
+		
+		game = new Game(players.length, true, seed, Game.SHUFFLE_FAST);
+		game.setQuiet(true);
+		
+		for(int i = 0; i < players.length; i++) {
+			game.playerJoined(i, "sim" + i);
+		}
+	}
+	
+	public void setMaxRounds(int maxRounds) {
+		this.maxRounds = maxRounds;
+	}
+	
+	public void setStats(SimulationStats stats) {
+		this.stats = stats;
+	}
+	
+	//plays until the game is over (or maxRounds is reached)
+	//returns false if a player made an illegal move or the game failed
+	public boolean run() {
+		while(game.getState() != Game.STATE_GAMEOVER) {
+			int state = game.getState();
+			
+			if(state == Game.STATE_DEALING || state == Game.STATE_BETTING) {
+				for(int i = 0; i < players.length; i++) {
+					players[i].betTick(game, i);
+				}
+				
+				if(state == Game.STATE_BETTING && game.getNumBets() == 0 && game.getBetCounter() >= MAX_BET_TICKS) {
+					if(consecutiveRedeals >= MAX_REDEALS) {
+						return fail("nobody declared in " + consecutiveRedeals + " deals at level " + game.getCurrentLevel());
+					}
+					
+					redeal();
+					continue;
+				}
+			} else if(state == Game.STATE_BOTTOM) {
+				int dealer = game.getCurrentDealer();
+				List<Card> bottom = players[dealer].chooseBottom(game, dealer);
+				
+				if(bottom == null || !game.selectBottom(dealer, bottom)) {
+					return fail("player " + dealer + " selected an invalid bottom");
+				}
+				
+				consecutiveRedeals = 0;
+				
+				continue;
+			} else if(state == Game.STATE_PLAYING) {
+				int pid = game.getNextPlayer();
+				List<CardTuple> trick = players[pid].choosePlay(game, pid);
+				
+				if(trick == null || !game.playTrick(pid, trick)) {
+					return fail("player " + pid + " made an invalid play");
+				}
+				
+				plays++;
+				
+				if(game.getState() != Game.STATE_PLAYING) {
+					rounds++;
+					
+					if(stats != null) {
+						stats.recordRound(game, rounds);
+					}
+					
+					if(maxRounds > 0 && rounds >= maxRounds) {
+						return true;
+					}
+				}
+				
+				continue;
+			}
+			
+			int ticks = game.update();
+			
+			if(ticks < 0) {
+				return fail("game update failed in state " + state);
+			}
+			
+			virtualTime += ticks;
+		}
+		
+		return true;
+	}
+	
+	//nobody could declare, so throw the hands in and start the round again
+	void redeal() {
+		for(int i = 0; i < game.getNumPlayers(); i++) {
+			game.getPlayer(i).clearHand();
+		}
+		
+		redeals++;
+		consecutiveRedeals++;
+		game.setState(Game.STATE_INIT);
+	}
+	
+	boolean fail(String reason) {
+		error = reason;
+		LevelUp.println("[Simulation] Error: " + reason);
+		return false;
+	}
+	
+	public Game getGame() {
+		return game;
+	}
+	
+	public long getVirtualTime() {
+		return virtualTime;
+	}
+	
+	public int getRounds() {
+		return rounds;
+	}
+	
+	public int getRedeals() {
+		return redeals;
+	}
+	
+	public int getPlays() {
+		return plays;
+	}
+	
+	public String getError() {
+		return error;
+	}
+	
+	//usage: Simulation [games] [players] [seed]
+	public static void main(String args[]) {
+		int numGames = 100;
+		int numPlayers = 4;
+		long seed = System.nanoTime();
+		
+		if(args.length >= 1) numGames = Integer.parseInt(args[0]);
+		if(args.length >= 2) numPlayers = Integer.parseInt(args[1]);
+		if(args.length >= 3) seed = Long.parseLong(args[2]);
+		
+		LevelUp.println("[Simulation] Playing " + numGames + " games with " + numPlayers + " players (seed " + seed + ")");
+		
+		Random random = new Random(seed);
+		long startTime = System.nanoTime();
+		long totalRounds = 0;
+		long totalVirtualTime = 0;
+		int failed = 0;
+		
+		for(int i = 0; i < numGames; i++) {
+			SimulatedPlayer[] players = new SimulatedPlayer[numPlayers];
+			
+			for(int j = 0; j < numPlayers; j++) {
+				players[j] = new RandomPlayer(new Random(random.nextLong()));
+			}
+			
+			Simulation simulation = new Simulation(players, random.nextLong());
+			
+			if(!simulation.run()) {
+				failed++;
+			}
+			
+			totalRounds += simulation.getRounds();
+			totalVirtualTime += simulation.getVirtualTime();
+		}
+		
+		long elapsed = (System.nanoTime() - startTime) / 1000000;
+		
+		LevelUp.println("[Simulation] Finished in " + elapsed + " ms (" + failed + " failed)");
+		LevelUp.println("[Simulation] " + totalRounds + " rounds, " + (totalVirtualTime / 1000) + " seconds of game time");
+	}
+}
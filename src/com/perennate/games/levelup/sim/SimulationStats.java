@@ -0,0 +1,182 @@
+package com.perennate.games.levelup.sim;
+
+import com.perennate.games.levelup.LevelUp;
+import com.perennate.games.levelup.engine.Game;
+
+//totals over a batch of simulated games
+//not thread safe: each BatchRunner task keeps its own and they are merged
+// when the tasks are joined
+public class SimulationStats {
+	//rounds past this are counted, but not in the level progression
+	public static int MAX_ROUNDS_TRACKED = 100;
+	
+	int numPlayers;
+	
+	long games;
+	long failedGames;
+	long rounds;
+	long redeals;
+	long plays;
+	long virtualTime;
+	
+	//games won by each seat
+	long[] seatWins;
+	
+	//number of games that took each number of rounds
+	long[] roundsPerGame;
+	
+	//sum over games of the highest level after each round, and how many
+	// games got that far, for the average level progression
+	long[] levelSums;
+	long[] levelCounts;
+	
+	//rounds by attacking points (in steps of five)
+	long[] attackingPoints;
+	
+	//rounds by Game.getRoundWinner, offset by three (-3 is the lowest)
+	long[] roundWinners;
+	
+	public SimulationStats(int numPlayers) {
+		this.numPlayers = numPlayers;
+		
+		seatWins = new long[numPlayers];
+		roundsPerGame = new long[MAX_ROUNDS_TRACKED + 1];
+		levelSums = new long[MAX_ROUNDS_TRACKED];
+		levelCounts = new long[MAX_ROUNDS_TRACKED];
+		
+		//every point card in every deck: 100 points per deck
+		attackingPoints = new long[(numPlayers / 2) * 100 / 5 + 1];
+		roundWinners = new long[attackingPoints.length + 3];
+	}
+	
+	public void recordRound(Game game, int round) {
+		int points = game.getRoundAttackingPoints() / 5;
+		attackingPoints[Math.min(points, attackingPoints.length - 1)]++;
+		
+		int winner = game.getRoundWinner() + 3;
+		roundWinners[Math.min(winner, roundWinners.length - 1)]++;
+		
+		if(round <= MAX_ROUNDS_TRACKED) {
+			int highestLevel = 0;
+			
+			for(int i = 0; i < game.getNumPlayers(); i++) {
+				highestLevel = Math.max(highestLevel, game.getPlayer(i).getLevel());
+			}
+			
+			levelSums[round - 1] += highestLevel;
+			levelCounts[round - 1]++;
+		}
+	}
+	
+	public void recordGame(Simulation simulation) {
+		games++;
+		rounds += simulation.getRounds();
+		redeals += simulation.getRedeals();
+		plays += simulation.getPlays();
+		virtualTime += simulation.getVirtualTime();
+		
+		if(simulation.getError() != null) {
+			failedGames++;
+			return;
+		}
+		
+		roundsPerGame[Math.min(simulation.getRounds(), MAX_ROUNDS_TRACKED)]++;
+		Game game = simulation.getGame();
+		
+		for(int i = 0; i < numPlayers; i++) {
+			if(game.getPlayer(i).getLevel() >= 16) {
+				seatWins[i]++;
+			}
+		}
+	}
+	
+	public void merge(SimulationStats other) {
+		games += other.games;
+		failedGames += other.failedGames;
+		rounds += other.rounds;
+		redeals += other.redeals;
+		plays += other.plays;
+		virtualTime += other.virtualTime;
+		
+		add(seatWins, other.seatWins);
+		add(roundsPerGame, other.roundsPerGame);
+		add(levelSums, other.levelSums);
+		add(levelCounts, other.levelCounts);
+		add(attackingPoints, other.attackingPoints);
+		add(roundWinners, other.roundWinners);
+	}
+	
+	static void add(long[] target, long[] source) {
+		for(int i = 0; i < target.length; i++) {
+			target[i] += source[i];
+		}
+	}
+	
+	public long getGames() {
+		return games;
+	}
+	
+	public long getFailedGames() {
+		return failedGames;
+	}
+	
+	public long getRounds() {
+		return rounds;
+	}
+	
+	public long getPlays() {
+		return plays;
+	}
+	
+	public long getVirtualTime() {
+		return virtualTime;
+	}
+	
+	public double getWinRate(int seat) {
+		long finished = games - failedGames;
+		
+		if(finished == 0) return 0;
+		else return (double) seatWins[seat] / finished;
+	}
+	
+	public void print() {
+		LevelUp.println("[SimulationStats] " + games + " games (" + failedGames + " failed), " + rounds + " rounds, " +
+				plays + " plays, " + redeals + " redeals, " + (virtualTime / 1000) + " seconds of game time");
+		
+		StringBuilder line = new StringBuilder("[SimulationStats] Win rate by seat:");
+		
+		for(int i = 0; i < numPlayers; i++) {
+			line.append(String.format(" %d=%.3f", i, getWinRate(i)));
+		}
+		
+		LevelUp.println(line.toString());
+		
+		line = new StringBuilder("[SimulationStats] Average highest level after round:");
+		
+		for(int i = 0; i < MAX_ROUNDS_TRACKED && levelCounts[i] > 0; i += 5) {
+			line.append(String.format(" %d=%.2f", i + 1, (double) levelSums[i] / levelCounts[i]));
+		}
+		
+		LevelUp.println(line.toString());
+		
+		line = new StringBuilder("[SimulationStats] Rounds by levels gained (negative for defenders):");
+		
+		for(int i = 0; i < roundWinners.length; i++) {
+			if(roundWinners[i] > 0) {
+				line.append(" " + (i - 3) + "=" + roundWinners[i]);
+			}
+		}
+		
+		LevelUp.println(line.toString());
+		
+		line = new StringBuilder("[SimulationStats] Rounds by attacking points:");
+		
+		for(int i = 0; i < attackingPoints.length; i++) {
+			if(attackingPoints[i] > 0) {
+				line.append(" " + (i * 5) + "=" + attackingPoints[i]);
+			}
+		}
+		
+		LevelUp.println(line.toString());
+	}
+}
@@ -13,6 +13,7 @@ import com.perennate.games.levelup.LevelUp;
 import com.perennate.games.levelup.engine.Bet;
 import com.perennate.games.levelup.engine.Card;
 import com.perennate.games.levelup.engine.Game;
+import com.perennate.games.levelup.engine.GameSnapshot;
 
 public class GameButtonsPanel extends JPanel implements ActionListener {
 	UglyView view;
@@ -59,9 +60,12 @@ public class GameButtonsPanel extends JPanel implements ActionListener {
 	//reselect which buttons to show
 	public synchronized void updateButtons() {
 		List<String> newButtons = new ArrayList<String>();
+		GameSnapshot snapshot = game.getSnapshot();
 		
-		if(game.getState() == Game.STATE_DEALING || game.getState() == Game.STATE_BETTING) {
-			Bet bet = game.getPlayerBet(view.getPlayer());
+		if(view.getPlayer() == -1) {
+			//spectators can't play
+		} else if(snapshot.getState() == Game.STATE_DEALING || snapshot.getState() == Game.STATE_BETTING) {
+			Bet bet = snapshot.getPlayerBet(view.getPlayer());
 			
 			if(bet == null) {
 				newButtons.add("declare");
@@ -69,12 +73,12 @@ public class GameButtonsPanel extends JPanel implements ActionListener {
 				newButtons.add("defend");
 				newButtons.add("withdraw");
 			}
-		} else if(game.getState() == Game.STATE_BOTTOM) {
-			if(view.getPlayer() == game.getCurrentDealer()) {
+		} else if(snapshot.getState() == Game.STATE_BOTTOM) {
+			if(view.getPlayer() == snapshot.getCurrentDealer()) {
 				newButtons.add("bottom");
 			}
-		} else if(game.getState() == Game.STATE_PLAYING) {
-			if(view.getPlayer() == game.getNextPlayer()) {
+		} else if(snapshot.getState() == Game.STATE_PLAYING) {
+			if(view.getPlayer() == snapshot.getNextPlayer()) {
 				newButtons.add("play");
 			}
 		}
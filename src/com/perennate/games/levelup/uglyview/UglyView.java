@@ -9,6 +9,7 @@ import com.perennate.games.levelup.LevelUp;
 import com.perennate.games.levelup.View;
 import com.perennate.games.levelup.engine.Card;
 import com.perennate.games.levelup.engine.Game;
+import com.perennate.games.levelup.engine.GameSnapshot;
 
 public class UglyView extends View {
 	UglyFrame frame;
@@ -58,18 +59,18 @@ public class UglyView extends View {
 	}
 	
 	public void eventGameUpdated() {
-		synchronized(game) {
-			if(game.getState() == Game.STATE_PLAYING) {
-				if(pid == game.getNextPlayer()) {
-					LevelUp.println("[View] It is now your turn.");
-					LevelUp.println("[View] Your cards:" + game.getPlayer(pid).getHandString());
-				} else {
-					LevelUp.println("[View] It is Player " + game.getNextPlayer() + "'s turn.");
-				}
+		GameSnapshot snapshot = game.getSnapshot();
+		
+		if(snapshot.getState() == Game.STATE_PLAYING) {
+			if(pid == snapshot.getNextPlayer()) {
+				LevelUp.println("[View] It is now your turn.");
+				LevelUp.println("[View] Your cards:" + snapshot.getPlayer(pid).getHandString());
+			} else {
+				LevelUp.println("[View] It is Player " + snapshot.getNextPlayer() + "'s turn.");
 			}
 		}
 		
-		//GamePanel has it's own synchronization
+		//GamePanel paints from its own snapshot
 		frame.gameUpdated();
 	}
 	
@@ -0,0 +1,174 @@
+package com.perennate.games.levelup.util;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.perennate.games.levelup.LevelUp;
+
+//runs tasks after a delay, for keep-alives and idle timeouts
+//timeouts are put in one of the wheel's buckets by their deadline, and
+// each tick only looks at one bucket, so the cost doesn't grow with the
+// number of connections; a deadline further away than one turn of the
+// wheel waits for the bucket to come around that many more times
+//deadlines are only as precise as the tick, which is fine for timeouts
+// measured in seconds
+//tasks run on the timer's thread, so they must be quick and never block
+// for long; one slow task delays every other timeout
+public class HashedWheelTimer implements Runnable {
+	public static int DEFAULT_TICK = 100; //milliseconds
+	public static int DEFAULT_WHEEL_SIZE = 512;
+	
+	static HashedWheelTimer shared;
+	
+	long tickNanos;
+	
+	//each bucket is a linked list of timeouts; timer thread only
+	Timeout[] wheel;
+	int mask;
+	
+	//timeouts scheduled since the last tick
+	ConcurrentLinkedQueue<Timeout> added;
+	
+	long startTime;
+	long tick;
+	
+	Thread thread;
+	volatile boolean stopped;
+	
+	//wheelSize is rounded up to a power of two
+	public HashedWheelTimer(String name, long tickMillis, int wheelSize) {
+		int size = 1;
+		
+		while(size < wheelSize) {
+			size <<= 1;
+		}
+		
+		tickNanos = tickMillis * 1000000L;
+		wheel = new Timeout[size];
+		mask = size - 1;
+		added = new ConcurrentLinkedQueue<Timeout>();
+		startTime = System.nanoTime();
+		
+		thread = new Thread(this, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	//the timer shared by everything in this process
+	public static synchronized HashedWheelTimer getShared() {
+		if(shared == null) {
+			shared = new HashedWheelTimer("HashedWheelTimer", DEFAULT_TICK, DEFAULT_WHEEL_SIZE);
+		}
+		
+		return shared;
+	}
+	
+	//runs the task once, after about delayMillis; called on any thread
+	public Timeout schedule(Runnable task, long delayMillis) {
+		Timeout timeout = new Timeout(task, System.nanoTime() + delayMillis * 1000000L);
+		added.add(timeout);
+		return timeout;
+	}
+	
+	public void stop() {
+		stopped = true;
+		thread.interrupt();
+	}
+	
+	public void run() {
+		while(!stopped) {
+			long deadline = startTime + (tick + 1) * tickNanos;
+			long sleepNanos;
+			
+			while((sleepNanos = deadline - System.nanoTime()) > 0) {
+				try {
+					Thread.sleep(sleepNanos / 1000000L, (int) (sleepNanos % 1000000L));
+				} catch(InterruptedException e) {
+					if(stopped) return;
+				}
+			}
+			
+			Timeout timeout;
+			
+			while((timeout = added.poll()) != null) {
+				add(timeout);
+			}
+			
+			expire((int) (tick & mask));
+			tick++;
+		}
+	}
+	
+	//timer thread only
+	void add(Timeout timeout) {
+		if(timeout.cancelled) return;
+		
+		//a deadline that has already passed goes in the current bucket
+		long ticks = Math.max((timeout.deadline - startTime) / tickNanos, tick);
+		timeout.rounds = (ticks - tick) / wheel.length;
+		
+		int bucket = (int) (ticks & mask);
+		timeout.next = wheel[bucket];
+		wheel[bucket] = timeout;
+	}
+	
+	//timer thread only
+	//runs what is due in the bucket and keeps the rest
+	void expire(int bucket) {
+		Timeout timeout = wheel[bucket];
+		Timeout kept = null;
+		wheel[bucket] = null;
+		
+		while(timeout != null) {
+			Timeout next = timeout.next;
+			timeout.next = null;
+			
+			if(timeout.cancelled) {
+				//dropped
+			} else if(timeout.rounds > 0) {
+				timeout.rounds--;
+				timeout.next = kept;
+				kept = timeout;
+			} else {
+				timeout.run();
+			}
+			
+			timeout = next;
+		}
+		
+		wheel[bucket] = kept;
+	}
+	
+	public static class Timeout {
+		Runnable task;
+		long deadline;
+		
+		//turns of the wheel left before the deadline; timer thread only
+		long rounds;
+		Timeout next;
+		
+		volatile boolean cancelled;
+		
+		Timeout(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+		
+		//the task won't run if it hasn't started yet
+		public void cancel() {
+			cancelled = true;
+		}
+		
+		public boolean isCancelled() {
+			return cancelled;
+		}
+		
+		void run() {
+			try {
+				task.run();
+			} catch(Throwable t) {
+				//don't let one task stop every other timeout
+				LevelUp.println("[HashedWheelTimer] Task failed: " + t);
+			}
+		}
+	}
+}
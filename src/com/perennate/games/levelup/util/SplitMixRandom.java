@@ -0,0 +1,31 @@
+package com.perennate.games.levelup.util;
+
+import java.util.Random;
+
+//a Random using SplitMix64, for shuffling in simulations
+//unlike java.util.Random it isn't synchronized on a shared seed, so it's
+// cheap when every game has its own; it is not suitable where players
+// could predict the cards from the ones they have seen
+public class SplitMixRandom extends Random {
+	private static final long serialVersionUID = 1L;
+	
+	long state;
+	
+	public SplitMixRandom(long seed) {
+		super(0);
+		state = seed;
+	}
+	
+	public void setSeed(long seed) {
+		state = seed;
+	}
+	
+	public long nextLong() {
+		state += 0x9E3779B97F4A7C15L;
+		return Util.mix64(state);
+	}
+	
+	protected int next(int bits) {
+		return (int) (nextLong() >>> (64 - bits));
+	}
+}
@@ -1,5 +1,8 @@
 package com.perennate.games.levelup.util;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Arrays;
 
 public class Util {
@@ -18,4 +21,54 @@ public class Util {
 	    }
 	    return cleanName.toString();
 	}
+	
+	//SplitMix64 finalizer: spreads nearby seeds (like a seed plus a counter)
+	// over unrelated values
+	public static long mix64(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+	
+	//variable-length ints for the v2 protocol: zigzag, so that small
+	// negative numbers like -1 stay small, then seven bits per byte with the
+	// high bit set on every byte but the last
+	public static void writeVarInt(DataOutput out, int x) throws IOException {
+		int z = (x << 1) ^ (x >> 31);
+		
+		while((z & ~0x7F) != 0) {
+			out.writeByte((z & 0x7F) | 0x80);
+			z >>>= 7;
+		}
+		
+		out.writeByte(z);
+	}
+	
+	public static int readVarInt(DataInput in) throws IOException {
+		int z = 0;
+		
+		for(int shift = 0; shift < 35; shift += 7) {
+			int b = in.readUnsignedByte();
+			z |= (b & 0x7F) << shift;
+			
+			if((b & 0x80) == 0) {
+				return (z >>> 1) ^ -(z & 1);
+			}
+		}
+		
+		throw new IOException("varint is too long");
+	}
+	
+	//the number of bytes writeVarInt uses for x
+	public static int getVarIntSize(int x) {
+		int z = (x << 1) ^ (x >> 31);
+		int size = 1;
+		
+		while((z & ~0x7F) != 0) {
+			z >>>= 7;
+			size++;
+		}
+		
+		return size;
+	}
 }